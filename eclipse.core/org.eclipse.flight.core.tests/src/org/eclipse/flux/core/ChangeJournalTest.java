@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Martin Lippert
+ */
+public class ChangeJournalTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private File directory;
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("journal").toFile();
+		file = new File(directory, "changes.journal");
+	}
+
+	@After
+	public void tearDown() {
+		for (File child : directory.listFiles()) {
+			child.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testChangesSince() {
+		ChangeJournal journal = new ChangeJournal(null);
+		journal.recordStored("src/A.java", "file", 1, "a1");
+		journal.recordStored("src/B.java", "file", 1, "b1");
+		long lastSeenSequence = journal.getSequence();
+
+		journal.recordStored("src/A.java", "file", 2, "a2");
+		journal.recordStored("src/A.java", "file", 2, "a2");
+		journal.recordDeleted("src/B.java", 3);
+		journal.recordStored("src/C.java", "file", 4, "c1");
+
+		List<ChangeJournal.Change> changes = journal.getChangesSince(lastSeenSequence);
+		assertEquals(3, changes.size());
+		assertEquals("src/A.java", changes.get(0).getPath());
+		assertEquals("a2", changes.get(0).getHash());
+		assertTrue(changes.get(1).isDeleted());
+		assertEquals("src/C.java", changes.get(2).getPath());
+
+		assertTrue(journal.getChangesSince(journal.getSequence()).isEmpty());
+		assertNull(journal.getChangesSince(journal.getSequence() + 1));
+	}
+
+	@Test
+	public void testReload() {
+		ChangeJournal journal = new ChangeJournal(file);
+		journal.recordStored("src/A.java", "file", 1, "a1");
+		journal.recordStored("src/B.java", "file", 1, "b1");
+		journal.recordDeleted("src/B.java", 2);
+		journal.close();
+
+		ChangeJournal reloaded = new ChangeJournal(file);
+		assertEquals(journal.getJournalID(), reloaded.getJournalID());
+		assertEquals(journal.getSequence(), reloaded.getSequence());
+		assertEquals(2, reloaded.getChangesSince(0).size());
+		assertEquals(1, reloaded.getDeletions().size());
+		assertEquals(1, reloaded.getExistingResources().size());
+	}
+
+	@Test
+	public void testIncompleteLastEntryIsDropped() throws IOException {
+		ChangeJournal journal = new ChangeJournal(file);
+		journal.recordStored("src/A.java", "file", 1, "a1");
+		journal.close();
+		Files.write(file.toPath(), "{\"sequence\":2,\"pa".getBytes(UTF8), StandardOpenOption.APPEND);
+
+		ChangeJournal reloaded = new ChangeJournal(file);
+		assertEquals(journal.getJournalID(), reloaded.getJournalID());
+		assertEquals(1, reloaded.getSequence());
+		assertEquals(1, reloaded.getChangesSince(0).size());
+	}
+
+	@Test
+	public void testUnreadableJournalStartsOver() throws IOException {
+		ChangeJournal journal = new ChangeJournal(file);
+		journal.recordStored("src/A.java", "file", 1, "a1");
+		journal.recordStored("src/B.java", "file", 1, "b1");
+		journal.close();
+		// a readable header with a broken entry
+		Files.write(file.toPath(), "{\"sequence\":3}\n".getBytes(UTF8), StandardOpenOption.APPEND);
+
+		ChangeJournal recovered = new ChangeJournal(file);
+		assertFalse(journal.getJournalID().equals(recovered.getJournalID()));
+		assertEquals(0, recovered.getSequence());
+		assertTrue(recovered.getChangesSince(0).isEmpty());
+		assertNull(recovered.getChangesSince(2));
+		assertTrue(recovered.getExistingResources().isEmpty());
+
+		recovered.recordStored("src/A.java", "file", 1, "a1");
+		assertEquals(1, recovered.getSequence());
+		recovered.close();
+
+		// the new journal is written to the file
+		assertEquals(recovered.getJournalID(), new ChangeJournal(file).getJournalID());
+	}
+
+	@Test
+	public void testGarbageFileStartsOver() throws IOException {
+		Files.write(file.toPath(), "garbage".getBytes(UTF8));
+
+		ChangeJournal journal = new ChangeJournal(file);
+		assertEquals(0, journal.getSequence());
+		journal.recordStored("src/A.java", "file", 1, "a1");
+		journal.close();
+		assertEquals(1, new ChangeJournal(file).getSequence());
+	}
+
+	@Test
+	public void testCompaction() throws IOException {
+		ChangeJournal journal = new ChangeJournal(file);
+		for (int i = 0; i < 2000; i++) {
+			journal.recordStored("src/A.java", "file", i, "a" + i);
+		}
+		journal.close();
+
+		// the header and the latest change of the resource, plus the changes since the last compaction
+		assertTrue(Files.readAllLines(file.toPath(), UTF8).size() < 1100);
+		ChangeJournal reloaded = new ChangeJournal(file);
+		assertEquals(2000, reloaded.getSequence());
+		assertEquals("a1999", reloaded.getChangesSince(0).get(0).getHash());
+	}
+
+	@Test
+	public void testTruncatedDeletionsNeedFullListing() {
+		ChangeJournal journal = new ChangeJournal(null);
+		int deletions = Integer.getInteger("flux-journal-deletions", 10000) + 1;
+		for (int i = 0; i < deletions; i++) {
+			journal.recordStored("src/A" + i + ".java", "file", 1, "a");
+			journal.recordDeleted("src/A" + i + ".java", 2);
+		}
+
+		assertNull(journal.getChangesSince(0));
+		assertTrue(journal.getDeletions().size() < deletions);
+		assertTrue(journal.getChangesSince(journal.getSequence() - 1).size() == 1);
+	}
+
+}
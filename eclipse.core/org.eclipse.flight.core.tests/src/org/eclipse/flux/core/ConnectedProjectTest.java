@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.core.resources.IProject;
+import org.junit.Test;
+
+/**
+ * Tests the index of a project that has no resources in the workspace, all resources are set explicitly.
+ *
+ * @author Martin Lippert
+ */
+public class ConnectedProjectTest {
+
+	@Test
+	public void testResourcesSortedByPath() {
+		ConnectedProject connectedProject = createConnectedProject();
+		connectedProject.setResource("src/b/B.java", "file", 1, "b");
+		connectedProject.setResource("src", "folder", 1, "0");
+		connectedProject.setResource("src/a/A.java", "file", 1, "a");
+
+		assertEquals(3, getPaths(connectedProject, null, Long.MIN_VALUE).size());
+		assertEquals("src/a/A.java", getPaths(connectedProject, null, Long.MIN_VALUE).get(1));
+		assertEquals("src/b/B.java", getPaths(connectedProject, "src/a/A.java", Long.MIN_VALUE).get(0));
+	}
+
+	@Test
+	public void testChangedSinceUsesLocalChangeTime() throws Exception {
+		ConnectedProject connectedProject = createConnectedProject();
+		connectedProject.setResource("src/A.java", "file", 1, "a");
+		Thread.sleep(5);
+		long changedSince = System.currentTimeMillis();
+		Thread.sleep(5);
+
+		// downloaded with the (older) timestamp of the peer, but changed here after the given time
+		connectedProject.setResource("src/B.java", "file", 2, "b");
+		connectedProject.setTimestamp("src/C.java", 3);
+
+		List<String> changed = getPaths(connectedProject, null, changedSince);
+		assertEquals(2, changed.size());
+		assertEquals("src/B.java", changed.get(0));
+		assertEquals("src/C.java", changed.get(1));
+		assertEquals(2, connectedProject.getTimestamp("src/B.java"));
+
+		assertTrue(getPaths(connectedProject, null, System.currentTimeMillis()).isEmpty());
+	}
+
+	@Test
+	public void testRemovedResourcesAreJournaled() {
+		ConnectedProject connectedProject = createConnectedProject();
+		connectedProject.setResource("src", "folder", 1, "0");
+		connectedProject.setResource("src/A.java", "file", 1, "a");
+		connectedProject.setResource("srcB.java", "file", 1, "b");
+
+		connectedProject.removeResource("src", 5);
+		assertFalse(connectedProject.containsResource("src/A.java"));
+		assertTrue(connectedProject.containsResource("srcB.java"));
+		assertNull(connectedProject.getHash("src"));
+
+		List<ChangeJournal.Change> deletions = connectedProject.getJournal().getDeletions();
+		assertEquals(2, deletions.size());
+		assertEquals(5, deletions.get(0).getTimestamp());
+	}
+
+	/**
+	 * @return the paths listed like for a <code>getProjectRequest</code> with <code>changedSince</code>
+	 */
+	private static List<String> getPaths(ConnectedProject connectedProject, String afterPath, long changedSince) {
+		List<String> paths = new ArrayList<String>();
+		for (ConnectedProject.ResourceInfo resource : connectedProject.getResources(afterPath)) {
+			if (resource.getChangeTime() > changedSince) {
+				paths.add(resource.getPath());
+			}
+		}
+		return paths;
+	}
+
+	private static ConnectedProject createConnectedProject() {
+		IProject project = (IProject) Proxy.newProxyInstance(ConnectedProjectTest.class.getClassLoader(), new Class<?>[] {IProject.class},
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("getName")) {
+							return "project";
+						}
+						else if (method.getReturnType() == boolean.class) {
+							return false;
+						}
+						else if (method.getReturnType() == int.class) {
+							return 0;
+						}
+						else if (method.getReturnType() == long.class) {
+							return 0L;
+						}
+						// no resources to visit and no working location, the journal is kept in memory
+						return null;
+					}
+				});
+
+		ConnectedProject connectedProject = new ConnectedProject(project);
+		connectedProject.openJournal();
+		return connectedProject;
+	}
+
+}
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Martin Lippert
+ */
+public class LiveDocumentTest {
+
+	@Test
+	public void testReplaceKeepsContent() {
+		Random random = new Random(0);
+		StringBuilder expected = new StringBuilder("public class Test {\n}\n");
+		LiveDocument document = new LiveDocument(expected.toString());
+
+		for (int i = 0; i < 2000; i++) {
+			int offset = random.nextInt(expected.length() + 1);
+			int removed = Math.min(random.nextInt(20), expected.length() - offset);
+			String added = random.nextInt(3) == 0 ? "" : Integer.toString(random.nextInt(1000000));
+
+			expected.replace(offset, offset + removed, added);
+			document.replace(offset, removed, added);
+		}
+
+		assertEquals(expected.toString(), document.getContent());
+		assertEquals(expected.length(), document.getLength());
+	}
+
+	@Test
+	public void testSetContentReplacesDifferingRegionOnly() {
+		LiveDocument document = new LiveDocument("int a = 1;");
+
+		assertArrayEquals(new int[] {8, 1, 2}, document.setContent("int a = 42;"));
+		assertEquals("int a = 42;", document.getContent());
+		assertNull(document.setContent("int a = 42;"));
+	}
+
+	@Test
+	public void testSetContentWithCollidingFingerprint() {
+		// Thue-Morse strings and their complements have the same 64 bit polynomial hash
+		String content = thueMorse(1 << 11, 'a', 'b');
+		String collidingContent = thueMorse(1 << 11, 'b', 'a');
+		assertEquals(ContentFingerprint.of(content), ContentFingerprint.of(collidingContent));
+
+		LiveDocument document = new LiveDocument(content);
+		assertTrue(document.setContent(collidingContent) != null);
+		assertEquals(collidingContent, document.getContent());
+	}
+
+	@Test
+	public void testKnownHashBelongsToSnapshotContent() {
+		LiveDocument document = new LiveDocument("class A {}");
+		document.rememberHash(document.snapshot(), "hashA");
+		assertEquals("hashA", document.getKnownHash());
+
+		document.replace(6, 1, "B");
+		assertNull(document.getKnownHash());
+		assertTrue(document.isKnownToDiffer("hashA"));
+		assertFalse(document.isKnownToDiffer("unknown"));
+	}
+
+	@Test
+	public void testKnownHashNotTakenForCollidingContent() {
+		String content = thueMorse(1 << 11, 'a', 'b');
+		LiveDocument document = new LiveDocument(content);
+		document.rememberHash(document.snapshot(), "hash");
+
+		document.setContent(thueMorse(1 << 11, 'b', 'a'));
+		assertNull(document.getKnownHash());
+	}
+
+	private static String thueMorse(int length, char zero, char one) {
+		StringBuilder result = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			result.append(Integer.bitCount(i) % 2 == 0 ? zero : one);
+		}
+		return result.toString();
+	}
+
+}
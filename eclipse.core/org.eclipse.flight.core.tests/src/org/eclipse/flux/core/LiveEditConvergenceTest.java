@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Lets 10+ writers edit the same live resource concurrently through a simulated messaging server and checks
+ * that all of them end up with the same content, using the {@link LiveEditTransformer} of every writer.
+ *
+ * The server assigns the revisions and delivers the edits to all writers (including the sender) in that order,
+ * like the node server does for <code>liveResourceChanged</code>. Writers edit, send, and process incoming edits
+ * in random interleavings, so many edits are concurrent, including inserts and deletes at the same positions.
+ *
+ * @author Martin Lippert
+ */
+public class LiveEditConvergenceTest {
+
+	private static final String LIVE_EDIT_ID = "project/src/Test.java";
+
+	@Test
+	public void testWritersConverge() {
+		for (int run = 0; run < 5; run++) {
+			Simulation simulation = new Simulation(12, 150, 0, new Random(run));
+			simulation.run();
+			simulation.assertConverged();
+		}
+	}
+
+	@Test
+	public void testJoiningWritersConverge() {
+		for (int run = 0; run < 5; run++) {
+			Simulation simulation = new Simulation(10, 150, 4, new Random(run));
+			simulation.run();
+			assertEquals(14, simulation.writers.size());
+			simulation.assertConverged();
+		}
+	}
+
+	private static class Message {
+
+		private final String origin;
+		private final long sequence;
+		private final long baseRevision;
+		private final String baseHash;
+		private final List<LiveEditOperation> operations;
+		private long revision;
+
+		public Message(String origin, long sequence, long baseRevision, String baseHash, List<LiveEditOperation> operations) {
+			this.origin = origin;
+			this.sequence = sequence;
+			this.baseRevision = baseRevision;
+			this.baseHash = baseHash;
+			this.operations = operations;
+		}
+
+	}
+
+	private static class Writer {
+
+		private final String id;
+		private final LiveEditTransformer transformer;
+		private final LiveDocument content;
+		private final Deque<Message> outgoing = new ArrayDeque<Message>();
+		private final Deque<Message> incoming = new ArrayDeque<Message>();
+		private int edits;
+
+		public Writer(String id, String content) {
+			this.id = id;
+			this.transformer = new LiveEditTransformer(id);
+			this.content = new LiveDocument(content);
+		}
+
+		/**
+		 * joins the editing with the content and the last edits another writer sends, like for <code>liveResourceStartedResponse</code>
+		 */
+		public Writer(String id, Writer writer) {
+			this(id, writer.transformer.getAcknowledgedContent(LIVE_EDIT_ID).getContent());
+			transformer.startAt(LIVE_EDIT_ID, null, writer.transformer.getRevision(LIVE_EDIT_ID), content.getContent(),
+					writer.transformer.getRecentHistory(LIVE_EDIT_ID, 64));
+			// the edits after the revision of the content
+			incoming.addAll(writer.incoming);
+		}
+
+		public void edit(Random random) {
+			int offset = random.nextInt(content.getLength() + 1);
+			int removedCharCount = random.nextInt(3) == 0 ? Math.min(random.nextInt(4) + 1, content.getLength() - offset) : 0;
+			String addedCharacters = random.nextInt(3) == 0 && removedCharCount > 0 ? "" : id.substring(0, 1 + random.nextInt(id.length()));
+
+			content.replace(offset, removedCharCount, addedCharacters);
+			edits++;
+			send(transformer.localEdit(LIVE_EDIT_ID, offset, removedCharCount, addedCharacters));
+		}
+
+		public void receive() {
+			Message message = incoming.removeFirst();
+			List<LiveEditOperation> operations = transformer.remoteEdit(LIVE_EDIT_ID, message.origin, message.sequence, message.revision,
+					message.baseRevision, message.baseHash, message.operations);
+			assertNotNull(id + " rejected revision " + message.revision, operations);
+
+			for (LiveEditOperation operation : operations) {
+				content.replace(operation.getOffset(), operation.getRemovedCharCount(), operation.getAddedCharacters());
+			}
+			send(transformer.nextOutgoing(LIVE_EDIT_ID));
+			transformer.acknowledge(LIVE_EDIT_ID, content);
+		}
+
+		private void send(LiveEditTransformer.Outgoing edit) {
+			if (edit != null) {
+				outgoing.addLast(new Message(id, edit.getSequence(), edit.getBaseRevision(), edit.getBaseHash(), edit.getOperations()));
+			}
+		}
+
+	}
+
+	private static class Simulation {
+
+		private final List<Writer> writers;
+		private final int editsPerWriter;
+		private final Random random;
+		private int joiningWriters;
+		private long revision;
+
+		public Simulation(int writerCount, int editsPerWriter, int joiningWriters, Random random) {
+			this.writers = new ArrayList<Writer>(writerCount + joiningWriters);
+			this.editsPerWriter = editsPerWriter;
+			this.joiningWriters = joiningWriters;
+			this.random = random;
+
+			String content = "public class Test {\n\tpublic static void main(String[] args) {\n\t}\n}\n";
+			for (int i = 0; i < writerCount; i++) {
+				writers.add(new Writer("w" + (char) ('a' + i % 26) + i, content));
+			}
+		}
+
+		public void run() {
+			while (step()) {
+			}
+		}
+
+		/**
+		 * @return <code>false</code> if all edits are made and all messages are delivered and processed
+		 */
+		private boolean step() {
+			List<Writer> editing = new ArrayList<Writer>();
+			List<Runnable> transfers = new ArrayList<Runnable>();
+			for (final Writer writer : writers) {
+				if (writer.edits < editsPerWriter) {
+					editing.add(writer);
+				}
+				if (!writer.outgoing.isEmpty()) {
+					transfers.add(new Runnable() {
+						@Override
+						public void run() {
+							deliver(writer.outgoing.removeFirst());
+						}
+					});
+				}
+				if (!writer.incoming.isEmpty()) {
+					transfers.add(new Runnable() {
+						@Override
+						public void run() {
+							writer.receive();
+						}
+					});
+				}
+			}
+
+			if (editing.isEmpty() && transfers.isEmpty() && joiningWriters == 0) {
+				return false;
+			}
+
+			if (joiningWriters > 0 && random.nextInt(200) == 0) {
+				// a writer joins with the content of one that knows its content at the last revision, while it has
+				// edits in flight or buffered which the joining writer gets as edits later on
+				Writer writer = writers.get(random.nextInt(writers.size()));
+				if (writer.transformer.getAcknowledgedContent(LIVE_EDIT_ID) != null) {
+					writers.add(new Writer("j" + (char) ('a' + joiningWriters) + writers.size(), writer));
+					joiningWriters--;
+				}
+			}
+			// about one edit per writer while a message travels to the server and back
+			else if (!editing.isEmpty() && (transfers.isEmpty() || random.nextInt(writers.size() + 2) == 0)) {
+				editing.get(random.nextInt(editing.size())).edit(random);
+			}
+			else if (!transfers.isEmpty()) {
+				transfers.get(random.nextInt(transfers.size())).run();
+			}
+			return true;
+		}
+
+		private void deliver(Message message) {
+			message.revision = ++revision;
+			for (Writer writer : writers) {
+				writer.incoming.addLast(message);
+			}
+		}
+
+		public void assertConverged() {
+			String content = writers.get(0).content.getContent();
+			for (Writer writer : writers) {
+				assertEquals(writer.id, content, writer.content.getContent());
+			}
+		}
+
+	}
+
+}
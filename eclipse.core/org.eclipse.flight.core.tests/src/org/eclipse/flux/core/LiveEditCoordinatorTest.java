@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * @author Martin Lippert
+ */
+public class LiveEditCoordinatorTest {
+
+	private static final String LIVE_EDIT_ID = "project/src/A.java";
+
+	@Test
+	public void testStartedResponseSendsAcknowledgedContent() throws Exception {
+		MessagingConnector messagingConnector = new MessagingConnector();
+		LiveEditCoordinator coordinator = new LiveEditCoordinator(messagingConnector);
+		coordinator.addLiveDocument(LIVE_EDIT_ID, new LiveDocument("abc"));
+
+		coordinator.modelChanged(change("other", 1, 1, 0, "X"));
+		coordinator.sendModelChangedMessage("local", "user", "project", "src/A.java", 4, 0, "d");
+		coordinator.sendLiveEditStartedResponse("local", "joiner", 1, "user", "project", "src/A.java", "hash", 0, "Xabcd");
+
+		// the local edit is in flight, the joining participant gets it as an edit
+		assertEquals("Xabcd", coordinator.getLiveDocument(LIVE_EDIT_ID).getContent());
+		JSONObject response = messagingConnector.getLast("liveResourceStartedResponse");
+		assertEquals("Xabc", response.getString("liveContent"));
+		assertEquals(1, response.getLong("revision"));
+		assertEquals("epoch", response.getString("epoch"));
+
+		JSONArray changes = response.getJSONArray("changes");
+		assertEquals(1, changes.length());
+		assertEquals(1, changes.getJSONObject(0).getLong("revision"));
+	}
+
+	@Test
+	public void testStartedResponseWithoutAcknowledgedContent() throws Exception {
+		MessagingConnector messagingConnector = new MessagingConnector();
+		LiveEditCoordinator coordinator = new LiveEditCoordinator(messagingConnector);
+
+		coordinator.sendModelChangedMessage("local", "user", "project", "src/A.java", 0, 0, "X");
+		coordinator.sendLiveEditStartedResponse("local", "joiner", 1, "user", "project", "src/A.java", "hash", 0, "Xabc");
+
+		// the revision of the local edits isn't known, the other participants answer
+		assertNull(messagingConnector.getLast("liveResourceStartedResponse"));
+	}
+
+	@Test
+	public void testClosedResourceStartsOver() throws Exception {
+		MessagingConnector messagingConnector = new MessagingConnector();
+		LiveEditCoordinator coordinator = new LiveEditCoordinator(messagingConnector);
+		coordinator.addLiveDocument(LIVE_EDIT_ID, new LiveDocument("abc"));
+		coordinator.modelChanged(change("other", 1, 1, 0, "X"));
+
+		coordinator.sendLiveEditClosedMessage("user", "project", "src/A.java");
+		assertEquals("src/A.java", messagingConnector.getLast("liveResourceClosed").getString("resource"));
+		assertNull(coordinator.getLiveDocument(LIVE_EDIT_ID));
+
+		// without a known revision, the content of the editor goes out as it is
+		coordinator.sendLiveEditStartedResponse("local", "joiner", 1, "user", "project", "src/A.java", "hash", 0, "Xabc");
+		JSONObject response = messagingConnector.getLast("liveResourceStartedResponse");
+		assertEquals("Xabc", response.getString("liveContent"));
+		assertEquals(false, response.has("revision"));
+	}
+
+	private static JSONObject change(String senderID, long sequence, long revision, int offset, String addedCharacters) throws Exception {
+		JSONObject message = new JSONObject();
+		message.put("username", "user");
+		message.put("project", "project");
+		message.put("resource", "src/A.java");
+		message.put("senderID", senderID);
+		message.put("sequence", sequence);
+		message.put("revision", revision);
+		message.put("epoch", "epoch");
+		message.put("offset", offset);
+		message.put("removedCharCount", 0);
+		message.put("addedCharacters", addedCharacters);
+		return message;
+	}
+
+	private static class MessagingConnector implements IMessagingConnector {
+
+		private final List<String> messageTypes = new ArrayList<String>();
+		private final List<JSONObject> messages = new ArrayList<JSONObject>();
+
+		public synchronized JSONObject getLast(String messageType) {
+			for (int i = messageTypes.size() - 1; i >= 0; i--) {
+				if (messageTypes.get(i).equals(messageType)) {
+					return messages.get(i);
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public boolean isConnected() {
+			return true;
+		}
+
+		@Override
+		public synchronized void send(String messageType, JSONObject message) {
+			messageTypes.add(messageType);
+			messages.add(message);
+		}
+
+		@Override
+		public void addConnectionListener(IConnectionListener connectionListener) {
+		}
+
+		@Override
+		public void removeConnectionListener(IConnectionListener connectionListener) {
+		}
+
+		@Override
+		public void addMessageHandler(IMessageHandler messageHandler) {
+		}
+
+		@Override
+		public void removeMessageHandler(IMessageHandler messageHandler) {
+		}
+
+	}
+
+}
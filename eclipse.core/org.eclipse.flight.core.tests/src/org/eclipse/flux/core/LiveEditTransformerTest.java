@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author Martin Lippert
+ */
+public class LiveEditTransformerTest {
+
+	private static final String ID = "project/src/A.java";
+
+	@Test
+	public void testConcurrentInsertsConverge() {
+		LiveEditTransformer a = new LiveEditTransformer("a");
+		LiveEditTransformer b = new LiveEditTransformer("b");
+		LiveDocument contentA = new LiveDocument("abc");
+		LiveDocument contentB = new LiveDocument("abc");
+		a.startAt(ID, "epoch", 0, "abc", null);
+		b.startAt(ID, "epoch", 0, "abc", null);
+
+		contentA.replace(1, 0, "X");
+		LiveEditTransformer.Outgoing editA = a.localEdit(ID, 1, 0, "X");
+		contentB.replace(1, 1, "Y");
+		LiveEditTransformer.Outgoing editB = b.localEdit(ID, 1, 1, "Y");
+
+		// the server numbers the edit of a first
+		assertTrue(a.remoteEdit(ID, "a", editA.getSequence(), 1, editA.getBaseRevision(), editA.getBaseHash(), editA.getOperations()).isEmpty());
+		apply(contentA, a.remoteEdit(ID, "b", editB.getSequence(), 2, editB.getBaseRevision(), editB.getBaseHash(), editB.getOperations()));
+		apply(contentB, b.remoteEdit(ID, "a", editA.getSequence(), 1, editA.getBaseRevision(), editA.getBaseHash(), editA.getOperations()));
+		assertTrue(b.remoteEdit(ID, "b", editB.getSequence(), 2, editB.getBaseRevision(), editB.getBaseHash(), editB.getOperations()).isEmpty());
+
+		assertEquals(contentA.getContent(), contentB.getContent());
+		assertEquals(contentA.getContent(), a.getAcknowledgedContent(ID).getContent());
+		assertEquals(contentB.getContent(), b.getAcknowledgedContent(ID).getContent());
+	}
+
+	@Test
+	public void testUnknownRevisionIsLearnedFirst() {
+		LiveEditTransformer transformer = new LiveEditTransformer("a");
+
+		LiveEditTransformer.Outgoing probe = transformer.localEdit(ID, 0, 0, "X");
+		assertEquals(-1, probe.getBaseRevision());
+		assertTrue(probe.getOperations().isEmpty());
+		assertNull(transformer.localEdit(ID, 1, 0, "Y"));
+
+		transformer.remoteEdit(ID, "a", probe.getSequence(), 5, -1, null, probe.getOperations());
+		LiveEditTransformer.Outgoing edit = transformer.nextOutgoing(ID);
+		assertEquals(5, edit.getBaseRevision());
+		assertEquals(2, edit.getOperations().size());
+	}
+
+	@Test
+	public void testEditOnDifferentContentIsRejected() {
+		LiveEditTransformer transformer = new LiveEditTransformer("a");
+		transformer.startAt(ID, "epoch", 0, "abc", null);
+
+		List<LiveEditOperation> operations = LiveEditOperation.replace(0, 0, "X");
+		String otherHash = ContentFingerprint.toHex(ContentFingerprint.of("abd"));
+		assertNull(transformer.remoteEdit(ID, "b", 1, 1, 0, otherHash, operations));
+
+		String hash = ContentFingerprint.toHex(ContentFingerprint.of("abc"));
+		assertEquals(operations, transformer.remoteEdit(ID, "b", 1, 1, 0, hash, operations));
+		assertEquals("Xabc", transformer.getAcknowledgedContent(ID).getContent());
+	}
+
+	@Test
+	public void testAcknowledgedContentWithoutPendingEdits() {
+		LiveEditTransformer transformer = new LiveEditTransformer("a");
+		transformer.startAt(ID, "epoch", 3, "abc", null);
+		transformer.localEdit(ID, 3, 0, "d");
+		transformer.localEdit(ID, 0, 1, "");
+
+		assertTrue(transformer.hasPendingEdits(ID));
+		assertEquals("abc", transformer.getAcknowledgedContent(ID).getContent());
+		assertEquals(3, transformer.getRevision(ID));
+	}
+
+	@Test
+	public void testAcknowledgeOnlyWithoutPendingEdits() {
+		LiveEditTransformer transformer = new LiveEditTransformer("a");
+		LiveEditTransformer.Outgoing probe = transformer.localEdit(ID, 0, 0, "X");
+		transformer.remoteEdit(ID, "a", probe.getSequence(), 1, -1, null, probe.getOperations());
+
+		// the buffered edit went out with the revision, the local content isn't the content at the revision
+		LiveEditTransformer.Outgoing edit = transformer.nextOutgoing(ID);
+		transformer.acknowledge(ID, new LiveDocument("Xabc"));
+		assertNull(transformer.getAcknowledgedContent(ID));
+
+		transformer.remoteEdit(ID, "a", edit.getSequence(), 2, edit.getBaseRevision(), edit.getBaseHash(), edit.getOperations());
+		transformer.acknowledge(ID, new LiveDocument("Xabc"));
+		assertEquals("Xabc", transformer.getAcknowledgedContent(ID).getContent());
+	}
+
+	@Test
+	public void testNewEpochResetsRevision() {
+		LiveEditTransformer transformer = new LiveEditTransformer("a");
+		transformer.startAt(ID, "epoch1", 3, "abc", null);
+		transformer.localEdit(ID, 0, 0, "X");
+
+		assertFalse(transformer.startEpoch(ID, "epoch1"));
+		assertTrue(transformer.startEpoch(ID, "epoch2"));
+		assertEquals(-1, transformer.getRevision(ID));
+		assertNull(transformer.getAcknowledgedContent(ID));
+
+		// the edit that was in flight is sent again once the revision of the new epoch is known
+		LiveEditTransformer.Outgoing probe = transformer.nextOutgoing(ID);
+		assertTrue(probe.getOperations().isEmpty());
+		transformer.remoteEdit(ID, "a", probe.getSequence(), 1, -1, null, probe.getOperations());
+		assertEquals(LiveEditOperation.replace(0, 0, "X").size(), transformer.nextOutgoing(ID).getOperations().size());
+	}
+
+	@Test
+	public void testHistoryOfDroppedRevisions() {
+		LiveEditTransformer transformer = new LiveEditTransformer("a");
+		transformer.startAt(ID, "epoch", 0, "", null);
+		for (int revision = 1; revision <= 3; revision++) {
+			transformer.remoteEdit(ID, "b", revision, revision, revision - 1, null, LiveEditOperation.replace(0, 0, "x"));
+		}
+
+		assertEquals(2, transformer.getHistory(ID, 2, 3).size());
+		assertNull(transformer.getHistory(ID, 0, 3));
+		assertNull(transformer.getHistory(ID, 3, 4));
+	}
+
+	@Test
+	public void testRemoveForgetsResource() {
+		LiveEditTransformer transformer = new LiveEditTransformer("a");
+		transformer.startAt(ID, "epoch", 3, "abc", null);
+		transformer.localEdit(ID, 0, 0, "X");
+
+		transformer.remove(ID);
+		assertEquals(-1, transformer.getRevision(ID));
+		assertNull(transformer.getEpoch(ID));
+		assertFalse(transformer.hasPendingEdits(ID));
+	}
+
+	private static void apply(LiveDocument content, List<LiveEditOperation> operations) {
+		for (LiveEditOperation operation : operations) {
+			content.replace(operation.getOffset(), operation.getRemovedCharCount(), operation.getAddedCharacters());
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.junit.Test;
+
+/**
+ * @author Martin Lippert
+ */
+public class ContentDeltaTest {
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		Random random = new Random(0);
+		for (int run = 0; run < 200; run++) {
+			String base = randomContent(random, random.nextInt(5000));
+			StringBuilder target = new StringBuilder(base);
+			for (int i = random.nextInt(10); i > 0; i--) {
+				int offset = random.nextInt(target.length() + 1);
+				int removed = Math.min(random.nextInt(100), target.length() - offset);
+				target.replace(offset, offset + removed, randomContent(random, random.nextInt(100)));
+			}
+
+			JSONArray delta = ContentDelta.compute(base, target.toString());
+			assertEquals(target.toString(), ContentDelta.apply(base, delta));
+			assertEquals(delta.toString().length(), ContentDelta.getEncodedLength(delta));
+		}
+	}
+
+	@Test
+	public void testSmallChangeGivesSmallDelta() throws Exception {
+		String base = randomContent(new Random(1), 10000);
+		String target = base.substring(0, 5000) + "changed" + base.substring(5000);
+
+		JSONArray delta = ContentDelta.compute(base, target);
+		assertEquals(target, ContentDelta.apply(base, delta));
+		assertTrue(ContentDelta.getEncodedLength(delta) < 100);
+	}
+
+	@Test
+	public void testEncodedLengthOfEscapedText() throws Exception {
+		JSONArray delta = new JSONArray();
+		delta.put("\"quoted\" \\ </tag>\t\n\r\b\f \u0001 \u0085 \u2028 \u00e4\u20ac");
+		delta.put(new JSONArray().put(12).put(3456));
+		delta.put("");
+
+		assertEquals(delta.toString().length(), ContentDelta.getEncodedLength(delta));
+		assertEquals(2, ContentDelta.getEncodedLength(new JSONArray()));
+	}
+
+	@Test(expected = JSONException.class)
+	public void testCopyOutOfRangeIsRejected() throws Exception {
+		ContentDelta.apply("abc", new JSONArray().put(new JSONArray().put(1).put(3)));
+	}
+
+	private static String randomContent(Random random, int length) {
+		String[] words = {"public ", "class ", "{\n", "}\n", "\treturn ", "\"text\" ", "x", "y", ";\n", "// \u00fc\n"};
+		StringBuilder content = new StringBuilder(length + 10);
+		while (content.length() < length) {
+			content.append(words[random.nextInt(words.length)]);
+		}
+		return content.toString();
+	}
+
+}
@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * @author Martin Lippert
+ */
+public class RemoteChangeLedgerTest {
+
+	@Test
+	public void testConsumeOnce() {
+		RemoteChangeLedger ledger = new RemoteChangeLedger();
+		ledger.record("project", "src/A.java", "hash");
+
+		assertNull(ledger.consume("project", "src/B.java"));
+		assertEquals("hash", ledger.consume("project", "src/A.java"));
+		assertNull(ledger.consume("project", "src/A.java"));
+	}
+
+	@Test
+	public void testNewerWriteSupersedesEntry() {
+		RemoteChangeLedger ledger = new RemoteChangeLedger();
+		ledger.record("project", "src/A.java", "hash1");
+		ledger.record("project", "src/A.java", "hash2");
+		assertEquals(1, ledger.size());
+
+		// the failed write of the superseded hash doesn't drop the entry of the newer one
+		ledger.forget("project", "src/A.java", "hash1");
+		assertEquals("hash2", ledger.consume("project", "src/A.java"));
+	}
+
+	@Test
+	public void testExpiredEntriesAreDropped() throws Exception {
+		RemoteChangeLedger ledger = new RemoteChangeLedger(1);
+		ledger.record("project", "src/A.java", "hash");
+		ledger.record("project", "src/B.java", RemoteChangeLedger.DELETED);
+		Thread.sleep(10);
+
+		assertNull(ledger.consume("project", "src/A.java"));
+		ledger.record("project", "src/C.java", "hash");
+		assertEquals(1, ledger.size());
+	}
+
+}
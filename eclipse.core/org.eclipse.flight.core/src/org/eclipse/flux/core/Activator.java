@@ -10,22 +10,26 @@
 *******************************************************************************/
 package org.eclipse.flux.core;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResourceChangeEvent;
-import org.eclipse.core.resources.IResourceChangeListener;
 import org.eclipse.core.resources.IResourceDelta;
-import org.eclipse.core.resources.IWorkspace;
 import org.eclipse.core.resources.IWorkspaceRoot;
 import org.eclipse.core.resources.ResourcesPlugin;
-import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.core.runtime.preferences.IEclipsePreferences;
 import org.eclipse.core.runtime.preferences.InstanceScope;
 import org.eclipse.flux.core.internal.CloudSyncMetadataListener;
 import org.eclipse.flux.core.internal.CloudSyncResourceListener;
+import org.eclipse.flux.core.internal.StartupTiming;
 import org.eclipse.flux.core.internal.messaging.SocketIOMessagingConnector;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
@@ -48,26 +52,45 @@ public class Activator implements BundleActivator {
 	private IMessagingConnector messagingConnector;
 	private Repository repository;
 	private LiveEditCoordinator liveEditCoordinator;
+	private BuildCoordinator buildCoordinator;
+	private OffHeapBlobStore offHeapStore;
+	private ResourceDeltaDispatcher resourceDeltaDispatcher;
+	private Job reconnectJob;
 	
 	@Override
 	public void start(BundleContext context) throws Exception {
 		plugin = this;
+		StartupTiming.start();
 		
 		String username = System.getProperty("flux-username", "defaultuser");
 		// TODO: change this username property to a preference and add authentication
 		
-		messagingConnector = new SocketIOMessagingConnector(username);
-		repository = new Repository(messagingConnector, username);
+		// connecting to the server and reconnecting the projects happens in the background,
+		// nothing in here should wait for the network or the file system
+		SocketIOMessagingConnector socketConnector = new SocketIOMessagingConnector(username);
+		messagingConnector = socketConnector;
+		offHeapStore = new OffHeapBlobStore();
+		repository = new Repository(messagingConnector, username, new BlobCache(offHeapStore, offHeapStore.getCapacity() / 2));
 		liveEditCoordinator = new LiveEditCoordinator(messagingConnector);
+		buildCoordinator = new BuildCoordinator(repository);
+		
+		resourceDeltaDispatcher = new ResourceDeltaDispatcher(repository);
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(resourceDeltaDispatcher, IResourceChangeEvent.POST_CHANGE | IResourceChangeEvent.POST_BUILD);
 		
 		CloudSyncResourceListener resourceListener = new CloudSyncResourceListener(repository);
-		ResourcesPlugin.getWorkspace().addResourceChangeListener(resourceListener, IResourceChangeEvent.POST_CHANGE);
+		resourceDeltaDispatcher.addSubscriber(resourceListener, IResourceChangeEvent.POST_CHANGE, ResourceDeltaDispatcher.RESOURCES);
 
 		CloudSyncMetadataListener metadataListener = new CloudSyncMetadataListener(repository);
-		ResourcesPlugin.getWorkspace().addResourceChangeListener(metadataListener, IResourceChangeEvent.POST_BUILD);
+		resourceDeltaDispatcher.addSubscriber(metadataListener, IResourceChangeEvent.POST_BUILD, ResourceDeltaDispatcher.MARKERS);
+		
+		resourceDeltaDispatcher.addSubscriber(buildCoordinator, IResourceChangeEvent.POST_CHANGE, ResourceDeltaDispatcher.RESOURCES);
 
 		getRepository()
 				.addRepositoryListener(new IRepositoryListener() {
+					@Override
+					public void projectConnecting(IProject project) {
+					}
+
 					@Override
 					public void projectDisconnected(IProject project) {
 						removeConnectedProjectPreference(project.getName());
@@ -79,53 +102,92 @@ public class Activator implements BundleActivator {
 					}
 				});
 
-		IWorkspace workspace = ResourcesPlugin.getWorkspace();
-		IResourceChangeListener listener = new IResourceChangeListener() {
-			public void resourceChanged(IResourceChangeEvent event) {
-				if (event.getResource() instanceof IProject) {
-					IResourceDelta delta = event.getDelta();
-					if (delta == null) {
-						return;
-					}
-					if (delta.getKind() == IResourceDelta.REMOVED) {
-						IProject project = (IProject) event.getResource();
-						removeConnectedProjectPreference(project.getName());
-					} else if (delta.getKind() == IResourceDelta.CHANGED) {
-						// TODO, we aren't handling project renaming yet
-						// IProject project = (IProject) event.getResource();
-						// String oldName =
-						// delta.getMovedFromPath().lastSegment();
-						// removeConnectedProjectPreference(oldName);
-						// addConnectedProjectPreference(project.getName());
-					}
+		resourceDeltaDispatcher.addSubscriber(new IResourceDeltaSubscriber() {
+			@Override
+			public void resourceChanged(IResourceDelta delta) {
+				if (delta.getResource() instanceof IProject && delta.getKind() == IResourceDelta.REMOVED
+						&& (delta.getFlags() & IResourceDelta.MOVED_TO) == 0) {
+					removeConnectedProjectPreference(delta.getResource().getName());
 				}
+				// TODO, we aren't handling project renaming yet
 			}
-		};
-		workspace.addResourceChangeListener(listener);
+			@Override
+			public void deltasDispatched() {
+			}
+		}, IResourceChangeEvent.POST_CHANGE, ResourceDeltaDispatcher.RESOURCES);
 
+		socketConnector.connect();
 		updateProjectConnections();
 
+		StartupTiming.phase("bundle activated");
 	}
 
 	@Override
 	public void stop(BundleContext context) throws Exception {
+		if (Boolean.getBoolean("flux-cache-stats")) {
+			System.out.println("flux content cache: " + repository.getContentCache());
+		}
+		if (reconnectJob != null) {
+			reconnectJob.cancel();
+		}
 		plugin = null;
 	}
 
-	private void updateProjectConnections() throws CoreException {
-		String[] projects = getConnectedProjectPreferences();
-		for (String projectName : projects) {
-			IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
-			IProject project = root.getProject(projectName);
-			if (project.exists()) {
-				if (!project.isOpen()) {
-					project.open(null);
+	private void updateProjectConnections() {
+		reconnectJob = new Job("Reconnect projects to Flux") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				List<IProject> projects = getProjectsToReconnect();
+				monitor.beginTask(getName(), projects.size());
+				for (IProject project : projects) {
+					if (monitor.isCanceled()) {
+						break;
+					}
+					// one project after the other, so that the projects that are most likely used are there first
+					// and the startup of the IDE doesn't compete with hashing all projects at once
+					Job connectJob = repository.connectProject(project);
+					if (connectJob != null) {
+						try {
+							connectJob.join();
+						} catch (InterruptedException e) {
+							break;
+						}
+						StartupTiming.phase("project " + project.getName() + " reconnected");
+					}
+					monitor.worked(1);
 				}
-				Repository repository = org.eclipse.flux.core.Activator.getDefault()
-						.getRepository();
-				repository.addProject(project);
+				monitor.done();
+				StartupTiming.phase("projects reconnected");
+				return Status.OK_STATUS;
+			}
+		};
+		reconnectJob.setSystem(true);
+		reconnectJob.setPriority(Job.DECORATE);
+		reconnectJob.schedule();
+	}
+
+	/**
+	 * @return the connected projects of the last session, the open projects first and the most recently connected
+	 * projects first within those
+	 */
+	private List<IProject> getProjectsToReconnect() {
+		String[] projectNames = getConnectedProjectPreferences();
+		IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+
+		List<IProject> openProjects = new ArrayList<IProject>();
+		List<IProject> closedProjects = new ArrayList<IProject>();
+		for (int i = projectNames.length - 1; i >= 0; i--) {
+			IProject project = root.getProject(projectNames[i]);
+			if (project.isOpen()) {
+				openProjects.add(project);
+			}
+			else if (project.exists()) {
+				closedProjects.add(project);
 			}
 		}
+
+		openProjects.addAll(closedProjects);
+		return openProjects;
 	}
 
 	private String[] getConnectedProjectPreferences() {
@@ -188,9 +250,29 @@ public class Activator implements BundleActivator {
 	public Repository getRepository() {
 		return repository;
 	}
+
+	/**
+	 * @return the cache of resource contents, including its hit, miss and eviction counts
+	 * (also logged when the bundle stops if <code>flux-cache-stats</code> is set)
+	 */
+	public BlobCache getContentCache() {
+		return repository.getContentCache();
+	}
 	
 	public LiveEditCoordinator getLiveEditCoordinator() {
 		return liveEditCoordinator;
 	}
+	
+	public BuildCoordinator getBuildCoordinator() {
+		return buildCoordinator;
+	}
+	
+	public ResourceDeltaDispatcher getResourceDeltaDispatcher() {
+		return resourceDeltaDispatcher;
+	}
+	
+	public OffHeapBlobStore getOffHeapStore() {
+		return offHeapStore;
+	}
 
 }
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A content-addressed cache for recently synced resource versions, keyed by the SHA-1 hash of the content
+ * (the same hash that {@link ConnectedProject} keeps for each resource). It serves repeated reads of the
+ * same version, bases for content deltas and live edit startup content without going to the workspace.
+ *
+ * The contents are kept off-heap in an {@link OffHeapBlobStore}. The cache is bounded by the size of the
+ * stored contents, the least recently used versions are evicted first. Hits, misses and evictions are counted to make the effectiveness visible.
+ *
+ * @author Martin Lippert
+ */
+public class BlobCache {
+
+	private static final long DEFAULT_CAPACITY = Long.getLong("flux-blobcache-size", 32L * 1024 * 1024);
+
+	private final long capacity;
+	private final OffHeapBlobStore store;
+	private final Map<String, OffHeapBlobStore.Blob> contents;
+	private long size;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	public BlobCache() {
+		this(new OffHeapBlobStore(DEFAULT_CAPACITY), DEFAULT_CAPACITY);
+	}
+
+	public BlobCache(OffHeapBlobStore store, long capacity) {
+		this.store = store;
+		this.capacity = capacity;
+		this.contents = new LinkedHashMap<String, OffHeapBlobStore.Blob>(16, 0.75f, true);
+	}
+
+	public synchronized String get(String hash) {
+		OffHeapBlobStore.Blob blob = hash != null ? contents.get(hash) : null;
+		if (blob != null) {
+			hits++;
+			return blob.getContent();
+		}
+		else {
+			misses++;
+			return null;
+		}
+	}
+
+	public synchronized boolean contains(String hash) {
+		return hash != null && contents.containsKey(hash);
+	}
+
+	public synchronized void put(String hash, String content) {
+		if (hash == null || content == null) {
+			return;
+		}
+
+		if (contents.containsKey(hash)) {
+			contents.get(hash);
+			return;
+		}
+
+		// UTF-8 takes at least one byte per character, that's good enough to decide about the eviction
+		long contentSize = content.length();
+		if (contentSize > capacity / 4) {
+			return;
+		}
+
+		Iterator<OffHeapBlobStore.Blob> eldest = contents.values().iterator();
+		while (size + contentSize > capacity && eldest.hasNext()) {
+			OffHeapBlobStore.Blob evicted = eldest.next();
+			eldest.remove();
+			size -= evicted.getSize();
+			evicted.release();
+			evictions++;
+		}
+
+		OffHeapBlobStore.Blob blob = store.store(content);
+		if (blob != null) {
+			contents.put(hash, blob);
+			size += blob.getSize();
+		}
+	}
+
+	public synchronized void remove(String hash) {
+		OffHeapBlobStore.Blob previous = hash != null ? contents.remove(hash) : null;
+		if (previous != null) {
+			size -= previous.getSize();
+			previous.release();
+		}
+	}
+
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public long getCapacity() {
+		return capacity;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized double getHitRate() {
+		long requests = hits + misses;
+		return requests > 0 ? (double) hits / requests : 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "BlobCache [entries=" + contents.size() + ", size=" + size + ", capacity=" + capacity + ", hits=" + hits
+				+ ", misses=" + misses + ", evictions=" + evictions + "]";
+	}
+
+}
@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IncrementalProjectBuilder;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.resources.WorkspaceJob;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+
+/**
+ * Schedules incremental builds of connected projects when the workspace doesn't build automatically.
+ * Changes are collected per project and the build runs once the project didn't change for a short
+ * delay, so that a large set of incoming remote changes results in one build instead of a build per
+ * file. Changes that only touch resources that are irrelevant for the build don't trigger a build at all.
+ *
+ * @author Martin Lippert
+ */
+public class BuildCoordinator implements IResourceDeltaSubscriber {
+
+	private static final long BUILD_DELAY = Long.getLong("flux-build-delay", 500);
+
+	private Repository repository;
+	private ConcurrentMap<String, BuildJob> buildJobs;
+	private Set<IProject> changedProjects;
+
+	public BuildCoordinator(Repository repository) {
+		this.repository = repository;
+		this.buildJobs = new ConcurrentHashMap<String, BuildJob>();
+		this.changedProjects = new LinkedHashSet<IProject>();
+	}
+
+	@Override
+	public void resourceChanged(IResourceDelta delta) {
+		IResource resource = delta.getResource();
+		if (resource.getType() == IResource.FILE && isContentChange(delta) && isBuildRelevant(resource)) {
+			changedProjects.add(resource.getProject());
+		}
+	}
+
+	@Override
+	public void deltasDispatched() {
+		try {
+			if (!ResourcesPlugin.getWorkspace().isAutoBuilding()) {
+				for (IProject project : changedProjects) {
+					scheduleBuild(project);
+				}
+			}
+		}
+		finally {
+			changedProjects.clear();
+		}
+	}
+
+	/**
+	 * Schedules an incremental build of the project. If a build of the project is already waiting,
+	 * it gets delayed again, so that subsequent changes are built together.
+	 */
+	public void scheduleBuild(IProject project) {
+		BuildJob buildJob = buildJobs.get(project.getName());
+		if (buildJob == null) {
+			BuildJob newBuildJob = new BuildJob(project);
+			buildJob = buildJobs.putIfAbsent(project.getName(), newBuildJob);
+			if (buildJob == null) {
+				buildJob = newBuildJob;
+			}
+		}
+		buildJob.schedule(BUILD_DELAY);
+	}
+
+	protected boolean isContentChange(IResourceDelta delta) {
+		return delta.getKind() != IResourceDelta.CHANGED
+				|| (delta.getFlags() & (IResourceDelta.CONTENT | IResourceDelta.REPLACED | IResourceDelta.MOVED_FROM | IResourceDelta.MOVED_TO)) != 0;
+	}
+
+	/**
+	 * @return <code>true</code> for Java sources, libraries and project/classpath settings
+	 */
+	protected boolean isBuildRelevant(IResource resource) {
+		String extension = resource.getFileExtension();
+		if ("java".equals(extension) || "jar".equals(extension) || "zip".equals(extension)) {
+			return true;
+		}
+
+		String name = resource.getName();
+		if (".classpath".equals(name) || ".project".equals(name)) {
+			return true;
+		}
+
+		IResource parent = resource.getParent();
+		return parent != null && ".settings".equals(parent.getName()) && parent.getParent() instanceof IProject;
+	}
+
+	private class BuildJob extends WorkspaceJob {
+
+		private IProject project;
+
+		public BuildJob(IProject project) {
+			super("Build " + project.getName());
+			this.project = project;
+			setSystem(true);
+			setPriority(BUILD);
+			setRule(ResourcesPlugin.getWorkspace().getRuleFactory().buildRule());
+		}
+
+		@Override
+		public boolean belongsTo(Object family) {
+			return family == ResourcesPlugin.FAMILY_MANUAL_BUILD;
+		}
+
+		@Override
+		public IStatus runInWorkspace(IProgressMonitor monitor) throws CoreException {
+			if (!project.isAccessible() || !repository.isConnected(project)) {
+				buildJobs.remove(project.getName(), this);
+				return Status.OK_STATUS;
+			}
+
+			try {
+				project.build(IncrementalProjectBuilder.INCREMENTAL_BUILD, monitor);
+			} catch (OperationCanceledException e) {
+				return Status.CANCEL_STATUS;
+			}
+			return Status.OK_STATUS;
+		}
+
+	}
+
+}
@@ -0,0 +1,408 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkUtil;
+
+/**
+ * An append-only journal of the changes to the resources of a connected project. Every change gets the next
+ * sequence number, so a peer that remembers the last sequence it has seen of this journal can ask for the newer
+ * changes only (see {@link #getChangesSince(long)}), including deletions.
+ *
+ * The journal is written to a file and survives restarts. Once the file got twice as long as needed, it is
+ * compacted to the latest change of every resource. Deletions are dropped when there are too many of them,
+ * peers that haven't seen those deletions yet have to fall back to the full project listing.
+ *
+ * @author Martin Lippert
+ */
+public class ChangeJournal {
+
+	private static final int MAX_DELETIONS = Integer.getInteger("flux-journal-deletions", 10000);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File file;
+	private Writer writer;
+
+	private String journalID;
+	private long sequence;
+	private long truncatedSequence;
+
+	private final TreeMap<Long, Change> changes;
+	private final Map<String, Change> latestChanges;
+	private int deletions;
+	private int fileEntries;
+	private int batches;
+	private boolean closed;
+
+	/**
+	 * @param file the file to keep the journal in, or <code>null</code> to keep it in memory only
+	 */
+	public ChangeJournal(File file) {
+		this.file = file;
+		this.changes = new TreeMap<Long, Change>();
+		this.latestChanges = new HashMap<String, Change>();
+		load();
+	}
+
+	/**
+	 * @return the ID of this journal, sequences are only meaningful together with the ID
+	 */
+	public synchronized String getJournalID() {
+		return journalID;
+	}
+
+	public synchronized long getSequence() {
+		return sequence;
+	}
+
+	public synchronized void recordStored(String resourcePath, String type, long timestamp, String hash) {
+		Change latest = latestChanges.get(resourcePath);
+		if (closed || latest != null && !latest.deleted && equal(latest.hash, hash) && equal(latest.type, type)) {
+			return;
+		}
+		append(new Change(++sequence, resourcePath, false, timestamp, hash, type));
+	}
+
+	public synchronized void recordDeleted(String resourcePath, long timestamp) {
+		Change latest = latestChanges.get(resourcePath);
+		if (closed || latest == null || latest.deleted) {
+			return;
+		}
+		append(new Change(++sequence, resourcePath, true, timestamp, null, latest.type));
+	}
+
+	/**
+	 * @return the latest change of every resource changed after the given sequence, ordered by sequence,
+	 * or <code>null</code> if the journal doesn't go back that far and the full listing is needed
+	 */
+	public synchronized List<Change> getChangesSince(long lastSeenSequence) {
+		if (lastSeenSequence < truncatedSequence || lastSeenSequence > sequence) {
+			return null;
+		}
+		return new ArrayList<Change>(changes.tailMap(lastSeenSequence, false).values());
+	}
+
+	/**
+	 * @return the latest change of every resource that got deleted and not created again since
+	 */
+	public synchronized List<Change> getDeletions() {
+		List<Change> result = new ArrayList<Change>(deletions);
+		for (Change change : changes.values()) {
+			if (change.deleted) {
+				result.add(change);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the paths of all resources that exist according to the journal
+	 */
+	public synchronized List<String> getExistingResources() {
+		List<String> result = new ArrayList<String>(latestChanges.size());
+		for (Change change : latestChanges.values()) {
+			if (!change.deleted) {
+				result.add(change.path);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * starts a batch of changes, the entries are written to the file but not flushed before {@link #endBatch()}
+	 */
+	public synchronized void beginBatch() {
+		batches++;
+	}
+
+	public synchronized void endBatch() {
+		if (--batches == 0 && writer != null) {
+			try {
+				writer.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * closes the file, changes recorded afterwards are ignored
+	 */
+	public synchronized void close() {
+		closed = true;
+		closeWriter();
+	}
+
+	protected void closeWriter() {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			writer = null;
+		}
+	}
+
+	protected void append(Change change) {
+		apply(change);
+		write(change);
+
+		if (deletions > MAX_DELETIONS) {
+			truncate(MAX_DELETIONS * 3 / 4);
+			compact();
+		}
+		else if (fileEntries > 2 * changes.size() + 1000) {
+			compact();
+		}
+	}
+
+	protected void apply(Change change) {
+		Change previous = latestChanges.put(change.path, change);
+		if (previous != null) {
+			changes.remove(previous.sequence);
+			if (previous.deleted) {
+				deletions--;
+			}
+		}
+		changes.put(change.sequence, change);
+		if (change.deleted) {
+			deletions++;
+		}
+		sequence = Math.max(sequence, change.sequence);
+	}
+
+	/**
+	 * drops the oldest deletions, peers that haven't seen them need the full listing from now on
+	 */
+	protected void truncate(int retainedDeletions) {
+		Iterator<Change> iterator = changes.values().iterator();
+		while (deletions > retainedDeletions && iterator.hasNext()) {
+			Change change = iterator.next();
+			if (change.deleted) {
+				iterator.remove();
+				latestChanges.remove(change.path);
+				deletions--;
+				truncatedSequence = Math.max(truncatedSequence, change.sequence);
+			}
+		}
+	}
+
+	protected void load() {
+		if (file != null && file.exists()) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8))) {
+				JSONObject header = new JSONObject(reader.readLine());
+				journalID = header.getString("journal");
+				sequence = header.getLong("sequence");
+				truncatedSequence = header.getLong("truncated");
+
+				String line = reader.readLine();
+				while (line != null) {
+					JSONObject entry;
+					try {
+						entry = new JSONObject(line);
+					} catch (JSONException e) {
+						// the last entry may be incomplete if the IDE went down while writing it
+						break;
+					}
+					apply(new Change(entry.getLong("sequence"), entry.getString("path"), entry.optBoolean("deleted"),
+							entry.getLong("timestamp"), entry.optString("hash", null), entry.optString("type", null)));
+					fileEntries++;
+					line = reader.readLine();
+				}
+			} catch (Exception e) {
+				// unreadable journal, start a new one, peers will ask for the full listing
+				log("Unreadable change journal " + file + ", starting a new one", e);
+				reset();
+			}
+		}
+
+		if (journalID == null) {
+			reset();
+			journalID = UUID.randomUUID().toString();
+		}
+		compact();
+	}
+
+	/**
+	 * forgets all changes together with the ID of the journal, sequences of the old journal don't apply anymore
+	 */
+	protected void reset() {
+		journalID = null;
+		sequence = 0;
+		truncatedSequence = 0;
+		changes.clear();
+		latestChanges.clear();
+		deletions = 0;
+		fileEntries = 0;
+	}
+
+	/**
+	 * logs the problem to the log of this plug-in, or prints it when running outside of OSGi
+	 */
+	protected void log(String message, Exception e) {
+		Bundle bundle = FrameworkUtil.getBundle(ChangeJournal.class);
+		if (bundle != null) {
+			Platform.getLog(bundle).log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, message, e));
+		}
+		else {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * rewrites the journal file with the latest change of every resource only
+	 */
+	protected void compact() {
+		closeWriter();
+		fileEntries = changes.size();
+		if (file == null) {
+			return;
+		}
+
+		File compactedFile = new File(file.getPath() + ".tmp");
+		try (Writer compactedWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(compactedFile), UTF8))) {
+			JSONObject header = new JSONObject();
+			header.put("journal", journalID);
+			header.put("sequence", sequence);
+			header.put("truncated", truncatedSequence);
+			compactedWriter.write(header.toString());
+			compactedWriter.write('\n');
+
+			for (Change change : changes.values()) {
+				compactedWriter.write(toJSON(change).toString());
+				compactedWriter.write('\n');
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			return;
+		}
+
+		try {
+			try {
+				Files.move(compactedFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(compactedFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	protected void write(Change change) {
+		fileEntries++;
+		if (file == null) {
+			return;
+		}
+
+		try {
+			if (writer == null) {
+				writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), UTF8));
+			}
+			writer.write(toJSON(change).toString());
+			writer.write('\n');
+			if (batches == 0) {
+				writer.flush();
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	protected JSONObject toJSON(Change change) throws JSONException {
+		JSONObject entry = new JSONObject();
+		entry.put("sequence", change.sequence);
+		entry.put("path", change.path);
+		entry.put("timestamp", change.timestamp);
+		if (change.deleted) {
+			entry.put("deleted", true);
+		}
+		entry.put("hash", change.hash);
+		entry.put("type", change.type);
+		return entry;
+	}
+
+	private static boolean equal(String first, String second) {
+		return first == null ? second == null : first.equals(second);
+	}
+
+	public static class Change {
+
+		private final long sequence;
+		private final String path;
+		private final boolean deleted;
+		private final long timestamp;
+		private final String hash;
+		private final String type;
+
+		protected Change(long sequence, String path, boolean deleted, long timestamp, String hash, String type) {
+			this.sequence = sequence;
+			this.path = path;
+			this.deleted = deleted;
+			this.timestamp = timestamp;
+			this.hash = hash;
+			this.type = type;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public boolean isDeleted() {
+			return deleted;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		public String getHash() {
+			return hash;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+	}
+
+}
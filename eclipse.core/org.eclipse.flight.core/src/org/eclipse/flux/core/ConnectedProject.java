@@ -10,10 +10,19 @@
 *******************************************************************************/
 package org.eclipse.flux.core;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.eclipse.core.resources.IContainer;
@@ -23,47 +32,87 @@ import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceVisitor;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.json.JSONObject;
 
 /**
+ * Keeps the path, hash, timestamp and type of every resource of a connected project in an index sorted
+ * by path, which is updated with every change. Project listings are answered from the index, without
+ * visiting the workspace tree.
+ *
+ * Every change is also recorded in the {@link ChangeJournal} of the project, so that peers can catch up
+ * with the changes since they last synced. Changes made while the project wasn't connected are recorded
+ * when it gets connected again. The journal is opened by the repository once this instance got registered
+ * for the project, so that there is only one open journal per project. The last synced sequences of the
+ * journals of the peers are kept in a file next to the journal.
+ *
  * @author Martin Lippert
  */
 public class ConnectedProject {
 	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
 	private IProject project;
-	private Map<String, String> resourceHash;
-	private Map<String, Long> resourceTimestamp;
+	private ConcurrentNavigableMap<String, ResourceInfo> resources;
+	private volatile ChangeJournal journal;
+	private ConcurrentMap<String, Long> peerSequences;
 	
 	public ConnectedProject(IProject project) {
+		this(project, new NullProgressMonitor());
+	}
+	
+	/**
+	 * Hashes all resources of the project, reports the progress to the monitor and stops with an
+	 * {@link OperationCanceledException} once the monitor got canceled
+	 */
+	public ConnectedProject(IProject project, final IProgressMonitor monitor) {
 		this.project = project;
-		this.resourceHash = new ConcurrentHashMap<String, String>();
-		this.resourceTimestamp = new ConcurrentHashMap<String, Long>();
+		this.resources = new ConcurrentSkipListMap<String, ResourceInfo>();
+		this.peerSequences = new ConcurrentHashMap<String, Long>();
 		
+		monitor.beginTask("Hashing resources of " + project.getName(), IProgressMonitor.UNKNOWN);
 		try {
 			project.accept(new IResourceVisitor() {
 				@Override
 				public boolean visit(IResource resource) throws CoreException {
+					if (monitor.isCanceled()) {
+						throw new OperationCanceledException();
+					}
+					
 					String path = resource.getProjectRelativePath().toString();
-					ConnectedProject.this.setTimestamp(path, resource.getLocalTimeStamp());
+					ResourceInfo info = getOrCreate(path);
+					info.timestamp = resource.getLocalTimeStamp();
+					info.changeTime = info.timestamp;
 					
 					if (resource instanceof IFile) {
 						try {
 							IFile file = (IFile) resource;
+							monitor.subTask(path);
+							ConnectedProject.this.setType(path, "file");
 							ConnectedProject.this.setHash(path, DigestUtils.shaHex(file.getContents()));
+							monitor.worked(1);
 						} catch (IOException e) {
 							e.printStackTrace();
 						}
 					}
 					else if (resource instanceof IFolder) {
+						ConnectedProject.this.setType(path, "folder");
 						ConnectedProject.this.setHash(path, "0");
 					}
 					
 					return true;
 				}
 			}, IResource.DEPTH_INFINITE, IContainer.EXCLUDE_DERIVED);
+		} catch (OperationCanceledException e) {
+			throw e;
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			monitor.done();
 		}
-
 	}
 	
 	public IProject getProject() {
@@ -74,28 +123,234 @@ public class ConnectedProject {
 		return this.project.getName();
 	}
 
+	public ChangeJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * opens the journal of the project and records the changes made while the project wasn't connected,
+	 * called by the repository before the project gets registered
+	 */
+	protected void openJournal() {
+		this.journal = new ChangeJournal(getWorkingFile(project, "changes.journal"));
+		loadPeerSequences();
+
+		this.journal.beginBatch();
+		try {
+			updateJournal();
+		}
+		finally {
+			this.journal.endBatch();
+		}
+	}
+
+	protected void closeJournal() {
+		if (this.journal != null) {
+			this.journal.close();
+		}
+	}
+
+	/**
+	 * remembers the last sequence of the journal of a peer that has been synced with
+	 */
+	public void setPeerSequence(String journalID, long sequence) {
+		Long previousSequence = this.peerSequences.put(journalID, sequence);
+		if (previousSequence == null || previousSequence.longValue() != sequence) {
+			savePeerSequences();
+		}
+	}
+
+	public Map<String, Long> getPeerSequences() {
+		return new HashMap<String, Long>(this.peerSequences);
+	}
+
 	public static ConnectedProject readFromJSON(InputStream inputStream, IProject project) {
 		return new ConnectedProject(project);
 	}
 	
 	public void setTimestamp(String resourcePath, long newTimestamp) {
-		this.resourceTimestamp.put(resourcePath, newTimestamp);
+		ResourceInfo resource = getOrCreate(resourcePath);
+		resource.timestamp = newTimestamp;
+		resource.changeTime = System.currentTimeMillis();
 	}
 	
 	public long getTimestamp(String resourcePath) {
-		return this.resourceTimestamp.get(resourcePath);
+		return this.resources.get(resourcePath).timestamp;
+	}
+
+	/**
+	 * sets the type, timestamp and hash of the resource and records the change in the journal
+	 */
+	public void setResource(String resourcePath, String type, long timestamp, String hash) {
+		ResourceInfo resource = getOrCreate(resourcePath);
+		resource.type = type;
+		resource.timestamp = timestamp;
+		resource.changeTime = System.currentTimeMillis();
+		resource.hash = hash;
+		this.journal.recordStored(resourcePath, type, timestamp, hash);
 	}
 
 	public void setHash(String resourcePath, String hash) {
-		this.resourceHash.put(resourcePath, hash);
+		ResourceInfo resource = getOrCreate(resourcePath);
+		resource.hash = hash;
 	}
 	
 	public String getHash(String resourcePath) {
-		return this.resourceHash.get(resourcePath);
+		ResourceInfo resource = this.resources.get(resourcePath);
+		return resource != null ? resource.hash : null;
+	}
+
+	/**
+	 * @param type <code>file</code> or <code>folder</code>
+	 */
+	public void setType(String resourcePath, String type) {
+		getOrCreate(resourcePath).type = type;
 	}
 
 	public boolean containsResource(String resourcePath) {
-		return this.resourceTimestamp.containsKey(resourcePath);
+		return this.resources.containsKey(resourcePath);
+	}
+
+	/**
+	 * removes the resource and everything below it from the project and records the deletions in the journal
+	 */
+	public void removeResource(String resourcePath, long deletedTimestamp) {
+		if (this.resources.remove(resourcePath) != null) {
+			this.journal.recordDeleted(resourcePath, deletedTimestamp);
+		}
+
+		ConcurrentNavigableMap<String, ResourceInfo> children = this.resources.subMap(resourcePath + "/", resourcePath + "0");
+		for (String child : children.keySet()) {
+			this.journal.recordDeleted(child, deletedTimestamp);
+		}
+		children.clear();
+	}
+
+	/**
+	 * @return the resources of the project sorted by path, starting after the given path (or with the first
+	 * resource if the path is <code>null</code>). The returned view reflects later changes to the project.
+	 */
+	public Iterable<ResourceInfo> getResources(String afterPath) {
+		return afterPath != null ? this.resources.tailMap(afterPath, false).values() : this.resources.values();
+	}
+
+	/**
+	 * records the differences between the resources and the journal, which are the changes made while the
+	 * project wasn't connected
+	 */
+	protected void updateJournal() {
+		for (ResourceInfo resource : this.resources.values()) {
+			this.journal.recordStored(resource.path, resource.type, resource.timestamp, resource.hash);
+		}
+
+		long deletedTimestamp = System.currentTimeMillis();
+		for (String resourcePath : this.journal.getExistingResources()) {
+			if (!this.resources.containsKey(resourcePath)) {
+				this.journal.recordDeleted(resourcePath, deletedTimestamp);
+			}
+		}
+	}
+
+	protected void loadPeerSequences() {
+		File file = getWorkingFile(project, "peers.json");
+		if (file != null && file.exists()) {
+			try {
+				JSONObject sequences = new JSONObject(new String(Files.readAllBytes(file.toPath()), UTF8));
+				String[] journalIDs = JSONObject.getNames(sequences);
+				if (journalIDs != null) {
+					for (String journalID : journalIDs) {
+						this.peerSequences.put(journalID, sequences.getLong(journalID));
+					}
+				}
+			} catch (Exception e) {
+				// peers without a known sequence send the full listing
+				e.printStackTrace();
+			}
+		}
+	}
+
+	protected synchronized void savePeerSequences() {
+		File file = getWorkingFile(project, "peers.json");
+		if (file == null) {
+			return;
+		}
+
+		try {
+			File tmpFile = new File(file.getPath() + ".tmp");
+			Files.write(tmpFile.toPath(), new JSONObject(getPeerSequences()).toString().getBytes(UTF8));
+			try {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	protected static File getWorkingFile(IProject project, String name) {
+		try {
+			IPath location = project.getWorkingLocation(Activator.PLUGIN_ID);
+			if (location != null) {
+				return location.append(name).toFile();
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	protected ResourceInfo getOrCreate(String resourcePath) {
+		ResourceInfo resource = this.resources.get(resourcePath);
+		if (resource == null) {
+			ResourceInfo newResource = new ResourceInfo(resourcePath);
+			resource = this.resources.putIfAbsent(resourcePath, newResource);
+			if (resource == null) {
+				resource = newResource;
+			}
+		}
+		return resource;
+	}
+
+	public static class ResourceInfo {
+
+		private final String path;
+		private volatile long timestamp;
+		private volatile long changeTime;
+		private volatile String hash;
+		private volatile String type;
+
+		protected ResourceInfo(String path) {
+			this.path = path;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		/**
+		 * @return the local time of the last change of the resource. Unlike the timestamp, which can be the
+		 * timestamp of a peer for downloaded resources, it is always taken from the local clock.
+		 */
+		public long getChangeTime() {
+			return changeTime;
+		}
+
+		public String getHash() {
+			return hash;
+		}
+
+		/**
+		 * @return <code>file</code>, <code>folder</code> or <code>null</code> for the project itself
+		 */
+		public String getType() {
+			return type;
+		}
+
 	}
 	
 }
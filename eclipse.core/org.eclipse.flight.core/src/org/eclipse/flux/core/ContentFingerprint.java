@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core;
+
+/**
+ * A 64 bit polynomial hash of a content. The fingerprint of two concatenated parts can be computed from
+ * the fingerprints of the parts, so it can be maintained per chunk and updated in O(edit size) when the
+ * content is edited (see {@link LiveDocument}).
+ *
+ * Fingerprints are much cheaper to compute than SHA-1 hashes and are good enough to tell contents apart
+ * locally. SHA-1 hashes are still used wherever a hash is sent to other participants, except for the base
+ * hashes of live edits (see {@link LiveEditTransformer}), which only serve to detect diverged contents.
+ *
+ * @author Martin Lippert
+ */
+public class ContentFingerprint {
+
+	private static final long BASE = 1000003L;
+
+	public static long of(CharSequence content) {
+		long hash = 0;
+		for (int i = 0; i < content.length(); i++) {
+			hash = hash * BASE + content.charAt(i);
+		}
+		return hash;
+	}
+
+	/**
+	 * @return the fingerprint as an unsigned hexadecimal number, the way it is sent in messages
+	 */
+	public static String toHex(long fingerprint) {
+		return Long.toHexString(fingerprint);
+	}
+
+	/**
+	 * @return the factor the fingerprint of a content gets multiplied with when the given number of characters are appended to it
+	 */
+	public static long power(int length) {
+		long result = 1;
+		long base = BASE;
+		while (length > 0) {
+			if ((length & 1) != 0) {
+				result *= base;
+			}
+			base *= base;
+			length >>= 1;
+		}
+		return result;
+	}
+
+	/**
+	 * @return the fingerprint of the concatenated contents
+	 */
+	public static long concat(long leftFingerprint, long rightFingerprint, long rightPower) {
+		return leftFingerprint * rightPower + rightFingerprint;
+	}
+
+}
@@ -11,6 +11,7 @@
 package org.eclipse.flux.core;
 
 import java.io.ByteArrayInputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.core.resources.IFile;
@@ -45,6 +46,8 @@ public class DownloadProject {
 	
 	private AtomicInteger requestedFileCount = new AtomicInteger(0);
 	private AtomicInteger downloadedFileCount = new AtomicInteger(0);
+	private AtomicBoolean listingComplete = new AtomicBoolean(false);
+	private AtomicBoolean completed = new AtomicBoolean(false);
 
 	private CallbackIDAwareMessageHandler projectResponseHandler;
 	private CallbackIDAwareMessageHandler resourceResponseHandler;
@@ -103,11 +106,16 @@ public class DownloadProject {
 		}
 	}
 	
+	/**
+	 * handles one page of the project listing, the downloads of the files of a page are requested
+	 * right away, not only when the listing is complete
+	 */
 	public void getProjectResponse(JSONObject response) {
 		try {
 			final String projectName = response.getString("project");
 			final String username = response.getString("username");
 			final JSONArray files = response.getJSONArray("files");
+			final boolean hasMore = response.optBoolean("hasMore", false);
 
 			if (this.username.equals(username)) {
 				for (int i = 0; i < files.length(); i++) {
@@ -146,6 +154,11 @@ public class DownloadProject {
 						messagingConnector.send("getResourceRequest", message);
 					}
 				}
+				
+				if (!hasMore) {
+					listingComplete.set(true);
+					checkCompletion();
+				}
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -165,19 +178,15 @@ public class DownloadProject {
 			if (this.username.equals(username)) {
 				IFile file = project.getFile(resourcePath);
 				if (!file.exists()) {
-					file.create(new ByteArrayInputStream(content.getBytes()), true, null);
+					file.create(new ByteArrayInputStream(content.getBytes(file.getCharset())), true, null);
 				}
 				else {
-					file.setContents(new ByteArrayInputStream(content.getBytes()), true, false, null);
+					file.setContents(new ByteArrayInputStream(content.getBytes(file.getCharset())), true, false, null);
 				}
 				file.setLocalTimeStamp(timestamp);
 				
-				int downloaded = this.downloadedFileCount.incrementAndGet();
-				if (downloaded == this.requestedFileCount.get()) {
-					this.messagingConnector.removeMessageHandler(projectResponseHandler);
-					this.messagingConnector.removeMessageHandler(resourceResponseHandler);
-					this.completionCallback.downloadComplete(project);
-				}
+				this.downloadedFileCount.incrementAndGet();
+				checkCompletion();
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -187,4 +196,12 @@ public class DownloadProject {
 		}
 	}
 	
+	protected void checkCompletion() {
+		if (listingComplete.get() && downloadedFileCount.get() == requestedFileCount.get() && completed.compareAndSet(false, true)) {
+			this.messagingConnector.removeMessageHandler(projectResponseHandler);
+			this.messagingConnector.removeMessageHandler(resourceResponseHandler);
+			this.completionCallback.downloadComplete(project);
+		}
+	}
+	
 }
@@ -17,6 +17,7 @@ import org.eclipse.core.resources.IProject;
  */
 public interface IRepositoryListener {
 	
+	void projectConnecting(IProject project);
 	void projectConnected(IProject project);
 	void projectDisconnected(IProject project);
 
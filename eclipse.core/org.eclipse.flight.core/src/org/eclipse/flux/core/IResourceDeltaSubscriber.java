@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core;
+
+import org.eclipse.core.resources.IResourceDelta;
+
+/**
+ * Gets the resource deltas of connected projects from the {@link ResourceDeltaDispatcher}.
+ *
+ * @author Martin Lippert
+ */
+public interface IResourceDeltaSubscriber {
+	
+	/**
+	 * called for every delta of a connected project that matches the subscription, derived resources are left out
+	 */
+	void resourceChanged(IResourceDelta delta);
+	
+	/**
+	 * called after all deltas of a resource change event got dispatched
+	 */
+	void deltasDispatched();
+
+}
@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core;
+
+import org.json.JSONString;
+
+/**
+ * A small streaming JSON writer that appends directly into a reusable buffer. Since it implements
+ * {@link JSONString}, the written content can be put into a {@link org.json.JSONObject} message as it is,
+ * without parsing it into <code>JSONArray</code>/<code>JSONObject</code> instances first.
+ *
+ * The writer is not thread-safe. The buffer is reused after {@link #reset()}, so the content has to be
+ * sent before the writer is used again.
+ *
+ * @author Martin Lippert
+ */
+public class JSONStreamWriter implements JSONString {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final StringBuilder buffer;
+
+	private boolean[] hasElements;
+	private int depth;
+	private boolean afterKey;
+
+	public JSONStreamWriter() {
+		this(1024);
+	}
+
+	public JSONStreamWriter(int initialCapacity) {
+		this.buffer = new StringBuilder(initialCapacity);
+		this.hasElements = new boolean[16];
+	}
+
+	public JSONStreamWriter reset() {
+		this.buffer.setLength(0);
+		this.depth = 0;
+		this.afterKey = false;
+		return this;
+	}
+
+	public JSONStreamWriter beginArray() {
+		beforeValue();
+		return open('[');
+	}
+
+	public JSONStreamWriter endArray() {
+		return close(']');
+	}
+
+	public JSONStreamWriter beginObject() {
+		beforeValue();
+		return open('{');
+	}
+
+	public JSONStreamWriter endObject() {
+		return close('}');
+	}
+
+	public JSONStreamWriter key(String key) {
+		beforeValue();
+		appendQuoted(key);
+		this.buffer.append(':');
+		this.afterKey = true;
+		return this;
+	}
+
+	public JSONStreamWriter value(String value) {
+		if (value == null) {
+			return nullValue();
+		}
+		beforeValue();
+		appendQuoted(value);
+		return this;
+	}
+
+	public JSONStreamWriter value(char[] value) {
+		if (value == null) {
+			return nullValue();
+		}
+		beginString();
+		appendString(value, 0, value.length);
+		return endString();
+	}
+
+	public JSONStreamWriter value(long value) {
+		beforeValue();
+		this.buffer.append(value);
+		return this;
+	}
+
+	public JSONStreamWriter value(boolean value) {
+		beforeValue();
+		this.buffer.append(value);
+		return this;
+	}
+
+	public JSONStreamWriter nullValue() {
+		beforeValue();
+		this.buffer.append("null");
+		return this;
+	}
+
+	/**
+	 * Starts a string value whose content is appended piece by piece via the <code>appendString</code>
+	 * methods, so that composed values don't need to be concatenated into temporary strings first.
+	 */
+	public JSONStreamWriter beginString() {
+		beforeValue();
+		this.buffer.append('"');
+		return this;
+	}
+
+	public JSONStreamWriter appendString(CharSequence content) {
+		appendEscaped(content, 0, content.length());
+		return this;
+	}
+
+	public JSONStreamWriter appendString(char[] content, int start, int end) {
+		for (int i = start; i < end; i++) {
+			appendEscaped(content[i]);
+		}
+		return this;
+	}
+
+	public JSONStreamWriter endString() {
+		this.buffer.append('"');
+		return this;
+	}
+
+	public int length() {
+		return this.buffer.length();
+	}
+
+	@Override
+	public String toJSONString() {
+		return this.buffer.toString();
+	}
+
+	@Override
+	public String toString() {
+		return toJSONString();
+	}
+
+	private JSONStreamWriter open(char c) {
+		this.buffer.append(c);
+		if (this.depth == this.hasElements.length) {
+			boolean[] newHasElements = new boolean[this.depth * 2];
+			System.arraycopy(this.hasElements, 0, newHasElements, 0, this.depth);
+			this.hasElements = newHasElements;
+		}
+		this.hasElements[this.depth++] = false;
+		return this;
+	}
+
+	private JSONStreamWriter close(char c) {
+		this.depth--;
+		this.buffer.append(c);
+		return this;
+	}
+
+	private void beforeValue() {
+		if (this.afterKey) {
+			this.afterKey = false;
+		}
+		else if (this.depth > 0) {
+			if (this.hasElements[this.depth - 1]) {
+				this.buffer.append(',');
+			}
+			this.hasElements[this.depth - 1] = true;
+		}
+	}
+
+	private void appendQuoted(CharSequence content) {
+		this.buffer.append('"');
+		appendEscaped(content, 0, content.length());
+		this.buffer.append('"');
+	}
+
+	private void appendEscaped(CharSequence content, int start, int end) {
+		for (int i = start; i < end; i++) {
+			appendEscaped(content.charAt(i));
+		}
+	}
+
+	private void appendEscaped(char c) {
+		switch (c) {
+		case '"':
+			this.buffer.append("\\\"");
+			break;
+		case '\\':
+			this.buffer.append("\\\\");
+			break;
+		case '\n':
+			this.buffer.append("\\n");
+			break;
+		case '\r':
+			this.buffer.append("\\r");
+			break;
+		case '\t':
+			this.buffer.append("\\t");
+			break;
+		case '\b':
+			this.buffer.append("\\b");
+			break;
+		case '\f':
+			this.buffer.append("\\f");
+			break;
+		default:
+			if (c < ' ' || c == '\u2028' || c == '\u2029') {
+				this.buffer.append("\\u");
+				this.buffer.append(HEX[(c >> 12) & 0xF]);
+				this.buffer.append(HEX[(c >> 8) & 0xF]);
+				this.buffer.append(HEX[(c >> 4) & 0xF]);
+				this.buffer.append(HEX[c & 0xF]);
+			}
+			else {
+				this.buffer.append(c);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The content of a live edited resource, kept as a balanced rope of immutable nodes. Edits cost O(log n),
+ * snapshots are O(1) (they share the nodes), and every node carries the {@link ContentFingerprint} of its text,
+ * so the fingerprint of the whole content is available without looking at the content again.
+ *
+ * Fingerprints are only used to prove that contents differ, equal fingerprints don't prove equal contents.
+ * The SHA-1 hashes used in messages can be remembered for a snapshot, so that they don't have to be computed
+ * again as long as the content didn't change.
+ *
+ * @author Martin Lippert
+ */
+public class LiveDocument {
+
+	private static final int CHUNK_SIZE = 512;
+	private static final int KNOWN_HASHES = 8;
+
+	private Node root;
+	private final Map<Node, String> knownHashes;
+
+	public LiveDocument(String content) {
+		this(build(content, 0, content.length()));
+	}
+
+	private LiveDocument(Node root) {
+		this.root = root;
+		this.knownHashes = new LinkedHashMap<Node, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Node, String> eldest) {
+				return size() > KNOWN_HASHES;
+			}
+		};
+	}
+
+	public synchronized int getLength() {
+		return length(root);
+	}
+
+	/**
+	 * @return the {@link ContentFingerprint} of the content, in O(1)
+	 */
+	public synchronized long getFingerprint() {
+		return hash(root);
+	}
+
+	public synchronized String getContent() {
+		StringBuilder result = new StringBuilder(length(root));
+		append(root, result);
+		return result.toString();
+	}
+
+	public synchronized void replace(int offset, int removedCharCount, String addedCharacters) {
+		if (offset < 0 || removedCharCount < 0 || offset + removedCharCount > length(root)) {
+			throw new IndexOutOfBoundsException("replace " + offset + "/" + removedCharCount + " on document of length " + length(root));
+		}
+
+		Node[] head = split(root, offset);
+		Node[] tail = split(head[1], removedCharCount);
+		String text = addedCharacters != null ? addedCharacters : "";
+		root = concat(concat(head[0], build(text, 0, text.length())), tail[1]);
+	}
+
+	/**
+	 * replaces the content, but only the region that actually differs
+	 *
+	 * @return the replaced region as {offset, removed character count, added character count}, or <code>null</code> if the content didn't change
+	 */
+	public synchronized int[] setContent(String content) {
+		String current = getContent();
+		int prefix = 0;
+		int maxPrefix = Math.min(current.length(), content.length());
+		while (prefix < maxPrefix && current.charAt(prefix) == content.charAt(prefix)) {
+			prefix++;
+		}
+
+		int suffix = 0;
+		int maxSuffix = maxPrefix - prefix;
+		while (suffix < maxSuffix && current.charAt(current.length() - 1 - suffix) == content.charAt(content.length() - 1 - suffix)) {
+			suffix++;
+		}
+
+		int removed = current.length() - prefix - suffix;
+		int added = content.length() - prefix - suffix;
+		if (removed == 0 && added == 0) {
+			return null;
+		}
+		replace(prefix, removed, content.substring(prefix, prefix + added));
+		return new int[] {prefix, removed, added};
+	}
+
+	/**
+	 * @return an unmodifiable copy of the current content, created in O(1)
+	 */
+	public synchronized LiveDocument snapshot() {
+		return new LiveDocument(root);
+	}
+
+	/**
+	 * remembers the hash of the content of the given snapshot of this document
+	 */
+	public synchronized void rememberHash(LiveDocument snapshot, String hash) {
+		Node snapshotRoot;
+		synchronized (snapshot) {
+			snapshotRoot = snapshot.root;
+		}
+		if (snapshotRoot != null) {
+			knownHashes.put(snapshotRoot, hash);
+		}
+	}
+
+	/**
+	 * @return the hash remembered for the current content, or <code>null</code> if it is unknown. The nodes are
+	 * immutable, so a hash remembered for the current root is the hash of exactly this content.
+	 */
+	public synchronized String getKnownHash() {
+		return root != null ? knownHashes.get(root) : null;
+	}
+
+	/**
+	 * @return <code>true</code> if the content with the given hash is known and differs from the current content
+	 */
+	public synchronized boolean isKnownToDiffer(String hash) {
+		for (Map.Entry<Node, String> knownHash : knownHashes.entrySet()) {
+			if (knownHash.getValue().equals(hash)) {
+				// different fingerprints prove different contents
+				return knownHash.getKey().hash != hash(root) || knownHash.getKey().length != length(root);
+			}
+		}
+		return false;
+	}
+
+	private static class Node {
+
+		private final Node left;
+		private final Node right;
+		private final String text;
+
+		private final int length;
+		private final int height;
+		private final long hash;
+		private final long power;
+
+		private Node(String text) {
+			this.left = null;
+			this.right = null;
+			this.text = text;
+			this.length = text.length();
+			this.height = 0;
+			this.hash = ContentFingerprint.of(text);
+			this.power = ContentFingerprint.power(text.length());
+		}
+
+		private Node(Node left, Node right) {
+			this.left = left;
+			this.right = right;
+			this.text = null;
+			this.length = left.length + right.length;
+			this.height = Math.max(left.height, right.height) + 1;
+			this.hash = ContentFingerprint.concat(left.hash, right.hash, right.power);
+			this.power = left.power * right.power;
+		}
+
+		private boolean isLeaf() {
+			return text != null;
+		}
+
+	}
+
+	private static int length(Node node) {
+		return node != null ? node.length : 0;
+	}
+
+	private static int height(Node node) {
+		return node != null ? node.height : -1;
+	}
+
+	private static long hash(Node node) {
+		return node != null ? node.hash : 0;
+	}
+
+	private static void append(Node node, StringBuilder result) {
+		if (node == null) {
+			return;
+		}
+		if (node.isLeaf()) {
+			result.append(node.text);
+		}
+		else {
+			append(node.left, result);
+			append(node.right, result);
+		}
+	}
+
+	private static Node build(String content, int start, int end) {
+		if (start == end) {
+			return null;
+		}
+		if (end - start <= CHUNK_SIZE) {
+			return new Node(content.substring(start, end));
+		}
+		int chunks = (end - start + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		int middle = start + (chunks / 2) * CHUNK_SIZE;
+		return new Node(build(content, start, middle), build(content, middle, end));
+	}
+
+	private static Node[] split(Node node, int offset) {
+		if (node == null) {
+			return new Node[] {null, null};
+		}
+		if (offset == 0) {
+			return new Node[] {null, node};
+		}
+		if (offset == node.length) {
+			return new Node[] {node, null};
+		}
+
+		if (node.isLeaf()) {
+			return new Node[] {new Node(node.text.substring(0, offset)), new Node(node.text.substring(offset))};
+		}
+		else if (offset <= node.left.length) {
+			Node[] parts = split(node.left, offset);
+			return new Node[] {parts[0], concat(parts[1], node.right)};
+		}
+		else {
+			Node[] parts = split(node.right, offset - node.left.length);
+			return new Node[] {concat(node.left, parts[0]), parts[1]};
+		}
+	}
+
+	private static Node concat(Node left, Node right) {
+		if (left == null) {
+			return right;
+		}
+		if (right == null) {
+			return left;
+		}
+
+		if (left.isLeaf() && right.isLeaf() && left.length + right.length <= CHUNK_SIZE) {
+			return new Node(left.text + right.text);
+		}
+
+		if (left.height > right.height + 1) {
+			return balance(left.left, concat(left.right, right));
+		}
+		else if (right.height > left.height + 1) {
+			return balance(concat(left, right.left), right.right);
+		}
+		else {
+			return new Node(left, right);
+		}
+	}
+
+	private static Node balance(Node left, Node right) {
+		if (height(left) > height(right) + 1) {
+			if (height(left.left) >= height(left.right)) {
+				return new Node(left.left, new Node(left.right, right));
+			}
+			else {
+				return new Node(new Node(left.left, left.right.left), new Node(left.right.right, right));
+			}
+		}
+		else if (height(right) > height(left) + 1) {
+			if (height(right.right) >= height(right.left)) {
+				return new Node(new Node(left, right.left), right.right);
+			}
+			else {
+				return new Node(new Node(left, right.left.left), new Node(right.left.right, right.right));
+			}
+		}
+		return new Node(left, right);
+	}
+
+}
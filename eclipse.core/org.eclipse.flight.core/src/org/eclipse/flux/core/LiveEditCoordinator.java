@@ -10,23 +10,92 @@
 *******************************************************************************/
 package org.eclipse.flux.core;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.eclipse.flux.core.internal.IncomingLiveEdits;
+import org.eclipse.flux.core.internal.LiveEditCoalescer;
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 /**
+ * Distributes live edits between the local live edit connectors and the remote participants.
+ *
+ * Outgoing edits carry the ID of this coordinator, the save point hash and the revision they are based on, together
+ * with the hash of the content at that revision once it is known. Edits whose base hash doesn't match the local
+ * content at their base revision trigger a resync.
+ * The messaging server assigns the next revision of the resource to every edit and sends it to all participants,
+ * including the sender. Incoming edits are applied in the order of their revisions, a gap is filled by requesting
+ * the missing edits from the participant that sent the edit behind the gap, a resync of the full content
+ * (via <code>liveResourceStarted</code>) is only the fallback. Edits without a revision are applied right away,
+ * as before.
+ *
+ * Concurrent edits are transformed against each other by a {@link LiveEditTransformer}, so that all participants
+ * converge to the same content. Local connectors that apply incoming edits later (e.g. on the UI thread) have to
+ * transform their own edits against the ones they haven't applied yet, under the {@link #getLiveEditLock()}.
+ *
+ * Outgoing edits that directly continue each other are merged by a {@link LiveEditCoalescer} before they
+ * are numbered and sent, local connectors still get every single edit right away.
+ *
+ * Connectors that keep the live content around can register a {@link LiveDocument} per resource, the
+ * coordinator keeps it up to date with all edits. Participants that join get the content at the last revision
+ * the server acknowledged, which the transformer learns from the live document.
+ *
+ * Connectors tell the coordinator when they stop live editing a resource (see {@link #sendLiveEditClosedMessage}),
+ * the state of the resource is dropped then and the server stops counting the resource as edited here. The state
+ * of all resources is dropped when the connection to the server gets lost.
+ *
  * @author Martin Lippert
  */
 public class LiveEditCoordinator {
 	
+	private static int GET_CHANGES_CALLBACK = "LiveEditCoordinator - getChangesCallback".hashCode();
+	private static final int JOIN_HISTORY = Integer.getInteger("flux-liveedit-join-history", 64);
+	
 	private IMessagingConnector messagingConnector;
 	private Collection<ILiveEditConnector> liveEditConnectors;
 	
+	private final String senderID;
+	private final Object liveEditLock;
+	private final ConcurrentMap<String, IncomingLiveEdits> incomingEdits;
+	private final ConcurrentMap<String, SavePoint> savePoints;
+	private final LiveEditTransformer transformer;
+	private final LiveEditCoalescer coalescer;
+	private final ConcurrentMap<String, LiveDocument> liveDocuments;
+	
 	public LiveEditCoordinator(IMessagingConnector messagingConnector) {
 		this.messagingConnector = messagingConnector;
 		this.liveEditConnectors = new CopyOnWriteArrayList<>();
 		
+		this.senderID = UUID.randomUUID().toString();
+		this.liveEditLock = new Object();
+		this.incomingEdits = new ConcurrentHashMap<String, IncomingLiveEdits>();
+		this.savePoints = new ConcurrentHashMap<String, SavePoint>();
+		this.transformer = new LiveEditTransformer(this.senderID);
+		this.liveDocuments = new ConcurrentHashMap<String, LiveDocument>();
+		this.coalescer = new LiveEditCoalescer() {
+			@Override
+			protected void send(PendingEdit edit) {
+				sendModelChange(edit);
+			}
+		};
+		
+		messagingConnector.addConnectionListener(new IConnectionListener() {
+			@Override
+			public void connected() {
+			}
+			@Override
+			public void disconnected() {
+				dropLiveResources();
+			}
+		});
+		
 		IMessageHandler startLiveUnit = new AbstractMessageHandler("liveResourceStarted") {
 			@Override
 			public void handleMessage(String messageType, JSONObject message) {
@@ -50,6 +119,22 @@ public class LiveEditCoordinator {
 			}
 		};
 		messagingConnector.addMessageHandler(modelChangedHandler);
+		
+		IMessageHandler changesRequestHandler = new AbstractMessageHandler("liveResourceChangesRequest") {
+			@Override
+			public void handleMessage(String messageType, JSONObject message) {
+				getChanges(message);
+			}
+		};
+		messagingConnector.addMessageHandler(changesRequestHandler);
+		
+		IMessageHandler changesResponseHandler = new CallbackIDAwareMessageHandler("liveResourceChangesResponse", GET_CHANGES_CALLBACK) {
+			@Override
+			public void handleMessage(String messageType, JSONObject message) {
+				getChangesResponse(message);
+			}
+		};
+		messagingConnector.addMessageHandler(changesResponseHandler);
 	}
 	
 	protected void startLiveUnit(JSONObject message) {
@@ -63,6 +148,9 @@ public class LiveEditCoordinator {
 			long timestamp = message.getLong("timestamp");
 
 			String liveEditID = projectName + "/" + resourcePath;
+			updateSavePoint(liveEditID, hash, timestamp);
+			coalescer.flush(liveEditID);
+			
 			for (ILiveEditConnector connector : liveEditConnectors) {
 				connector.liveEditingStarted(requestSenderID, callbackID, username, liveEditID, hash, timestamp);
 			}
@@ -82,6 +170,12 @@ public class LiveEditCoordinator {
 			String savePointHash = message.getString("savePointHash");
 			long savePointTimestamp = message.getLong("savePointTimestamp");
 			String content = message.getString("liveContent");
+			
+			updateSavePoint(projectName + "/" + resourcePath, savePointHash, savePointTimestamp);
+			coalescer.flush(projectName + "/" + resourcePath);
+			JSONArray changes = message.optJSONArray("changes");
+			transformer.startAt(projectName + "/" + resourcePath, message.optString("epoch", null), message.optLong("revision", -1), content,
+					changes != null ? getHistoryEntries(changes) : null);
 
 			for (ILiveEditConnector connector : liveEditConnectors) {
 				connector.liveEditingStartedResponse(requestSenderID, callbackID, username, projectName, resourcePath, savePointHash, savePointTimestamp, content);
@@ -93,25 +187,275 @@ public class LiveEditCoordinator {
 	}
 	
 	protected void modelChanged(JSONObject message) {
+		try {
+			if (message.has("revision")) {
+				sequencedModelChanged(message);
+			}
+			else {
+				applyModelChange(message);
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	protected void sequencedModelChanged(JSONObject message) throws JSONException {
+		final String username = message.getString("username");
+		final String projectName = message.getString("project");
+		final String resourcePath = message.getString("resource");
+		long revision = message.getLong("revision");
+		
+		String liveEditID = projectName + "/" + resourcePath;
+		if (message.has("savePointHash") && message.has("savePointTimestamp")) {
+			updateSavePoint(liveEditID, message.getString("savePointHash"), message.getLong("savePointTimestamp"));
+		}
+		
+		IncomingLiveEdits stream = incomingEdits.get(liveEditID);
+		if (stream == null) {
+			IncomingLiveEdits newStream = new IncomingLiveEdits() {
+				@Override
+				protected void gapTimedOut() {
+					try {
+						requestResync(username, projectName, resourcePath);
+					}
+					catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			stream = incomingEdits.putIfAbsent(liveEditID, newStream);
+			if (stream == null) {
+				stream = newStream;
+			}
+		}
+		
+		synchronized (liveEditLock) {
+			if (transformer.startEpoch(liveEditID, message.optString("epoch", null))) {
+				// the server counts the revisions of the resource anew, the held back edits belong to the old ones
+				stream.reset();
+			}
+			List<JSONObject> edits = stream.receive(revision, message);
+			for (JSONObject edit : edits) {
+				applyModelChange(edit);
+			}
+		}
+		
+		if (stream.hasGap() && message.has("senderID") && stream.requestMissingEdits()) {
+			// the sender of this edit has seen all edits before it, if the missing edits don't arrive in time,
+			// the stream resyncs itself (see IncomingLiveEdits.gapTimedOut)
+			JSONObject request = new JSONObject();
+			request.put("callback_id", GET_CHANGES_CALLBACK);
+			request.put("username", username);
+			request.put("project", projectName);
+			request.put("resource", resourcePath);
+			request.put("senderID", message.getString("senderID"));
+			if (message.has("epoch")) {
+				request.put("epoch", message.getString("epoch"));
+			}
+			request.put("fromRevision", stream.getMissingFrom());
+			request.put("toRevision", stream.getMissingTo());
+			
+			this.messagingConnector.send("liveResourceChangesRequest", request);
+		}
+	}
+	
+	protected void getChanges(JSONObject request) {
+		try {
+			if (!this.senderID.equals(request.optString("senderID"))) {
+				return;
+			}
+			
+			String projectName = request.getString("project");
+			String resourcePath = request.getString("resource");
+			List<LiveEditTransformer.HistoryEntry> edits = null;
+			String epoch = request.optString("epoch", null);
+			if (epoch == null || epoch.equals(transformer.getEpoch(projectName + "/" + resourcePath))) {
+				edits = transformer.getHistory(projectName + "/" + resourcePath, request.getLong("fromRevision"), request.getLong("toRevision"));
+			}
+			
+			JSONObject response = new JSONObject();
+			response.put("requestSenderID", request.getString("requestSenderID"));
+			response.put("callback_id", request.getInt("callback_id"));
+			response.put("username", request.getString("username"));
+			response.put("project", projectName);
+			response.put("resource", resourcePath);
+			response.put("senderID", this.senderID);
+			
+			if (edits != null) {
+				putChanges(response, edits);
+			}
+			else {
+				response.put("resync", true);
+			}
+			
+			this.messagingConnector.send("liveResourceChangesResponse", response);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	protected void getChangesResponse(JSONObject response) {
+		try {
+			String username = response.getString("username");
+			String projectName = response.getString("project");
+			String resourcePath = response.getString("resource");
+			
+			JSONArray changes = response.optJSONArray("changes");
+			if (changes == null) {
+				IncomingLiveEdits stream = incomingEdits.get(projectName + "/" + resourcePath);
+				if (stream != null) {
+					stream.reset();
+				}
+				requestResync(username, projectName, resourcePath);
+				return;
+			}
+			
+			for (int i = 0; i < changes.length(); i++) {
+				JSONObject change = changes.getJSONObject(i);
+				change.put("username", username);
+				change.put("project", projectName);
+				change.put("resource", resourcePath);
+				// the edits of the log are in their transformed form already
+				change.put("baseRevision", change.getLong("revision") - 1);
+				sequencedModelChanged(change);
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Asks the other participants for their live content, based on the last known save point of the resource
+	 */
+	protected void requestResync(String username, String projectName, String resourcePath) throws JSONException {
+		SavePoint savePoint = savePoints.get(projectName + "/" + resourcePath);
+		if (savePoint == null) {
+			return;
+		}
+		
+		// the content gets replaced as a whole, concurrent edits from before don't matter anymore
+		coalescer.flush(projectName + "/" + resourcePath);
+		transformer.reset(projectName + "/" + resourcePath);
+		
+		JSONObject message = new JSONObject();
+		message.put("callback_id", 0);
+		message.put("username", username);
+		message.put("project", projectName);
+		message.put("resource", resourcePath);
+		message.put("hash", savePoint.hash);
+		message.put("timestamp", savePoint.timestamp);
+		
+		this.messagingConnector.send("liveResourceStarted", message);
+	}
+	
+	protected void applyModelChange(JSONObject message) {
 		try {
 			String username = message.getString("username");
 			String projectName = message.getString("project");
 			String resourcePath = message.getString("resource");
-
-			int offset = message.getInt("offset");
-			int removedCharCount = message.getInt("removedCharCount");
-			String addedChars = message.has("addedCharacters") ? message.getString("addedCharacters") : "";
-
 			String liveEditID = projectName + "/" + resourcePath;
-
-			for (ILiveEditConnector connector : liveEditConnectors) {
-				connector.liveEditingEvent(username, liveEditID, offset, removedCharCount, addedChars);
+			
+			synchronized (liveEditLock) {
+				// local edits that are still waiting to be sent were made before this one arrived
+				coalescer.flush(liveEditID);
+				
+				List<LiveEditOperation> operations = getOperations(message);
+				if (message.has("revision")) {
+					operations = transformer.remoteEdit(liveEditID, message.optString("senderID"), message.optLong("sequence"),
+							message.getLong("revision"), message.optLong("baseRevision", -1), message.optString("baseHash", null), operations);
+					if (operations == null) {
+						requestResync(username, projectName, resourcePath);
+						return;
+					}
+				}
+				
+				for (LiveEditOperation operation : operations) {
+					updateLiveDocument(liveEditID, operation.getOffset(), operation.getRemovedCharCount(), operation.getAddedCharacters());
+					for (ILiveEditConnector connector : liveEditConnectors) {
+						connector.liveEditingEvent(username, liveEditID, operation.getOffset(), operation.getRemovedCharCount(), operation.getAddedCharacters());
+					}
+				}
+				
+				if (message.has("revision")) {
+					sendModelChange(username, projectName, resourcePath, transformer.nextOutgoing(liveEditID));
+					
+					LiveDocument document = liveDocuments.get(liveEditID);
+					if (document != null) {
+						transformer.acknowledge(liveEditID, document);
+					}
+				}
 			}
 		}
 		catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
+	
+	protected void putChanges(JSONObject message, List<LiveEditTransformer.HistoryEntry> edits) throws JSONException {
+		JSONArray changes = new JSONArray();
+		for (LiveEditTransformer.HistoryEntry edit : edits) {
+			JSONObject change = new JSONObject();
+			change.put("senderID", edit.getOrigin());
+			change.put("sequence", edit.getSequence());
+			change.put("revision", edit.getRevision());
+			if (edit.getHash() != null) {
+				change.put("hash", edit.getHash());
+			}
+			putOperations(change, edit.getOperations());
+			changes.put(change);
+		}
+		message.put("changes", changes);
+	}
+	
+	protected List<LiveEditTransformer.HistoryEntry> getHistoryEntries(JSONArray changes) throws JSONException {
+		List<LiveEditTransformer.HistoryEntry> edits = new ArrayList<LiveEditTransformer.HistoryEntry>(changes.length());
+		for (int i = 0; i < changes.length(); i++) {
+			JSONObject change = changes.getJSONObject(i);
+			edits.add(new LiveEditTransformer.HistoryEntry(change.getString("senderID"), change.getLong("sequence"), change.getLong("revision"),
+					change.optString("hash", null), getOperations(change)));
+		}
+		return edits;
+	}
+	
+	/**
+	 * @return the operations of the edit, either a single replace or the list of <code>edits</code> of a batch
+	 */
+	protected List<LiveEditOperation> getOperations(JSONObject message) throws JSONException {
+		JSONArray edits = message.optJSONArray("edits");
+		if (edits == null) {
+			return LiveEditOperation.replace(message.getInt("offset"), message.getInt("removedCharCount"), message.optString("addedCharacters"));
+		}
+		
+		List<LiveEditOperation> operations = new ArrayList<LiveEditOperation>(edits.length());
+		for (int i = 0; i < edits.length(); i++) {
+			JSONObject edit = edits.getJSONObject(i);
+			operations.addAll(LiveEditOperation.replace(edit.getInt("offset"), edit.getInt("removedCharCount"), edit.optString("addedCharacters")));
+		}
+		return operations;
+	}
+	
+	protected void putOperations(JSONObject message, List<LiveEditOperation> operations) throws JSONException {
+		if (operations.size() == 1) {
+			LiveEditOperation operation = operations.get(0);
+			message.put("offset", operation.getOffset());
+			message.put("removedCharCount", operation.getRemovedCharCount());
+			message.put("addedCharacters", operation.getAddedCharacters());
+		}
+		else {
+			JSONArray edits = new JSONArray();
+			for (LiveEditOperation operation : operations) {
+				JSONObject edit = new JSONObject();
+				edit.put("offset", operation.getOffset());
+				edit.put("removedCharCount", operation.getRemovedCharCount());
+				edit.put("addedCharacters", operation.getAddedCharacters());
+				edits.put(edit);
+			}
+			message.put("edits", edits);
+		}
+	}
 
 	public void addLiveEditConnector(ILiveEditConnector connector) {
 		liveEditConnectors.add(connector);
@@ -121,33 +465,101 @@ public class LiveEditCoordinator {
 		liveEditConnectors.remove(connector);
 	}
 	
+	/**
+	 * registers the document that tracks the live content of the resource, every live edit that passes
+	 * this coordinator is applied to it before the live edit connectors are notified
+	 */
+	public void addLiveDocument(String liveEditID, LiveDocument document) {
+		liveDocuments.put(liveEditID, document);
+	}
+	
+	public LiveDocument getLiveDocument(String liveEditID) {
+		return liveDocuments.get(liveEditID);
+	}
+	
+	/**
+	 * the lock that incoming edits are transformed and passed to the live edit connectors under, a connector that
+	 * transforms its local edits against incoming edits it hasn't applied yet has to send them under this lock, too
+	 */
+	public Object getLiveEditLock() {
+		return liveEditLock;
+	}
+	
+	protected void updateLiveDocument(String liveEditID, int offset, int removedCharCount, String addedCharacters) {
+		LiveDocument document = liveDocuments.get(liveEditID);
+		if (document != null) {
+			try {
+				document.replace(offset, removedCharCount, addedCharacters);
+			}
+			catch (IndexOutOfBoundsException e) {
+				// the document is out of sync, the connector creates a new one from its content when it needs it
+				e.printStackTrace();
+				liveDocuments.remove(liveEditID, document);
+			}
+		}
+	}
+	
 	public void sendModelChangedMessage(String changeOriginID, String username, String projectName, String resourcePath, int offset, int removedCharactersCount, String newText) {
+		String fullResourcePath = projectName + "/" + resourcePath;
+		synchronized (liveEditLock) {
+			updateLiveDocument(fullResourcePath, offset, removedCharactersCount, newText);
+			coalescer.add(fullResourcePath, username, projectName, resourcePath, offset, removedCharactersCount, newText);
+			
+			for (ILiveEditConnector connector : this.liveEditConnectors) {
+				if (!connector.getConnectorID().equals(changeOriginID)) {
+					connector.liveEditingEvent(username, fullResourcePath, offset, removedCharactersCount, newText);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * passes a (possibly merged) edit on to the transformer, called by the coalescer in the order the edits were made
+	 */
+	protected void sendModelChange(LiveEditCoalescer.PendingEdit edit) {
+		sendModelChange(edit.getUsername(), edit.getProjectName(), edit.getResourcePath(),
+				transformer.localEdit(edit.getLiveEditID(), edit.getOffset(), edit.getRemovedCharCount(), edit.getAddedCharacters()));
+	}
+	
+	/**
+	 * sends a batch of local edits to the remote participants, if the transformer let it go
+	 */
+	protected void sendModelChange(String username, String projectName, String resourcePath, LiveEditTransformer.Outgoing edit) {
+		if (edit == null) {
+			return;
+		}
+		
 		try {
 			JSONObject message = new JSONObject();
 			message.put("username", username);
 			message.put("project", projectName);
 			message.put("resource", resourcePath);
-			message.put("offset", offset);
-			message.put("offset", offset);
-			message.put("removedCharCount", removedCharactersCount);
-			message.put("addedCharacters", newText != null ? newText : "");
+			putOperations(message, edit.getOperations());
+			
+			message.put("senderID", this.senderID);
+			message.put("sequence", edit.getSequence());
+			if (edit.getBaseRevision() >= 0) {
+				message.put("baseRevision", edit.getBaseRevision());
+			}
+			if (edit.getBaseHash() != null) {
+				message.put("baseHash", edit.getBaseHash());
+			}
+			
+			SavePoint savePoint = savePoints.get(projectName + "/" + resourcePath);
+			if (savePoint != null) {
+				message.put("savePointHash", savePoint.hash);
+				message.put("savePointTimestamp", savePoint.timestamp);
+			}
 
 			this.messagingConnector.send("liveResourceChanged", message);
 		}
 		catch (Exception e) {
 			e.printStackTrace();
 		}
-		
-		String fullResourcePath = projectName + "/" + resourcePath;
-		
-		for (ILiveEditConnector connector : this.liveEditConnectors) {
-			if (!connector.getConnectorID().equals(changeOriginID)) {
-				connector.liveEditingEvent(username, fullResourcePath, offset, removedCharactersCount, newText);
-			}
-		}
 	}
 
 	public void sendLiveEditStartedMessage(String changeOriginID, String username, String projectName, String resourcePath, String hash, long timestamp) {
+		coalescer.flush(projectName + "/" + resourcePath);
 		try {
 			JSONObject message = new JSONObject();
 			message.put("callback_id", 0);
@@ -158,6 +570,7 @@ public class LiveEditCoordinator {
 			message.put("timestamp", timestamp);
 			
 			this.messagingConnector.send("liveResourceStarted", message);
+			updateSavePoint(projectName + "/" + resourcePath, hash, timestamp);
 		}
 		catch (Exception e) {
 			e.printStackTrace();
@@ -170,7 +583,14 @@ public class LiveEditCoordinator {
 		}
 	}
 	
+	/**
+	 * Sends the live content to the participant that started editing the resource. The content is sent as of the last
+	 * revision, without the local edits in flight or buffered, since the participant gets those as edits later on,
+	 * together with the last canonical edits, which edits made concurrently to the joining get transformed against.
+	 * If that content isn't known while local edits are pending, no content is sent (the other participants answer).
+	 */
 	public void sendLiveEditStartedResponse(String responseOriginID, String requestSenderID, int callbackID, String username, String projectName, String resourcePath, String savePointHash, long savePointTimestamp, String content) {
+		String liveEditID = projectName + "/" + resourcePath;
 		try {
 			JSONObject message = new JSONObject();
 			message.put("requestSenderID", requestSenderID);
@@ -180,9 +600,35 @@ public class LiveEditCoordinator {
 			message.put("resource", resourcePath);
 			message.put("savePointTimestamp", savePointTimestamp);
 			message.put("savePointHash", savePointHash);
-			message.put("liveContent", content);
-	
-			this.messagingConnector.send("liveResourceStartedResponse", message);
+			
+			boolean send = true;
+			synchronized (liveEditLock) {
+				coalescer.flush(liveEditID);
+				
+				LiveDocument document = liveDocuments.get(liveEditID);
+				if (document != null) {
+					transformer.acknowledge(liveEditID, document);
+				}
+				
+				LiveDocument acknowledgedContent = transformer.getAcknowledgedContent(liveEditID);
+				if (acknowledgedContent != null) {
+					message.put("liveContent", acknowledgedContent.getContent());
+					message.put("revision", transformer.getRevision(liveEditID));
+					message.put("epoch", transformer.getEpoch(liveEditID));
+					putChanges(message, transformer.getRecentHistory(liveEditID, JOIN_HISTORY));
+				}
+				else if (!transformer.hasPendingEdits(liveEditID)) {
+					message.put("liveContent", content);
+				}
+				else {
+					send = false;
+				}
+			}
+			
+			if (send) {
+				this.messagingConnector.send("liveResourceStartedResponse", message);
+			}
+			updateSavePoint(liveEditID, savePointHash, savePointTimestamp);
 		}
 		catch (Exception e) {
 			e.printStackTrace();
@@ -195,4 +641,67 @@ public class LiveEditCoordinator {
 		}
 	}
 
+	/**
+	 * Drops the state of the resource and tells the server that it isn't live edited here anymore. Called by the
+	 * connectors when they stop live editing the resource, e.g. when the editor got closed or the project disconnected.
+	 */
+	public void sendLiveEditClosedMessage(String username, String projectName, String resourcePath) {
+		String liveEditID = projectName + "/" + resourcePath;
+		synchronized (liveEditLock) {
+			coalescer.flush(liveEditID);
+			transformer.remove(liveEditID);
+			liveDocuments.remove(liveEditID);
+			savePoints.remove(liveEditID);
+			
+			IncomingLiveEdits stream = incomingEdits.remove(liveEditID);
+			if (stream != null) {
+				stream.reset();
+			}
+		}
+		
+		try {
+			JSONObject message = new JSONObject();
+			message.put("username", username);
+			message.put("project", projectName);
+			message.put("resource", resourcePath);
+			
+			this.messagingConnector.send("liveResourceClosed", message);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * drops the state of all resources, the revisions and the edits in flight are lost together with the connection
+	 */
+	protected void dropLiveResources() {
+		synchronized (liveEditLock) {
+			transformer.clear();
+			for (IncomingLiveEdits stream : incomingEdits.values()) {
+				stream.reset();
+			}
+			incomingEdits.clear();
+		}
+	}
+
+	protected void updateSavePoint(String liveEditID, String hash, long timestamp) {
+		SavePoint savePoint = savePoints.get(liveEditID);
+		if (savePoint == null || savePoint.timestamp <= timestamp) {
+			savePoints.put(liveEditID, new SavePoint(hash, timestamp));
+		}
+	}
+	
+	private static class SavePoint {
+		
+		private final String hash;
+		private final long timestamp;
+		
+		public SavePoint(String hash, long timestamp) {
+			this.hash = hash;
+			this.timestamp = timestamp;
+		}
+		
+	}
+
 }
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A primitive live edit operation, either an insert of text or a delete of a range of characters.
+ * Replace edits as they are sent around (offset, removed character count, added text) are split
+ * into a delete followed by an insert.
+ *
+ * @author Martin Lippert
+ */
+public class LiveEditOperation {
+
+	private final int offset;
+	private final int removedCharCount;
+	private final String addedCharacters;
+
+	private LiveEditOperation(int offset, int removedCharCount, String addedCharacters) {
+		this.offset = offset;
+		this.removedCharCount = removedCharCount;
+		this.addedCharacters = addedCharacters;
+	}
+
+	public static LiveEditOperation insert(int offset, String text) {
+		return new LiveEditOperation(offset, 0, text);
+	}
+
+	public static LiveEditOperation delete(int offset, int length) {
+		return new LiveEditOperation(offset, length, "");
+	}
+
+	public static List<LiveEditOperation> replace(int offset, int removedCharCount, String addedCharacters) {
+		List<LiveEditOperation> operations = new ArrayList<LiveEditOperation>(2);
+		if (removedCharCount > 0) {
+			operations.add(delete(offset, removedCharCount));
+		}
+		if (addedCharacters != null && addedCharacters.length() > 0) {
+			operations.add(insert(offset, addedCharacters));
+		}
+		return operations;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	public int getRemovedCharCount() {
+		return removedCharCount;
+	}
+
+	public String getAddedCharacters() {
+		return addedCharacters;
+	}
+
+	public boolean isInsert() {
+		return removedCharCount == 0;
+	}
+
+	/**
+	 * Transforms this operation against a concurrent operation that got applied before it.
+	 *
+	 * @param applied the concurrent operation that was applied first
+	 * @param winsTie whether this operation goes first if both insert at the same offset
+	 * @return the operations that have the same intention as this one on the document with the other operation applied
+	 */
+	public List<LiveEditOperation> transform(LiveEditOperation applied, boolean winsTie) {
+		if (isInsert()) {
+			return Collections.singletonList(transformInsert(applied, winsTie));
+		}
+		else {
+			return transformDelete(applied);
+		}
+	}
+
+	private LiveEditOperation transformInsert(LiveEditOperation applied, boolean winsTie) {
+		if (applied.isInsert()) {
+			int appliedLength = applied.addedCharacters.length();
+			if (offset < applied.offset || (offset == applied.offset && winsTie)) {
+				return this;
+			}
+			return insert(offset + appliedLength, addedCharacters);
+		}
+		else {
+			int appliedEnd = applied.offset + applied.removedCharCount;
+			if (offset <= applied.offset) {
+				return this;
+			}
+			else if (offset >= appliedEnd) {
+				return insert(offset - applied.removedCharCount, addedCharacters);
+			}
+			else {
+				// the insert survives the concurrent delete of its surrounding
+				return insert(applied.offset, addedCharacters);
+			}
+		}
+	}
+
+	private List<LiveEditOperation> transformDelete(LiveEditOperation applied) {
+		int end = offset + removedCharCount;
+		if (applied.isInsert()) {
+			int appliedLength = applied.addedCharacters.length();
+			if (applied.offset >= end) {
+				return Collections.singletonList(this);
+			}
+			else if (applied.offset <= offset) {
+				return Collections.singletonList(delete(offset + appliedLength, removedCharCount));
+			}
+			else {
+				// the concurrently inserted text is kept, the delete is split around it
+				List<LiveEditOperation> operations = new ArrayList<LiveEditOperation>(2);
+				int before = applied.offset - offset;
+				operations.add(delete(offset, before));
+				operations.add(delete(offset + appliedLength, removedCharCount - before));
+				return operations;
+			}
+		}
+		else {
+			int appliedEnd = applied.offset + applied.removedCharCount;
+			if (end <= applied.offset) {
+				return Collections.singletonList(this);
+			}
+			else if (offset >= appliedEnd) {
+				return Collections.singletonList(delete(offset - applied.removedCharCount, removedCharCount));
+			}
+			else {
+				int overlap = Math.min(end, appliedEnd) - Math.max(offset, applied.offset);
+				int remaining = removedCharCount - overlap;
+				if (remaining == 0) {
+					return Collections.emptyList();
+				}
+				return Collections.singletonList(delete(Math.min(offset, applied.offset), remaining));
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return isInsert() ? "insert(" + offset + ", \"" + addedCharacters + "\")" : "delete(" + offset + ", " + removedCharCount + ")";
+	}
+
+}
@@ -0,0 +1,533 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Makes concurrent live edits of several participants converge, using operational transformation.
+ *
+ * The messaging server numbers the live edits of every resource (their revision) and delivers them in that
+ * order to all participants, including the sender. Every edit tells the revision it was made on (its base
+ * revision). All participants turn an incoming edit into its canonical form in the same way, by transforming
+ * it against the canonical forms of the edits between its base revision and its own revision, so they all
+ * end up with the same sequence of canonical edits.
+ *
+ * Local edits are applied right away. A participant has only one batch of local edits in flight at a time,
+ * edits made while waiting for it to come back from the server are buffered and sent as the next batch. As long
+ * as a participant doesn't know the revision its content is based on, it sends an empty batch to learn it first.
+ * Incoming edits of other participants are transformed against the batch in flight and the buffer before
+ * they are applied locally, and the other way round, so that the batch in flight ends up in the canonical
+ * form the other participants compute for it. This is the client/server scheme of the Jupiter system, with
+ * every participant doing the work of the server for itself, and it converges for any number of participants.
+ *
+ * The canonical edits are kept as primitive inserts and deletes, the number of kept edits is bounded per resource.
+ *
+ * Once the local content is known to be the content of a revision (nothing in flight or buffered), the canonical
+ * edits are also applied to a {@link LiveDocument} of the content at the last revision. Outgoing edits carry the
+ * fingerprint of it as the hash of their base revision, and incoming edits whose base hash doesn't match the
+ * content of their base revision here are rejected, so that diverged contents are detected and resynced.
+ * A participant that joins gets the content at the last revision, without the local edits in flight or buffered,
+ * which it receives as edits later on, together with the last canonical edits, against which it transforms
+ * concurrent edits that were made before it joined.
+ *
+ * Revisions are counted within an epoch of the server, which starts anew when the server restarts or when all
+ * participants left the resource. Edits of a new epoch reset the revision state of the resource.
+ *
+ * @author Martin Lippert
+ */
+public class LiveEditTransformer {
+
+	private static final int MAX_HISTORY = Integer.getInteger("flux-liveedit-history-size", 1024);
+
+	private final String localID;
+	private final Map<String, DocumentState> documents;
+
+	public LiveEditTransformer(String localID) {
+		this.localID = localID;
+		this.documents = new HashMap<String, DocumentState>();
+	}
+
+	/**
+	 * Records an edit that was made (and applied) locally.
+	 *
+	 * @return the operations to send now, or <code>null</code> if they got buffered until the batch in flight comes back
+	 */
+	public synchronized Outgoing localEdit(String liveEditID, int offset, int removedCharCount, String addedCharacters) {
+		DocumentState document = getDocument(liveEditID);
+		document.buffer.addAll(LiveEditOperation.replace(offset, removedCharCount, addedCharacters));
+		return nextOutgoing(document);
+	}
+
+	/**
+	 * Turns an edit that came back from the server into its canonical form, records it and transforms it against
+	 * the local edits that are still in flight or buffered.
+	 *
+	 * @param revision the revision the server assigned to the edit
+	 * @param baseRevision the revision the edit was made on, or <code>-1</code> if the sender didn't know it
+	 * @param baseHash the hash of the content of the sender at the base revision, or <code>null</code> if the sender didn't know it
+	 * @return the operations to apply locally, in order (none if the edit is the batch in flight of this participant),
+	 * or <code>null</code> if the edit is based on a revision that isn't kept anymore or on a different content, and
+	 * a resync is needed
+	 */
+	public synchronized List<LiveEditOperation> remoteEdit(String liveEditID, String origin, long sequence, long revision, long baseRevision,
+			String baseHash, List<LiveEditOperation> operations) {
+		DocumentState document = getDocument(liveEditID);
+		if (document.revision >= 0 && revision <= document.revision) {
+			if (localID.equals(origin) && document.inFlight != null && document.inFlightSequence == sequence) {
+				// the batch in flight is part of content taken over from another participant
+				document.inFlight = null;
+			}
+			return new ArrayList<LiveEditOperation>(0);
+		}
+
+		if (document.revision >= 0 && baseRevision >= 0 && baseHash != null) {
+			String hash = document.getHash(baseRevision);
+			if (hash != null && !hash.equals(baseHash)) {
+				// the sender had a different content at the base revision, the contents diverged
+				return null;
+			}
+		}
+
+		if (document.revision >= 0 && baseRevision >= 0 && baseRevision < revision - 1) {
+			if (baseRevision < document.firstRevision - 1) {
+				return null;
+			}
+			for (HistoryEntry entry : document.getHistorySince(baseRevision)) {
+				if (!entry.origin.equals(origin)) {
+					operations = transform(operations, entry.operations, false).get(0);
+				}
+			}
+		}
+
+		document.record(origin, sequence, revision, operations);
+
+		if (localID.equals(origin)) {
+			if (document.inFlight != null && document.inFlightSequence == sequence) {
+				document.inFlight = null;
+			}
+			return new ArrayList<LiveEditOperation>(0);
+		}
+
+		if (document.inFlight != null) {
+			List<List<LiveEditOperation>> transformed = transform(document.inFlight, operations, false);
+			document.inFlight = transformed.get(0);
+			operations = transformed.get(1);
+		}
+		if (!document.buffer.isEmpty()) {
+			List<List<LiveEditOperation>> transformed = transform(document.buffer, operations, false);
+			document.buffer = new ArrayList<LiveEditOperation>(transformed.get(0));
+			operations = transformed.get(1);
+		}
+		return operations;
+	}
+
+	/**
+	 * @return the buffered operations to send now that the batch in flight came back, or <code>null</code>
+	 */
+	public synchronized Outgoing nextOutgoing(String liveEditID) {
+		DocumentState document = documents.get(liveEditID);
+		return document != null ? nextOutgoing(document) : null;
+	}
+
+	/**
+	 * @return the canonical edits from the first to the last revision (both inclusive), or <code>null</code>
+	 * if they aren't all kept anymore
+	 */
+	public synchronized List<HistoryEntry> getHistory(String liveEditID, long fromRevision, long toRevision) {
+		DocumentState document = documents.get(liveEditID);
+		if (document == null || document.history.isEmpty() || document.history.getFirst().revision > fromRevision
+				|| document.revision < toRevision) {
+			return null;
+		}
+
+		List<HistoryEntry> result = new ArrayList<HistoryEntry>();
+		for (HistoryEntry entry : document.history) {
+			if (entry.revision >= fromRevision && entry.revision <= toRevision) {
+				result.add(entry);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the last canonical edits up to the current revision, at most the given number
+	 */
+	public synchronized List<HistoryEntry> getRecentHistory(String liveEditID, int count) {
+		DocumentState document = documents.get(liveEditID);
+		if (document == null) {
+			return new ArrayList<HistoryEntry>(0);
+		}
+		return document.getHistorySince(document.revision - count);
+	}
+
+	/**
+	 * @return the revision the local content is based on, or <code>-1</code> if it isn't known
+	 */
+	public synchronized long getRevision(String liveEditID) {
+		DocumentState document = documents.get(liveEditID);
+		return document != null ? document.revision : -1;
+	}
+
+	/**
+	 * takes the given content as the content at the current revision, if it isn't known yet and nothing is in flight
+	 * or buffered (in which case the local content is the content at the revision). The callers pass the local content
+	 * while no incoming edits are being applied.
+	 */
+	public synchronized void acknowledge(String liveEditID, LiveDocument content) {
+		DocumentState document = documents.get(liveEditID);
+		if (document != null && document.acknowledged == null && document.revision >= 0 && document.inFlight == null
+				&& document.buffer.isEmpty()) {
+			document.acknowledged = content.snapshot();
+		}
+	}
+
+	/**
+	 * @return a snapshot of the content at the current revision, or <code>null</code> if it isn't known
+	 */
+	public synchronized LiveDocument getAcknowledgedContent(String liveEditID) {
+		DocumentState document = documents.get(liveEditID);
+		return document != null && document.acknowledged != null ? document.acknowledged.snapshot() : null;
+	}
+
+	/**
+	 * @return whether local edits are in flight or buffered, which the local content contains already
+	 */
+	public synchronized boolean hasPendingEdits(String liveEditID) {
+		DocumentState document = documents.get(liveEditID);
+		return document != null && (document.inFlight != null || !document.buffer.isEmpty());
+	}
+
+	/**
+	 * @return the epoch the revisions of the resource are counted in, or <code>null</code> if it isn't known
+	 */
+	public synchronized String getEpoch(String liveEditID) {
+		DocumentState document = documents.get(liveEditID);
+		return document != null ? document.epoch : null;
+	}
+
+	/**
+	 * Takes note of the epoch of an incoming edit. If it differs from the known one, the server counts the revisions
+	 * anew and the revision state gets reset, local edits in flight are buffered again to be sent in the new epoch.
+	 *
+	 * @return <code>true</code> if the epoch changed
+	 */
+	public synchronized boolean startEpoch(String liveEditID, String epoch) {
+		if (epoch == null) {
+			return false;
+		}
+
+		DocumentState document = getDocument(liveEditID);
+		if (document.epoch == null || document.epoch.equals(epoch)) {
+			document.epoch = epoch;
+			return false;
+		}
+
+		document.epoch = epoch;
+		document.revision = -1;
+		document.history.clear();
+		document.acknowledged = null;
+		if (document.inFlight != null) {
+			document.buffer.addAll(0, document.inFlight);
+			document.inFlight = null;
+		}
+		return true;
+	}
+
+	/**
+	 * takes the given content of another participant as the local content at the given revision, if the revision
+	 * of the resource isn't known yet
+	 *
+	 * @param history the last canonical edits up to the revision, in order, or <code>null</code>
+	 */
+	public synchronized void startAt(String liveEditID, String epoch, long revision, String content, List<HistoryEntry> history) {
+		DocumentState document = getDocument(liveEditID);
+		if (document.revision < 0 && revision >= 0) {
+			document.epoch = epoch;
+			document.revision = revision;
+			document.firstRevision = revision + 1;
+			if (content != null && document.inFlight == null && document.buffer.isEmpty()) {
+				document.acknowledged = new LiveDocument(content);
+			}
+
+			if (history != null && !history.isEmpty() && history.get(history.size() - 1).revision == revision
+					&& history.get(history.size() - 1).revision - history.get(0).revision == history.size() - 1) {
+				document.history.addAll(history);
+				while (document.history.size() > MAX_HISTORY) {
+					document.history.removeFirst();
+				}
+				document.firstRevision = document.history.getFirst().revision;
+			}
+		}
+	}
+
+	/**
+	 * forgets the canonical edits of the resource, the next incoming edit is taken as it is, local edits in flight
+	 * or buffered are kept
+	 */
+	public synchronized void reset(String liveEditID) {
+		DocumentState document = documents.get(liveEditID);
+		if (document != null) {
+			document.revision = -1;
+			document.history.clear();
+			document.acknowledged = null;
+		}
+	}
+
+	/**
+	 * forgets everything about the resource, e.g. when it isn't live edited here anymore
+	 */
+	public synchronized void remove(String liveEditID) {
+		documents.remove(liveEditID);
+	}
+
+	/**
+	 * forgets everything about all resources, e.g. when the connection to the server got lost
+	 */
+	public synchronized void clear() {
+		documents.clear();
+	}
+
+	/**
+	 * Transforms two concurrent operation sequences against each other.
+	 *
+	 * @param winsTie whether the first sequence goes first if both insert at the same offset
+	 * @return the first sequence transformed to apply after the second one, and the second sequence transformed
+	 * to apply after the first one
+	 */
+	public static List<List<LiveEditOperation>> transform(List<LiveEditOperation> operations, List<LiveEditOperation> applied, boolean winsTie) {
+		List<List<LiveEditOperation>> result = new ArrayList<List<LiveEditOperation>>(2);
+		if (operations.isEmpty() || applied.isEmpty()) {
+			result.add(operations);
+			result.add(applied);
+		}
+		else if (operations.size() == 1 && applied.size() == 1) {
+			result.add(operations.get(0).transform(applied.get(0), winsTie));
+			result.add(applied.get(0).transform(operations.get(0), !winsTie));
+		}
+		else {
+			// every operation against the applied sequence, which is transformed to apply after that operation in turn
+			List<LiveEditOperation> transformedOperations = new ArrayList<LiveEditOperation>();
+			List<LiveEditOperation> transformedApplied = applied;
+			for (LiveEditOperation operation : operations) {
+				List<LiveEditOperation> pieces = Collections.singletonList(operation);
+				List<LiveEditOperation> nextApplied = new ArrayList<LiveEditOperation>(transformedApplied.size());
+				for (LiveEditOperation appliedOperation : transformedApplied) {
+					List<List<LiveEditOperation>> transformed = transform(pieces, Collections.singletonList(appliedOperation), winsTie);
+					pieces = transformed.get(0);
+					nextApplied.addAll(transformed.get(1));
+				}
+				transformedOperations.addAll(pieces);
+				transformedApplied = nextApplied;
+			}
+			result.add(transformedOperations);
+			result.add(transformedApplied);
+		}
+		return result;
+	}
+
+	private Outgoing nextOutgoing(DocumentState document) {
+		if (document.inFlight != null || document.buffer.isEmpty()) {
+			return null;
+		}
+		if (document.revision < 0) {
+			// the revision the local content is based on isn't known yet, an empty batch comes back with it
+			document.inFlight = Collections.emptyList();
+		}
+		else {
+			document.inFlight = document.buffer;
+			document.buffer = new ArrayList<LiveEditOperation>();
+		}
+		document.inFlightSequence = ++document.sequence;
+		return new Outgoing(document.inFlightSequence, document.revision, document.getHash(document.revision), document.inFlight);
+	}
+
+	private DocumentState getDocument(String liveEditID) {
+		DocumentState document = documents.get(liveEditID);
+		if (document == null) {
+			document = new DocumentState();
+			documents.put(liveEditID, document);
+		}
+		return document;
+	}
+
+	/**
+	 * A batch of local operations to send, made on the given base revision
+	 */
+	public static class Outgoing {
+
+		private final long sequence;
+		private final long baseRevision;
+		private final String baseHash;
+		private final List<LiveEditOperation> operations;
+
+		public Outgoing(long sequence, long baseRevision, String baseHash, List<LiveEditOperation> operations) {
+			this.sequence = sequence;
+			this.baseRevision = baseRevision;
+			this.baseHash = baseHash;
+			this.operations = operations;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public long getBaseRevision() {
+			return baseRevision;
+		}
+
+		/**
+		 * @return the hash of the content at the base revision, or <code>null</code> if it isn't known
+		 */
+		public String getBaseHash() {
+			return baseHash;
+		}
+
+		public List<LiveEditOperation> getOperations() {
+			return operations;
+		}
+
+	}
+
+	/**
+	 * The canonical form of an edit
+	 */
+	public static class HistoryEntry {
+
+		private final String origin;
+		private final long sequence;
+		private final long revision;
+		private final String hash;
+		private final List<LiveEditOperation> operations;
+
+		public HistoryEntry(String origin, long sequence, long revision, String hash, List<LiveEditOperation> operations) {
+			this.origin = origin;
+			this.sequence = sequence;
+			this.revision = revision;
+			this.hash = hash;
+			this.operations = operations;
+		}
+
+		public String getOrigin() {
+			return origin;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public long getRevision() {
+			return revision;
+		}
+
+		/**
+		 * @return the hash of the content after the edit, or <code>null</code> if it isn't known
+		 */
+		public String getHash() {
+			return hash;
+		}
+
+		public List<LiveEditOperation> getOperations() {
+			return operations;
+		}
+
+	}
+
+	private static class DocumentState {
+
+		private final Deque<HistoryEntry> history = new ArrayDeque<HistoryEntry>();
+		private String epoch;
+		private long revision = -1;
+		private long firstRevision;
+
+		private long sequence;
+		private List<LiveEditOperation> inFlight;
+		private long inFlightSequence;
+		private List<LiveEditOperation> buffer = new ArrayList<LiveEditOperation>();
+
+		/**
+		 * the content at the current revision, <code>null</code> if it isn't known
+		 */
+		private LiveDocument acknowledged;
+
+		/**
+		 * @return the kept entries after the given revision, in order
+		 */
+		public List<HistoryEntry> getHistorySince(long revision) {
+			List<HistoryEntry> result = new ArrayList<HistoryEntry>();
+			Iterator<HistoryEntry> iterator = history.descendingIterator();
+			while (iterator.hasNext()) {
+				HistoryEntry entry = iterator.next();
+				if (entry.revision <= revision) {
+					break;
+				}
+				result.add(entry);
+			}
+			Collections.reverse(result);
+			return result;
+		}
+
+		/**
+		 * @return the hash of the content at the given revision, or <code>null</code> if it isn't known
+		 */
+		public String getHash(long revision) {
+			if (revision == this.revision) {
+				return acknowledged != null ? ContentFingerprint.toHex(acknowledged.getFingerprint()) : null;
+			}
+
+			Iterator<HistoryEntry> iterator = history.descendingIterator();
+			while (iterator.hasNext()) {
+				HistoryEntry entry = iterator.next();
+				if (entry.revision <= revision) {
+					return entry.revision == revision ? entry.hash : null;
+				}
+			}
+			return null;
+		}
+
+		public void record(String origin, long sequence, long revision, List<LiveEditOperation> operations) {
+			if (this.revision < 0) {
+				firstRevision = revision;
+			}
+			this.revision = revision;
+
+			String hash = null;
+			if (acknowledged != null) {
+				try {
+					for (LiveEditOperation operation : operations) {
+						acknowledged.replace(operation.getOffset(), operation.getRemovedCharCount(), operation.getAddedCharacters());
+					}
+					hash = ContentFingerprint.toHex(acknowledged.getFingerprint());
+				}
+				catch (IndexOutOfBoundsException e) {
+					// the edit doesn't fit the content, which shows up as a different hash at the other participants
+					acknowledged = null;
+				}
+			}
+
+			HistoryEntry entry = new HistoryEntry(origin, sequence, revision, hash, operations);
+			history.addLast(entry);
+			if (history.size() > MAX_HISTORY) {
+				history.removeFirst();
+				firstRevision = history.getFirst().revision;
+			}
+		}
+
+	}
+
+}
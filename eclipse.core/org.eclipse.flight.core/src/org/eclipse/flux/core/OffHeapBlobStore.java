@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores larger, long-lived contents (cached resource versions, pending live edit contents) outside of the
+ * Java heap in direct byte buffers, so that the heap only carries small {@link Blob} handles. Contents are
+ * kept UTF-8 encoded and decoded again on access.
+ *
+ * Blobs are reference counted: a blob is created with one reference, every additional holder has to
+ * {@link Blob#retain()} it and every holder has to {@link Blob#release()} it once it is done. The memory
+ * of a blob is given back to the budget of the store when the last reference is released. The store
+ * has a fixed capacity, storing a content that doesn't fit anymore fails and the caller has to keep the
+ * content on the heap instead.
+ *
+ * @author Martin Lippert
+ */
+public class OffHeapBlobStore {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long DEFAULT_CAPACITY = Long.getLong("flux-offheap-size", 64L * 1024 * 1024);
+
+	private final long capacity;
+	private final AtomicLong used;
+
+	public OffHeapBlobStore() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public OffHeapBlobStore(long capacity) {
+		this.capacity = capacity;
+		this.used = new AtomicLong();
+	}
+
+	/**
+	 * @return a blob with one reference that holds the given content, or <code>null</code> if the content
+	 * doesn't fit into the remaining capacity of the store
+	 */
+	public Blob store(String content) {
+		byte[] bytes = content.getBytes(UTF8);
+
+		long current;
+		do {
+			current = used.get();
+			if (current + bytes.length > capacity) {
+				return null;
+			}
+		}
+		while (!used.compareAndSet(current, current + bytes.length));
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+		buffer.put(bytes);
+		buffer.flip();
+		return new Blob(buffer, content.length());
+	}
+
+	public long getCapacity() {
+		return capacity;
+	}
+
+	public long getUsed() {
+		return used.get();
+	}
+
+	public class Blob {
+
+		private volatile ByteBuffer buffer;
+		private final int size;
+		private final int length;
+		private final AtomicInteger references;
+
+		private Blob(ByteBuffer buffer, int length) {
+			this.buffer = buffer;
+			this.size = buffer.remaining();
+			this.length = length;
+			this.references = new AtomicInteger(1);
+		}
+
+		/**
+		 * @return the content of the blob, decoded into a new string on the heap
+		 */
+		public String getContent() {
+			ByteBuffer buffer = this.buffer;
+			if (buffer == null) {
+				throw new IllegalStateException("blob already released");
+			}
+
+			byte[] bytes = new byte[size];
+			buffer.duplicate().get(bytes);
+			return new String(bytes, UTF8);
+		}
+
+		/**
+		 * @return the number of off-heap bytes that this blob occupies
+		 */
+		public int getSize() {
+			return size;
+		}
+
+		/**
+		 * @return the number of characters of the content
+		 */
+		public int getLength() {
+			return length;
+		}
+
+		public Blob retain() {
+			int count;
+			do {
+				count = references.get();
+				if (count <= 0) {
+					throw new IllegalStateException("blob already released");
+				}
+			}
+			while (!references.compareAndSet(count, count + 1));
+			return this;
+		}
+
+		public void release() {
+			if (references.decrementAndGet() == 0) {
+				// the direct buffer itself is freed by the garbage collector once the handle is gone
+				this.buffer = null;
+				used.addAndGet(-size);
+			}
+		}
+
+	}
+
+}
@@ -14,22 +14,29 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
-import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IMarker;
-import org.eclipse.core.resources.IMarkerDelta;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceDelta;
-import org.eclipse.core.resources.IResourceVisitor;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.flux.core.internal.ContentDelta;
+import org.eclipse.flux.core.internal.RemoteChangeLedger;
+import org.eclipse.flux.core.internal.WorkspaceWriteBatcher;
+import org.eclipse.flux.core.internal.WorkspaceWriteBatcher.ResourceWrite;
 import org.eclipse.jdt.core.IClassFile;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.core.IType;
@@ -48,16 +55,30 @@ public class Repository {
 	private IMessagingConnector messagingConnector;
 
 	private ConcurrentMap<String, ConnectedProject> syncedProjects;
+	private ConcurrentMap<String, ConnectProjectJob> connectingProjects;
 	private Collection<IRepositoryListener> repositoryListeners;
+	private WorkspaceWriteBatcher writeBatcher;
+	private RemoteChangeLedger remoteChangeLedger;
+	private BlobCache contentCache;
 	
 	private static int GET_PROJECT_CALLBACK = "Repository - getProjectCallback".hashCode();
 	private static int GET_RESOURCE_CALLBACK = "Repository - getResourceCallback".hashCode();
 
+	private static final int PROJECT_PAGE_SIZE = 1000;
+
 	public Repository(IMessagingConnector messagingConnector, String user) {
+		this(messagingConnector, user, new BlobCache());
+	}
+
+	public Repository(IMessagingConnector messagingConnector, String user, BlobCache contentCache) {
 		this.username = user;
 		this.messagingConnector = messagingConnector;
 
 		this.syncedProjects = new ConcurrentHashMap<String, ConnectedProject>();
+		this.connectingProjects = new ConcurrentHashMap<String, ConnectProjectJob>();
+		this.writeBatcher = new WorkspaceWriteBatcher();
+		this.remoteChangeLedger = new RemoteChangeLedger();
+		this.contentCache = contentCache;
 		this.repositoryListeners = new ConcurrentLinkedDeque<>();
 		
 		this.messagingConnector.addConnectionListener(new IConnectionListener() {
@@ -169,6 +190,13 @@ public class Repository {
 		return messagingConnector.isConnected();
 	}
 
+	/**
+	 * @return the cache of recently synced resource versions, keyed by content hash
+	 */
+	public BlobCache getContentCache() {
+		return contentCache;
+	}
+	
 	public ConnectedProject getProject(IProject project) {
 		return getProject(project.getName());
 	}
@@ -185,23 +213,116 @@ public class Repository {
 		return this.syncedProjects.containsKey(project);
 	}
 
-	public void addProject(IProject project) {
+	/**
+	 * @return <code>true</code> while the project gets connected in the background (see {@link #connectProject(IProject)})
+	 */
+	public boolean isConnecting(IProject project) {
+		return this.connectingProjects.containsKey(project.getName());
+	}
+
+	/**
+	 * Connects the project in a background job. Opening the project and hashing its resources happens
+	 * in the job, which reports its progress and can be canceled.
+	 *
+	 * @return the job that connects the project, or <code>null</code> if the project is connected already
+	 */
+	public Job connectProject(IProject project) {
 		String projectName = project.getName();
-		if (!this.syncedProjects.containsKey(projectName)) {
-			this.syncedProjects.put(projectName, new ConnectedProject(project));
-			notifyProjectConnected(project);
+		ConnectProjectJob job = new ConnectProjectJob(project);
 
-			if (isConnected()) {
-				sendProjectConnectedMessage(projectName);
-				syncConnectedProject(projectName);
+		synchronized (this.connectingProjects) {
+			if (this.syncedProjects.containsKey(projectName)) {
+				return null;
+			}
+
+			ConnectProjectJob existingJob = this.connectingProjects.putIfAbsent(projectName, job);
+			if (existingJob != null) {
+				return existingJob;
+			}
+		}
+
+		notifyProjectConnecting(project);
+		job.schedule();
+		return job;
+	}
+
+	/**
+	 * Connects the project right away, in the calling thread
+	 */
+	public void addProject(IProject project) {
+		if (!this.syncedProjects.containsKey(project.getName())) {
+			addProject(new ConnectedProject(project));
+		}
+	}
+
+	protected void addProject(ConnectedProject connectedProject) {
+		synchronized (this.connectingProjects) {
+			if (this.syncedProjects.containsKey(connectedProject.getName())) {
+				return;
 			}
+			registerProject(connectedProject);
+		}
+		projectAdded(connectedProject.getProject());
+	}
+
+	/**
+	 * registers the project connected by the given job, unless the job got canceled or the project got
+	 * removed in the meantime (checked together with the registration, see {@link #removeProject(IProject)})
+	 *
+	 * @return <code>true</code> if the project got registered
+	 */
+	protected boolean addProject(ConnectProjectJob job, ConnectedProject connectedProject, IProgressMonitor monitor) {
+		synchronized (this.connectingProjects) {
+			if (monitor.isCanceled() || this.connectingProjects.get(connectedProject.getName()) != job
+					|| this.syncedProjects.containsKey(connectedProject.getName())) {
+				return false;
+			}
+			registerProject(connectedProject);
+		}
+		projectAdded(connectedProject.getProject());
+		return true;
+	}
+
+	/**
+	 * opens the journal of the project and makes it available, has to be called while holding the lock on
+	 * <code>connectingProjects</code> and only if no other instance is registered for the project. That way,
+	 * only the registered instance writes to the journal file of the project.
+	 */
+	private void registerProject(ConnectedProject connectedProject) {
+		connectedProject.openJournal();
+		this.syncedProjects.put(connectedProject.getName(), connectedProject);
+	}
+
+	protected void projectAdded(IProject project) {
+		notifyProjectConnected(project);
+
+		if (isConnected()) {
+			sendProjectConnectedMessage(project.getName());
+			syncConnectedProject(project.getName());
 		}
 	}
 
 	public void removeProject(IProject project) {
 		String projectName = project.getName();
-		if (this.syncedProjects.containsKey(projectName)) {
-			this.syncedProjects.remove(projectName);
+
+		ConnectProjectJob connectJob;
+		ConnectedProject connectedProject;
+		synchronized (this.connectingProjects) {
+			connectJob = this.connectingProjects.remove(projectName);
+			connectedProject = this.syncedProjects.remove(projectName);
+			if (connectedProject != null) {
+				connectedProject.closeJournal();
+			}
+		}
+
+		if (connectJob != null) {
+			connectJob.cancel();
+			if (connectedProject == null) {
+				notifyProjectDisonnected(project);
+			}
+		}
+
+		if (connectedProject != null) {
 			notifyProjectDisonnected(project);
 
 			if (isConnected()) {
@@ -224,6 +345,13 @@ public class Repository {
 			message.put("project", projectName);
 			message.put("includeDeleted", true);
 			message.put("callback_id", GET_PROJECT_CALLBACK);
+
+			// peers whose journal we know only need to send the changes since the last sync
+			ConnectedProject connectedProject = this.syncedProjects.get(projectName);
+			if (connectedProject != null) {
+				message.put("lastSeenSequences", new JSONObject(connectedProject.getPeerSequences()));
+			}
+
 			messagingConnector.send("getProjectRequest", message);
 		} catch (JSONException e) {
 			e.printStackTrace();
@@ -268,69 +396,93 @@ public class Repository {
 		}
 	}
 
+	/**
+	 * Sends the listing of the project in pages of at most <code>pageSize</code> resources, one
+	 * <code>getProjectResponse</code> per page. Every page but the last one has <code>hasMore</code> set and carries
+	 * a <code>continuationToken</code>, which can be sent with a new request to continue the listing after that page.
+	 * The last page carries the ID and the current sequence of the journal of the project.
+	 *
+	 * If <code>lastSeenSequences</code> contains a sequence of the journal of the project, only the resources
+	 * changed or deleted since then are sent. If the journal doesn't go back that far, the full listing is sent.
+	 * The full listing comes from the index of the {@link ConnectedProject}, sorted by path. With
+	 * <code>changedSince</code> (a time of the local clock of this repository), only the resources changed
+	 * after that time are listed, together with the deletions since then (as far as the journal still keeps
+	 * them). The local change time is used for that, not the timestamp of the resource, which is the one of
+	 * the peer for downloaded resources.
+	 */
 	public void getProject(JSONObject request) {
 		try {
 			final int callbackID = request.getInt("callback_id");
 			final String sender = request.getString("requestSenderID");
 			final String projectName = request.getString("project");
 			final String username = request.getString("username");
+			final int pageSize = Math.max(1, request.optInt("pageSize", PROJECT_PAGE_SIZE));
+			final String continuationToken = request.optString("continuationToken", null);
+			final long changedSince = request.has("changedSince") ? request.getLong("changedSince") : Long.MIN_VALUE;
+			final boolean includeDeleted = request.optBoolean("includeDeleted");
+			final JSONObject lastSeenSequences = request.optJSONObject("lastSeenSequences");
 
-			final ConnectedProject connectedProject = this.syncedProjects.get(projectName);
+			ConnectedProject connectedProject = this.syncedProjects.get(projectName);
 			if (this.username.equals(username) && connectedProject != null) {
 
-				final JSONArray files = new JSONArray();
+				ChangeJournal journal = connectedProject.getJournal();
+				String journalID = journal.getJournalID();
+				long sequence = journal.getSequence();
 
-				IProject project = connectedProject.getProject();
-
-				try {
-					project.accept(new IResourceVisitor() {
-						@Override
-						public boolean visit(IResource resource) throws CoreException {
-							JSONObject projectResource = new JSONObject();
-							String path = resource.getProjectRelativePath().toString();
-							try {
-								projectResource.put("path", path);
-								projectResource.put("timestamp", connectedProject.getTimestamp(path));
-								projectResource.put("hash", connectedProject.getHash(path));
-
-								if (resource instanceof IFile) {
-									projectResource.put("type", "file");
-								} else if (resource instanceof IFolder) {
-									projectResource.put("type", "folder");
-								}
+				boolean incremental = lastSeenSequences != null && lastSeenSequences.has(journalID);
+				List<ChangeJournal.Change> changes = null;
+				if (incremental) {
+					// the continuation token of an incremental listing is the sequence of the last change sent
+					long lastSeenSequence = continuationToken != null ? Long.parseLong(continuationToken) : lastSeenSequences.getLong(journalID);
+					changes = journal.getChangesSince(lastSeenSequence);
+				}
 
-								files.put(projectResource);
-							} catch (JSONException e) {
-								e.printStackTrace();
+				ProjectPageSender pageSender = new ProjectPageSender(callbackID, sender, projectName, pageSize);
+				if (changes != null) {
+					for (ChangeJournal.Change change : changes) {
+						String token = Long.toString(change.getSequence());
+						if (change.isDeleted()) {
+							pageSender.addDeleted(token, change.getPath(), change.getTimestamp());
+						}
+						else {
+							pageSender.add(token, change.getPath(), change.getTimestamp(), change.getHash(), change.getType());
+						}
+					}
+				}
+				else {
+					String afterPath = incremental ? null : continuationToken;
+					for (ConnectedProject.ResourceInfo resource : connectedProject.getResources(afterPath)) {
+						if (resource.getChangeTime() > changedSince) {
+							pageSender.add(resource.getPath(), resource.getPath(), resource.getTimestamp(), resource.getHash(), resource.getType());
+						}
+					}
+					// deletions are gone from the index, a listing of the recent changes has to include them anyway
+					if (includeDeleted || request.has("changedSince")) {
+						for (ChangeJournal.Change deletion : journal.getDeletions()) {
+							if (deletion.getTimestamp() > changedSince) {
+								pageSender.addDeleted(null, deletion.getPath(), deletion.getTimestamp());
 							}
-							return true;
 						}
-					}, IResource.DEPTH_INFINITE, IContainer.EXCLUDE_DERIVED);
-				} catch (Exception e) {
-					e.printStackTrace();
+					}
 				}
-				
-				JSONObject message = new JSONObject();
-				message.put("callback_id", callbackID);
-				message.put("requestSenderID", sender);
-				message.put("username", this.username);
-				message.put("project", projectName);
-				message.put("username", this.username);
-				message.put("files", files);
 
-				messagingConnector.send("getProjectResponse", message);
+				pageSender.finish(journalID, sequence);
 			}
 		} catch (JSONException e) {
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * handles one page of a project listing (see {@link #getProject(JSONObject)}), each page is processed as it arrives
+	 */
 	public void getProjectResponse(JSONObject response) {
 		try {
 			final String username = response.getString("username");
 			final String projectName = response.getString("project");
 			final JSONArray files = response.getJSONArray("files");
 			final JSONArray deleted = response.optJSONArray("deleted");
+			final boolean hasMore = response.optBoolean("hasMore", false);
 
 			ConnectedProject connectedProject = this.syncedProjects.get(projectName);
 			if (this.username.equals(username) && connectedProject != null) {
@@ -351,15 +503,7 @@ public class Repository {
 							&& !connectedProject.getHash(resourcePath).equals(hash) && connectedProject.getTimestamp(resourcePath) < timestamp;
 
 					if (newFile || updatedFile) {
-						JSONObject message = new JSONObject();
-						message.put("callback_id", GET_RESOURCE_CALLBACK);
-						message.put("project", projectName);
-						message.put("username", this.username);
-						message.put("resource", resourcePath);
-						message.put("timestamp", timestamp);
-						message.put("hash", hash);
-
-						messagingConnector.send("getResourceRequest", message);
+						requestResource(projectName, resourcePath, timestamp, hash, updatedFile ? connectedProject.getHash(resourcePath) : null);
 					}
 					
 					if (updatedFileTimestamp) {
@@ -373,14 +517,7 @@ public class Repository {
 							&& !connectedProject.getHash(resourcePath).equals(hash) && connectedProject.getTimestamp(resourcePath) < timestamp;
 
 					if (newFolder) {
-						IProject project = connectedProject.getProject();
-						IFolder folder = project.getFolder(resourcePath);
-
-						connectedProject.setHash(resourcePath, hash);
-						connectedProject.setTimestamp(resourcePath, timestamp);
-
-						folder.create(true, true, null);
-						folder.setLocalTimeStamp(timestamp);
+						writeFolder(connectedProject, resourcePath, timestamp, hash);
 					}
 					else if (updatedFolder) {
 					}
@@ -400,11 +537,16 @@ public class Repository {
 							long localTimestamp = connectedProject.getTimestamp(resourcePath);
 
 							if (localTimestamp < deletedTimestamp) {
-								resource.delete(true, null);
+								writeDeletion(project, resourcePath);
 							}
 						}
 					}
 				}
+
+				// the next sync with this peer only needs the changes after this listing
+				if (!hasMore && response.has("journal")) {
+					connectedProject.setPeerSequence(response.getString("journal"), response.getLong("sequence"));
+				}
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -444,17 +586,45 @@ public class Repository {
 					}
 
 					IFile file = (IFile) resource;
+					String hash = connectedProject.getHash(resourcePath);
+					String content = null;
 
-					ByteArrayOutputStream array = new ByteArrayOutputStream();
-					if (!file.isSynchronized(IResource.DEPTH_ZERO)) {
+					// the hash is only known to match the content as long as the file is in sync with the file system
+					boolean synchronizedFile = file.isSynchronized(IResource.DEPTH_ZERO);
+					if (synchronizedFile) {
+						content = contentCache.get(hash);
+					}
+					else {
 						file.refreshLocal(IResource.DEPTH_ZERO, null);
 					}
 					
-					IOUtils.copy(file.getContents(), array);
-
-					String content = new String(array.toByteArray(), file.getCharset());
+					if (content == null) {
+						ByteArrayOutputStream array = new ByteArrayOutputStream();
+						IOUtils.copy(file.getContents(), array);
+	
+						byte[] bytes = array.toByteArray();
+						content = new String(bytes, file.getCharset());
+
+						// the hash gets updated before a remote change is written to the file, so the file may
+						// still have the old content, which must not end up in the cache under the new hash
+						String contentHash = DigestUtils.shaHex(bytes);
+						if (contentHash.equals(hash)) {
+							contentCache.put(hash, content);
+						}
+						else {
+							hash = contentHash;
+							message.put("hash", hash);
+						}
+					}
 
-					message.put("content", content);
+					JSONArray delta = computeContentDelta(request.optString("baseHash", null), hash, content);
+					if (delta != null) {
+						message.put("baseHash", request.getString("baseHash"));
+						message.put("delta", delta);
+					}
+					else {
+						message.put("content", content);
+					}
 					message.put("type", "file");
 				} else if (resource instanceof IFolder) {
 					message.put("type", "folder");
@@ -531,15 +701,7 @@ public class Repository {
 					long localTimestamp = connectedProject.getTimestamp(resourcePath);
 
 					if (localHash != null && !localHash.equals(updateHash) && localTimestamp < updateTimestamp) {
-						JSONObject message = new JSONObject();
-						message.put("callback_id", GET_RESOURCE_CALLBACK);
-						message.put("username", this.username);
-						message.put("project", projectName);
-						message.put("resource", resourcePath);
-						message.put("timestamp", updateTimestamp);
-						message.put("hash", updateHash);
-
-						messagingConnector.send("getResourceRequest", message);
+						requestResource(projectName, resourcePath, updateTimestamp, updateHash, localHash);
 					}
 				}
 			}
@@ -565,24 +727,10 @@ public class Repository {
 				
 				if (resource == null) {
 					if ("folder".equals(type)) {
-						IFolder newFolder = project.getFolder(resourcePath);
-						
-						connectedProject.setHash(resourcePath, updateHash);
-						connectedProject.setTimestamp(resourcePath, updateTimestamp);
-
-						newFolder.create(true, true, null);
-						newFolder.setLocalTimeStamp(updateTimestamp);
+						writeFolder(connectedProject, resourcePath, updateTimestamp, updateHash);
 					}
 					else if ("file".equals(type)) {
-						JSONObject message = new JSONObject();
-						message.put("callback_id", GET_RESOURCE_CALLBACK);
-						message.put("username", this.username);
-						message.put("project", projectName);
-						message.put("resource", resourcePath);
-						message.put("timestamp", updateTimestamp);
-						message.put("hash", updateHash);
-
-						messagingConnector.send("getResourceRequest", message);
+						requestResource(projectName, resourcePath, updateTimestamp, updateHash, null);
 					}
 				}
 				else {
@@ -611,7 +759,7 @@ public class Repository {
 					long localTimestamp = connectedProject.getTimestamp(resourcePath);
 
 					if (localTimestamp < deletedTimestamp) {
-						resource.delete(true, null);
+						writeDeletion(project, resourcePath);
 					}
 				}
 			}
@@ -629,9 +777,9 @@ public class Repository {
 			final long updateTimestamp = response.getLong("timestamp");
 			final String updateHash = response.getString("hash");
 
-			ConnectedProject connectedProject = this.syncedProjects.get(projectName);
+			final ConnectedProject connectedProject = this.syncedProjects.get(projectName);
 			if (this.username.equals(username) && connectedProject != null) {
-				boolean stored = false;
+				boolean store = false;
 				
 				IProject project = connectedProject.getProject();
 				IResource resource = project.findMember(resourcePath);
@@ -641,44 +789,176 @@ public class Repository {
 						String localHash = connectedProject.getHash(resourcePath);
 						long localTimestamp = connectedProject.getTimestamp(resourcePath);
 
-						if (localHash != null && !localHash.equals(updateHash) && localTimestamp < updateTimestamp) {
-							IFile file = (IFile) resource;
-							String newResourceContent = response.getString("content");
-
-							connectedProject.setTimestamp(resourcePath, updateTimestamp);
-							connectedProject.setHash(resourcePath, updateHash);
-
-							file.setContents(new ByteArrayInputStream(newResourceContent.getBytes()), true, true, null);
-							file.setLocalTimeStamp(updateTimestamp);
-							stored = true;
-						}
+						store = localHash != null && !localHash.equals(updateHash) && localTimestamp < updateTimestamp;
 					}
 				}
 				else {
-					IFile newFile = project.getFile(resourcePath);
-					String newResourceContent = response.getString("content");
+					store = true;
+				}
+				
+				if (store) {
+					final IFile file = project.getFile(resourcePath);
+					final String newResourceContent;
+					if (response.has("delta")) {
+						newResourceContent = applyContentDelta(file, response.getString("baseHash"), response.getJSONArray("delta"), updateHash);
+						if (newResourceContent == null) {
+							// base no longer matches, fall back to the full content
+							requestResource(projectName, resourcePath, updateTimestamp, updateHash, null);
+							return;
+						}
+					}
+					else {
+						newResourceContent = response.getString("content");
+					}
+					contentCache.put(updateHash, newResourceContent);
 
-					connectedProject.setHash(resourcePath, updateHash);
-					connectedProject.setTimestamp(resourcePath, updateTimestamp);
+					// the index gets the new hash once the content is written, until then it describes the file as it is
+					writeBatcher.enqueue(project, resourcePath, new ResourceWrite() {
+						@Override
+						public void apply(IProgressMonitor monitor) throws CoreException {
+							remoteChangeLedger.record(projectName, resourcePath, updateHash);
+							try {
+								if (file.exists()) {
+									file.setContents(new ByteArrayInputStream(newResourceContent.getBytes(file.getCharset())), true, true, null);
+								}
+								else {
+									file.create(new ByteArrayInputStream(newResourceContent.getBytes(file.getCharset())), true, null);
+								}
+								file.setLocalTimeStamp(updateTimestamp);
+							} catch (CoreException e) {
+								remoteChangeLedger.forget(projectName, resourcePath, updateHash);
+								throw e;
+							}
+						}
+						@Override
+						public void applied() {
+							connectedProject.setResource(resourcePath, "file", updateTimestamp, updateHash);
+							sendResourceStoredMessage(connectedProject.getName(), resourcePath, updateTimestamp, updateHash);
+						}
+					});
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	protected void requestResource(String projectName, String resourcePath, long timestamp, String hash, String baseHash) {
+		try {
+			JSONObject message = new JSONObject();
+			message.put("callback_id", GET_RESOURCE_CALLBACK);
+			message.put("username", this.username);
+			message.put("project", projectName);
+			message.put("resource", resourcePath);
+			message.put("timestamp", timestamp);
+			message.put("hash", hash);
+			if (baseHash != null) {
+				message.put("baseHash", baseHash);
+			}
 
-					newFile.create(new ByteArrayInputStream(newResourceContent.getBytes()), true, null);
-					newFile.setLocalTimeStamp(updateTimestamp);
-					stored = true;
+			messagingConnector.send("getResourceRequest", message);
+		} catch (JSONException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * @return the delta from the base version to the given content, or <code>null</code> if the base version
+	 * isn't available anymore or the delta wouldn't be noticeably smaller than the content itself
+	 */
+	protected JSONArray computeContentDelta(String baseHash, String hash, String content) {
+		if (baseHash == null || baseHash.equals(hash)) {
+			return null;
+		}
+		
+		String baseContent = contentCache.get(baseHash);
+		if (baseContent == null) {
+			return null;
+		}
+		
+		JSONArray delta = ContentDelta.compute(baseContent, content);
+		return ContentDelta.getEncodedLength(delta) < content.length() * 3 / 4 ? delta : null;
+	}
+	
+	/**
+	 * @return the new content, or <code>null</code> if the base content isn't available or the result doesn't match the expected hash
+	 */
+	protected String applyContentDelta(IFile file, String baseHash, JSONArray delta, String expectedHash) {
+		try {
+			String baseContent = contentCache.get(baseHash);
+			if (baseContent == null && file.exists()) {
+				byte[] bytes = IOUtils.toByteArray(file.getContents());
+				if (DigestUtils.shaHex(bytes).equals(baseHash)) {
+					baseContent = new String(bytes, file.getCharset());
 				}
-				
-				if (stored) {
-					JSONObject message = new JSONObject();
-					message.put("username", this.username);
-					message.put("project", connectedProject.getName());
-					message.put("resource", resourcePath);
-					message.put("timestamp", updateTimestamp);
-					message.put("hash", updateHash);
-					messagingConnector.send("resourceStored", message);
+			}
+			
+			if (baseContent != null) {
+				String content = ContentDelta.apply(baseContent, delta);
+				if (DigestUtils.shaHex(content.getBytes(file.getCharset())).equals(expectedHash)) {
+					return content;
 				}
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
+		return null;
+	}
+	
+	protected void sendResourceStoredMessage(String projectName, String resourcePath, long timestamp, String hash) {
+		try {
+			JSONObject message = new JSONObject();
+			message.put("username", this.username);
+			message.put("project", projectName);
+			message.put("resource", resourcePath);
+			message.put("timestamp", timestamp);
+			message.put("hash", hash);
+			messagingConnector.send("resourceStored", message);
+		} catch (JSONException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	protected void writeFolder(final ConnectedProject connectedProject, final String resourcePath, final long timestamp, final String hash) {
+		final IProject project = connectedProject.getProject();
+		final IFolder folder = project.getFolder(resourcePath);
+		writeBatcher.enqueue(project, resourcePath, new ResourceWrite() {
+			@Override
+			public void apply(IProgressMonitor monitor) throws CoreException {
+				if (!folder.exists()) {
+					remoteChangeLedger.record(project.getName(), resourcePath, "0");
+					try {
+						folder.create(true, true, null);
+					} catch (CoreException e) {
+						remoteChangeLedger.forget(project.getName(), resourcePath, "0");
+						throw e;
+					}
+				}
+				folder.setLocalTimeStamp(timestamp);
+			}
+			@Override
+			public void applied() {
+				connectedProject.setResource(resourcePath, "folder", timestamp, hash);
+			}
+		});
+	}
+	
+	protected void writeDeletion(final IProject project, final String resourcePath) {
+		writeBatcher.enqueue(project, resourcePath, new ResourceWrite() {
+			@Override
+			public void apply(IProgressMonitor monitor) throws CoreException {
+				IResource resource = project.findMember(resourcePath);
+				if (resource != null && resource.exists()) {
+					remoteChangeLedger.record(project.getName(), resourcePath, RemoteChangeLedger.DELETED);
+					try {
+						resource.delete(true, null);
+					} catch (CoreException e) {
+						remoteChangeLedger.forget(project.getName(), resourcePath, RemoteChangeLedger.DELETED);
+						throw e;
+					}
+				}
+			}
+		});
 	}
 
 	public void getMetadata(JSONObject request) {
@@ -703,9 +983,9 @@ public class Repository {
 				message.put("type", "marker");
 
 				IMarker[] markers = resource.findMarkers(null, true, IResource.DEPTH_INFINITE);
-				String markerJSON = toJSON(markers);
-				JSONArray content = new JSONArray(markerJSON);
-				message.put("metadata", content);
+				JSONStreamWriter metadata = new JSONStreamWriter();
+				writeMarkers(metadata, markers);
+				message.put("metadata", metadata);
 
 				messagingConnector.send("getMetadataResponse", message);
 			}
@@ -723,14 +1003,6 @@ public class Repository {
 		}
 	}
 
-	public void metadataChanged(IResourceDelta delta) {
-		IProject project = delta.getResource().getProject();
-		IMarkerDelta[] markerDeltas = delta.getMarkerDeltas();
-		if (project != null && isConnected(project) && markerDeltas != null && markerDeltas.length > 0) {
-			sendMetadataUpdate(delta.getResource());
-		}
-	}
-
 	public void reactToResourceChange(IResourceDelta delta) {
 		IResource resource = delta.getResource();
 
@@ -751,31 +1023,49 @@ public class Repository {
 		}
 	}
 
+	/**
+	 * @return <code>true</code> if the resource got created or changed by writing a remote change, the entry is
+	 * consumed from the ledger in that case
+	 */
+	protected boolean isRemoteWrite(ConnectedProject connectedProject, String resourcePath) {
+		String writtenHash = remoteChangeLedger.consume(connectedProject.getName(), resourcePath);
+		return writtenHash != null && !RemoteChangeLedger.DELETED.equals(writtenHash);
+	}
+
 	protected void reactOnResourceAdded(IResource resource) {
 		try {
 			ConnectedProject connectedProject = this.syncedProjects.get(resource.getProject().getName());
 
 			String resourcePath = resource.getProjectRelativePath().toString();
+			
+			// written by ourselves, hash and timestamp get updated once the write is done
+			if (isRemoteWrite(connectedProject, resourcePath)) {
+				return;
+			}
+			
 			long timestamp = resource.getLocalTimeStamp();
 			String hash = "0";
 			String type = null;
 
-			connectedProject.setTimestamp(resourcePath, timestamp);
-
 			if (resource instanceof IFile) {
 				try {
 					IFile file = (IFile) resource;
-					hash = DigestUtils.shaHex(file.getContents());
+					byte[] content = IOUtils.toByteArray(file.getContents());
+					hash = DigestUtils.shaHex(content);
+					contentCache.put(hash, new String(content, file.getCharset()));
 					type = "file";
+					connectedProject.setResource(resourcePath, type, timestamp, hash);
 				} catch (IOException e) {
 					e.printStackTrace();
+					connectedProject.setResource(resourcePath, "file", timestamp, hash);
 				}
-			} else if (resource instanceof IFolder) {
-				type = "folder";
+			} else {
+				if (resource instanceof IFolder) {
+					type = "folder";
+				}
+				connectedProject.setResource(resourcePath, type, timestamp, hash);
 			}
 
-			connectedProject.setHash(resourcePath, hash);
-
 			JSONObject createdMessage = new JSONObject();
 			createdMessage.put("username", this.username);
 			createdMessage.put("project", connectedProject.getName());
@@ -806,6 +1096,12 @@ public class Repository {
 			ConnectedProject connectedProject = this.syncedProjects.get(resource.getProject().getName());
 			String resourcePath = resource.getProjectRelativePath().toString();
 			long deletedTimestamp = System.currentTimeMillis();
+			connectedProject.removeResource(resourcePath, deletedTimestamp);
+
+			if (RemoteChangeLedger.DELETED.equals(remoteChangeLedger.consume(connectedProject.getName(), resourcePath))) {
+				return;
+			}
+			
 			
 			try {
 				JSONObject message = new JSONObject();
@@ -829,15 +1125,21 @@ public class Repository {
 			ConnectedProject connectedProject = this.syncedProjects.get(file.getProject().getName());
 			String resourcePath = resource.getProjectRelativePath().toString();
 
+			// written by ourselves, no need to read and hash the content again
+			if (isRemoteWrite(connectedProject, resourcePath)) {
+				return;
+			}
+
 			try {
 
 				long changeTimestamp = file.getLocalTimeStamp();
 				if (changeTimestamp > connectedProject.getTimestamp(resourcePath)) {
-					String changeHash = DigestUtils.shaHex(file.getContents());
+					byte[] changeContent = IOUtils.toByteArray(file.getContents());
+					String changeHash = DigestUtils.shaHex(changeContent);
 					if (!changeHash.equals(connectedProject.getHash(resourcePath))) {
 
-						connectedProject.setTimestamp(resourcePath, changeTimestamp);
-						connectedProject.setHash(resourcePath, changeHash);
+						connectedProject.setResource(resourcePath, "file", changeTimestamp, changeHash);
+						contentCache.put(changeHash, new String(changeContent, file.getCharset()));
 
 						JSONObject changedMessage = new JSONObject();
 						changedMessage.put("username", this.username);
@@ -863,50 +1165,46 @@ public class Repository {
 		}
 	}
 
-	public void sendMetadataUpdate(IResource resource) {
+	/**
+	 * sends the markers of the given resources of a project as one <code>projectMetadataChanged</code> message
+	 */
+	public void sendMetadataUpdate(IProject project, Collection<IResource> resources) {
 		try {
-			String project = resource.getProject().getName();
-			String resourcePath = resource.getProjectRelativePath().toString();
+			JSONStreamWriter changedResources = new JSONStreamWriter();
+			changedResources.beginArray();
+			for (IResource resource : resources) {
+				changedResources.beginObject();
+				changedResources.key("resource").value(resource.getProjectRelativePath().toString());
+				changedResources.key("metadata");
+				writeMarkers(changedResources, resource.exists() ? resource.findMarkers(null, true, IResource.DEPTH_ZERO) : new IMarker[0]);
+				changedResources.endObject();
+			}
+			changedResources.endArray();
 
 			JSONObject message = new JSONObject();
 			message.put("username", this.username);
-			message.put("project", project);
-			message.put("resource", resourcePath);
+			message.put("project", project.getName());
 			message.put("type", "marker");
+			message.put("resources", changedResources);
 
-			IMarker[] markers = resource.findMarkers(null, true, IResource.DEPTH_INFINITE);
-			String markerJSON = toJSON(markers);
-			JSONArray content = new JSONArray(markerJSON);
-			message.put("metadata", content);
-
-			messagingConnector.send("metadataChanged", message);
+			messagingConnector.send("projectMetadataChanged", message);
 		} catch (Exception e) {
-
+			e.printStackTrace();
 		}
 	}
 
-	public String toJSON(IMarker[] markers) {
-		StringBuilder result = new StringBuilder();
-		boolean flag = false;
-		result.append("[");
+	protected void writeMarkers(JSONStreamWriter writer, IMarker[] markers) {
+		writer.beginArray();
 		for (IMarker m : markers) {
-			if (flag) {
-				result.append(",");
-			}
-
-			result.append("{");
-			result.append("\"description\":" + JSONObject.quote(m.getAttribute("message", "")));
-			result.append(",\"line\":" + m.getAttribute("lineNumber", 0));
-			result.append(",\"severity\":\"" + (m.getAttribute("severity", IMarker.SEVERITY_WARNING) == IMarker.SEVERITY_ERROR ? "error" : "warning")
-					+ "\"");
-			result.append(",\"start\":" + m.getAttribute("charStart", 0));
-			result.append(",\"end\":" + m.getAttribute("charEnd", 0));
-			result.append("}");
-
-			flag = true;
+			writer.beginObject();
+			writer.key("description").value(m.getAttribute("message", ""));
+			writer.key("line").value(m.getAttribute("lineNumber", 0));
+			writer.key("severity").value(m.getAttribute("severity", IMarker.SEVERITY_WARNING) == IMarker.SEVERITY_ERROR ? "error" : "warning");
+			writer.key("start").value(m.getAttribute("charStart", 0));
+			writer.key("end").value(m.getAttribute("charEnd", 0));
+			writer.endObject();
 		}
-		result.append("]");
-		return result.toString();
+		writer.endArray();
 	}
 	
 	public void addRepositoryListener(IRepositoryListener listener) {
@@ -917,6 +1215,12 @@ public class Repository {
 		this.repositoryListeners.remove(listener);
 	}
 	
+	protected void notifyProjectConnecting(IProject project) {
+		for (IRepositoryListener listener : this.repositoryListeners) {
+			listener.projectConnecting(project);
+		}
+	}
+
 	protected void notifyProjectConnected(IProject project) {
 		for (IRepositoryListener listener : this.repositoryListeners) {
 			listener.projectConnected(project);
@@ -929,4 +1233,156 @@ public class Repository {
 		}
 	}
 
+	/**
+	 * Writes the resources of a project listing into pages and sends each page as soon as it is full,
+	 * so that only one page of the listing is held in memory at a time.
+	 */
+	private class ProjectPageSender {
+
+		private final int callbackID;
+		private final String requestSenderID;
+		private final String projectName;
+		private final int pageSize;
+
+		private final JSONStreamWriter files;
+		private final JSONStreamWriter deleted;
+		private int count;
+		private int deletedCount;
+		private int page;
+		private String continuationToken;
+
+		public ProjectPageSender(int callbackID, String requestSenderID, String projectName, int pageSize) {
+			this.callbackID = callbackID;
+			this.requestSenderID = requestSenderID;
+			this.projectName = projectName;
+			this.pageSize = pageSize;
+			this.files = new JSONStreamWriter(Math.min(pageSize, PROJECT_PAGE_SIZE) * 128);
+			this.deleted = new JSONStreamWriter();
+			this.files.beginArray();
+			this.deleted.beginArray();
+		}
+
+		/**
+		 * @param token the position in the listing after this resource, <code>null</code> to keep the previous one
+		 */
+		public void add(String token, String path, long timestamp, String hash, String type) {
+			if (count == pageSize) {
+				send(true, null, 0);
+			}
+
+			files.beginObject();
+			files.key("path").value(path);
+			files.key("timestamp").value(timestamp);
+			files.key("hash").value(hash);
+			if (type != null) {
+				files.key("type").value(type);
+			}
+			files.endObject();
+
+			count++;
+			if (token != null) {
+				continuationToken = token;
+			}
+		}
+
+		public void addDeleted(String token, String path, long timestamp) {
+			if (count == pageSize) {
+				send(true, null, 0);
+			}
+
+			deleted.beginObject();
+			deleted.key("path").value(path);
+			deleted.key("timestamp").value(timestamp);
+			deleted.endObject();
+
+			count++;
+			deletedCount++;
+			if (token != null) {
+				continuationToken = token;
+			}
+		}
+
+		public void finish(String journalID, long sequence) {
+			send(false, journalID, sequence);
+		}
+
+		protected void send(boolean hasMore, String journalID, long sequence) {
+			files.endArray();
+			deleted.endArray();
+			try {
+				JSONObject message = new JSONObject();
+				message.put("callback_id", callbackID);
+				message.put("requestSenderID", requestSenderID);
+				message.put("username", username);
+				message.put("project", projectName);
+				message.put("page", page);
+				message.put("hasMore", hasMore);
+				if (hasMore) {
+					message.put("continuationToken", continuationToken);
+				}
+				else {
+					message.put("journal", journalID);
+					message.put("sequence", sequence);
+				}
+				message.put("files", files);
+				if (deletedCount > 0) {
+					message.put("deleted", deleted);
+				}
+
+				messagingConnector.send("getProjectResponse", message);
+			} catch (JSONException e) {
+				e.printStackTrace();
+			}
+
+			files.reset().beginArray();
+			deleted.reset().beginArray();
+			count = 0;
+			deletedCount = 0;
+			page++;
+		}
+
+	}
+
+	private class ConnectProjectJob extends Job {
+
+		private IProject project;
+
+		public ConnectProjectJob(IProject project) {
+			super("Connect " + project.getName() + " to Flux");
+			this.project = project;
+			setPriority(LONG);
+
+			// no changes to the project between hashing its resources and registering it, they would get lost
+			setRule(project);
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			try {
+				if (!project.isOpen()) {
+					project.open(monitor);
+				}
+
+				ConnectedProject connectedProject = new ConnectedProject(project, monitor);
+				if (!addProject(this, connectedProject, monitor)) {
+					return Status.CANCEL_STATUS;
+				}
+				return Status.OK_STATUS;
+			}
+			catch (OperationCanceledException e) {
+				return Status.CANCEL_STATUS;
+			}
+			catch (CoreException e) {
+				e.printStackTrace();
+				return e.getStatus();
+			}
+			finally {
+				if (connectingProjects.remove(project.getName(), this) && !syncedProjects.containsKey(project.getName())) {
+					notifyProjectDisonnected(project);
+				}
+			}
+		}
+
+	}
+
 }
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.runtime.CoreException;
+
+/**
+ * Walks each resource delta once and passes the deltas on to the subscribers. Projects that are not
+ * connected and derived resources are pruned before the walk descends into them.
+ *
+ * Subscribers register for an event type (<code>IResourceChangeEvent.POST_CHANGE</code> or
+ * <code>IResourceChangeEvent.POST_BUILD</code>) and for the kinds of deltas they are interested in:
+ * {@link #RESOURCES} for added, removed and changed resources and {@link #MARKERS} for changed markers.
+ *
+ * @author Martin Lippert
+ */
+public class ResourceDeltaDispatcher implements IResourceChangeListener {
+	
+	public static final int RESOURCES = 1;
+	public static final int MARKERS = 2;
+	
+	private Repository repository;
+	private Collection<Subscription> subscriptions;
+	
+	public ResourceDeltaDispatcher(Repository repository) {
+		this.repository = repository;
+		this.subscriptions = new CopyOnWriteArrayList<>();
+	}
+	
+	public void addSubscriber(IResourceDeltaSubscriber subscriber, int eventType, int deltaKinds) {
+		this.subscriptions.add(new Subscription(subscriber, eventType, deltaKinds));
+	}
+	
+	public void removeSubscriber(IResourceDeltaSubscriber subscriber) {
+		for (Subscription subscription : this.subscriptions) {
+			if (subscription.subscriber == subscriber) {
+				this.subscriptions.remove(subscription);
+			}
+		}
+	}
+
+	@Override
+	public void resourceChanged(IResourceChangeEvent event) {
+		IResourceDelta rootDelta = event.getDelta();
+		if (rootDelta == null) {
+			return;
+		}
+		
+		final List<Subscription> subscribers = new ArrayList<Subscription>();
+		int subscribedKinds = 0;
+		for (Subscription subscription : this.subscriptions) {
+			if ((subscription.eventType & event.getType()) != 0) {
+				subscribers.add(subscription);
+				subscribedKinds |= subscription.deltaKinds;
+			}
+		}
+		if (subscribers.isEmpty()) {
+			return;
+		}
+		
+		final int relevantKinds = subscribedKinds;
+		IResourceDeltaVisitor visitor = new IResourceDeltaVisitor() {
+			@Override
+			public boolean visit(IResourceDelta delta) throws CoreException {
+				if (delta.getResource().isDerived()) {
+					return false;
+				}
+				
+				int kinds = getDeltaKinds(delta) & relevantKinds;
+				if (kinds != 0) {
+					for (Subscription subscription : subscribers) {
+						if ((subscription.deltaKinds & kinds) != 0) {
+							dispatch(subscription.subscriber, delta);
+						}
+					}
+				}
+				return true;
+			}
+		};
+		
+		for (IResourceDelta projectDelta : rootDelta.getAffectedChildren()) {
+			IResource resource = projectDelta.getResource();
+			if (resource instanceof IProject && repository.isConnected((IProject) resource)) {
+				try {
+					projectDelta.accept(visitor);
+				} catch (CoreException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		
+		for (Subscription subscription : subscribers) {
+			try {
+				subscription.subscriber.deltasDispatched();
+			}
+			catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	protected int getDeltaKinds(IResourceDelta delta) {
+		int kinds = 0;
+		int flags = delta.getFlags();
+		if ((flags & IResourceDelta.MARKERS) != 0) {
+			kinds |= MARKERS;
+		}
+		if (delta.getKind() != IResourceDelta.CHANGED || (flags & ~IResourceDelta.MARKERS) != 0) {
+			kinds |= RESOURCES;
+		}
+		return kinds;
+	}
+	
+	protected void dispatch(IResourceDeltaSubscriber subscriber, IResourceDelta delta) {
+		try {
+			subscriber.resourceChanged(delta);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private static class Subscription {
+		
+		private final IResourceDeltaSubscriber subscriber;
+		private final int eventType;
+		private final int deltaKinds;
+		
+		public Subscription(IResourceDeltaSubscriber subscriber, int eventType, int deltaKinds) {
+			this.subscriber = subscriber;
+			this.eventType = eventType;
+			this.deltaKinds = deltaKinds;
+		}
+		
+	}
+
+}
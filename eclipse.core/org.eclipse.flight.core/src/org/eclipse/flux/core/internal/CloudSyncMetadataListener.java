@@ -10,36 +10,54 @@
 *******************************************************************************/
 package org.eclipse.flux.core.internal;
 
-import org.eclipse.core.resources.IResourceChangeEvent;
-import org.eclipse.core.resources.IResourceChangeListener;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceDelta;
-import org.eclipse.core.resources.IResourceDeltaVisitor;
-import org.eclipse.core.runtime.CoreException;
+import org.eclipse.flux.core.IResourceDeltaSubscriber;
 import org.eclipse.flux.core.Repository;
 
 /**
+ * Collects the resources with changed markers of one build and sends their markers with one message per project.
+ *
  * @author Martin Lippert
  */
-public class CloudSyncMetadataListener implements IResourceChangeListener{
+public class CloudSyncMetadataListener implements IResourceDeltaSubscriber {
 
 	private Repository repository;
+	private Map<IProject, List<IResource>> changedResources;
 
 	public CloudSyncMetadataListener(Repository repository) {
 		this.repository = repository;
+		this.changedResources = new LinkedHashMap<IProject, List<IResource>>();
 	}
 
 	@Override
-	public void resourceChanged(IResourceChangeEvent event) {
+	public void resourceChanged(IResourceDelta delta) {
+		IResource resource = delta.getResource();
+		IProject project = resource.getProject();
+		
+		List<IResource> resources = changedResources.get(project);
+		if (resources == null) {
+			resources = new ArrayList<IResource>();
+			changedResources.put(project, resources);
+		}
+		resources.add(resource);
+	}
+
+	@Override
+	public void deltasDispatched() {
 		try {
-			event.getDelta().accept(new IResourceDeltaVisitor() {
-				@Override
-				public boolean visit(IResourceDelta delta) throws CoreException {
-					repository.metadataChanged(delta);
-					return true;
-				}
-			});
-		} catch (CoreException e) {
-			e.printStackTrace();
+			for (Map.Entry<IProject, List<IResource>> projectResources : changedResources.entrySet()) {
+				repository.sendMetadataUpdate(projectResources.getKey(), projectResources.getValue());
+			}
+		}
+		finally {
+			changedResources.clear();
 		}
 	}
 
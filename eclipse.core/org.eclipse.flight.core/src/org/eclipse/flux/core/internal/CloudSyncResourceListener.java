@@ -10,17 +10,14 @@
 *******************************************************************************/
 package org.eclipse.flux.core.internal;
 
-import org.eclipse.core.resources.IResourceChangeEvent;
-import org.eclipse.core.resources.IResourceChangeListener;
 import org.eclipse.core.resources.IResourceDelta;
-import org.eclipse.core.resources.IResourceDeltaVisitor;
-import org.eclipse.core.runtime.CoreException;
+import org.eclipse.flux.core.IResourceDeltaSubscriber;
 import org.eclipse.flux.core.Repository;
 
 /**
  * @author Martin Lippert
  */
-public class CloudSyncResourceListener implements IResourceChangeListener {
+public class CloudSyncResourceListener implements IResourceDeltaSubscriber {
 
 	private Repository repository;
 
@@ -29,18 +26,12 @@ public class CloudSyncResourceListener implements IResourceChangeListener {
 	}
 
 	@Override
-	public void resourceChanged(IResourceChangeEvent event) {
-		try {
-			event.getDelta().accept(new IResourceDeltaVisitor() {
-				@Override
-				public boolean visit(IResourceDelta delta) throws CoreException {
-					repository.resourceChanged(delta);
-					return true;
-				}
-			});
-		} catch (CoreException e) {
-			e.printStackTrace();
-		}
+	public void resourceChanged(IResourceDelta delta) {
+		repository.resourceChanged(delta);
+	}
+
+	@Override
+	public void deltasDispatched() {
 	}
 
 }
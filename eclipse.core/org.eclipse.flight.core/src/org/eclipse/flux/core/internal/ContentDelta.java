@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+/**
+ * Computes and applies a block delta between two versions of a resource content, in the spirit of rsync.
+ * The base content is split into blocks that get indexed by a rolling checksum, the new content is scanned
+ * for these blocks and matches are extended in both directions as far as the content is the same.
+ *
+ * The delta is a JSON array of operations: a <code>[start, length]</code> array copies a range of the base
+ * content, a string is inserted as it is.
+ *
+ * @author Martin Lippert
+ */
+public class ContentDelta {
+
+	private static final int MIN_BLOCK_SIZE = 32;
+	private static final int MAX_BLOCK_SIZE = 2048;
+
+	public static JSONArray compute(String base, String target) {
+		JSONArray delta = new JSONArray();
+		int blockSize = Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, (int) Math.sqrt(base.length())));
+
+		if (base.length() < blockSize || target.length() < blockSize) {
+			if (target.length() > 0) {
+				delta.put(target);
+			}
+			return delta;
+		}
+
+		Map<Integer, List<Integer>> blocks = new HashMap<Integer, List<Integer>>();
+		for (int offset = 0; offset + blockSize <= base.length(); offset += blockSize) {
+			int checksum = checksum(base, offset, blockSize);
+			List<Integer> offsets = blocks.get(checksum);
+			if (offsets == null) {
+				offsets = new ArrayList<Integer>(1);
+				blocks.put(checksum, offsets);
+			}
+			offsets.add(offset);
+		}
+
+		DeltaBuilder builder = new DeltaBuilder(delta, target);
+		int literalStart = 0;
+		int i = 0;
+		int a = 0;
+		int b = 0;
+		boolean valid = false;
+
+		while (i + blockSize <= target.length()) {
+			if (!valid) {
+				int checksum = checksum(target, i, blockSize);
+				a = checksum & 0xffff;
+				b = checksum >>> 16;
+				valid = true;
+			}
+
+			int match = -1;
+			List<Integer> candidates = blocks.get((b << 16) | a);
+			if (candidates != null) {
+				for (int candidate : candidates) {
+					if (target.regionMatches(i, base, candidate, blockSize)) {
+						match = candidate;
+						break;
+					}
+				}
+			}
+
+			if (match >= 0) {
+				int start = i;
+				int baseStart = match;
+				while (start > literalStart && baseStart > 0 && target.charAt(start - 1) == base.charAt(baseStart - 1)) {
+					start--;
+					baseStart--;
+				}
+
+				int end = i + blockSize;
+				int baseEnd = match + blockSize;
+				while (end < target.length() && baseEnd < base.length() && target.charAt(end) == base.charAt(baseEnd)) {
+					end++;
+					baseEnd++;
+				}
+
+				builder.insert(literalStart, start);
+				builder.copy(baseStart, baseEnd - baseStart);
+
+				i = end;
+				literalStart = end;
+				valid = false;
+			}
+			else {
+				if (i + blockSize < target.length()) {
+					char out = target.charAt(i);
+					char in = target.charAt(i + blockSize);
+					a = (a - out + in) & 0xffff;
+					b = (b - blockSize * out + a) & 0xffff;
+				}
+				i++;
+			}
+		}
+
+		builder.insert(literalStart, target.length());
+		builder.flush();
+		return delta;
+	}
+
+	public static String apply(String base, JSONArray delta) throws JSONException {
+		StringBuilder result = new StringBuilder(base.length());
+		for (int i = 0; i < delta.length(); i++) {
+			Object operation = delta.get(i);
+			if (operation instanceof JSONArray) {
+				int start = ((JSONArray) operation).getInt(0);
+				int length = ((JSONArray) operation).getInt(1);
+				if (start < 0 || length < 0 || start + length > base.length()) {
+					throw new JSONException("delta operation out of range: " + operation);
+				}
+				result.append(base, start, start + length);
+			}
+			else {
+				result.append(operation.toString());
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * @return the length of the JSON text of the delta, without creating the text
+	 */
+	public static int getEncodedLength(JSONArray delta) {
+		int length = 2 + Math.max(0, delta.length() - 1);
+		for (int i = 0; i < delta.length(); i++) {
+			Object operation = delta.opt(i);
+			if (operation instanceof JSONArray) {
+				JSONArray copy = (JSONArray) operation;
+				length += 3 + Integer.toString(copy.optInt(0)).length() + Integer.toString(copy.optInt(1)).length();
+			}
+			else {
+				length += getQuotedLength(operation.toString());
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * @return the length of the string as quoted by {@link org.json.JSONObject#quote(String)}
+	 */
+	private static int getQuotedLength(String text) {
+		int length = 2;
+		char previous = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\\' || c == '"' || (c == '/' && previous == '<') || c == '\b' || c == '\t' || c == '\n' || c == '\f' || c == '\r') {
+				length += 2;
+			}
+			else if (c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100')) {
+				length += 6;
+			}
+			else {
+				length++;
+			}
+			previous = c;
+		}
+		return length;
+	}
+
+	private static int checksum(String content, int offset, int length) {
+		int a = 0;
+		int b = 0;
+		for (int i = 0; i < length; i++) {
+			char c = content.charAt(offset + i);
+			a += c;
+			b += (length - i) * c;
+		}
+		return ((b & 0xffff) << 16) | (a & 0xffff);
+	}
+
+	private static class DeltaBuilder {
+
+		private final JSONArray delta;
+		private final String target;
+		private int copyStart = -1;
+		private int copyLength;
+
+		public DeltaBuilder(JSONArray delta, String target) {
+			this.delta = delta;
+			this.target = target;
+		}
+
+		public void copy(int start, int length) {
+			if (copyStart >= 0 && copyStart + copyLength == start) {
+				copyLength += length;
+			}
+			else {
+				flush();
+				copyStart = start;
+				copyLength = length;
+			}
+		}
+
+		public void insert(int start, int end) {
+			if (end > start) {
+				flush();
+				delta.put(target.substring(start, end));
+			}
+		}
+
+		public void flush() {
+			if (copyStart >= 0) {
+				delta.put(new JSONArray().put(copyStart).put(copyLength));
+				copyStart = -1;
+			}
+		}
+
+	}
+
+}
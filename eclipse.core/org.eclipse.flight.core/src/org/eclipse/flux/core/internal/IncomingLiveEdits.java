@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+
+/**
+ * Brings the live edits of one resource into the order of the revisions the messaging server assigned to them.
+ * Edits that arrive ahead of a gap are held back until the missing edits arrived, duplicates are dropped.
+ *
+ * If a gap is still open some time after the missing edits were requested, the held back edits are
+ * dropped and {@link #gapTimedOut()} is called, even if no further edit arrives.
+ *
+ * @author Martin Lippert
+ */
+public abstract class IncomingLiveEdits {
+
+	private static final long GAP_TIMEOUT = Long.getLong("flux-liveedit-gap-timeout", 2000);
+
+	private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Flux live edit gap timeout");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private long lastRevision = -1;
+	private TreeMap<Long, JSONObject> pendingEdits = new TreeMap<Long, JSONObject>();
+	private long gapRequestTime;
+	private long gapCount;
+
+	/**
+	 * called (on the timer thread) when the missing edits didn't arrive in time, the stream is reset already
+	 */
+	protected abstract void gapTimedOut();
+
+	/**
+	 * @return the edits that can be applied now, in order
+	 */
+	public synchronized List<JSONObject> receive(long revision, JSONObject edit) {
+		if (lastRevision < 0) {
+			lastRevision = revision - 1;
+		}
+		if (revision <= lastRevision) {
+			return Collections.emptyList();
+		}
+
+		pendingEdits.put(revision, edit);
+
+		List<JSONObject> result = new ArrayList<JSONObject>();
+		JSONObject next = pendingEdits.remove(lastRevision + 1);
+		while (next != null) {
+			result.add(next);
+			lastRevision++;
+			next = pendingEdits.remove(lastRevision + 1);
+		}
+
+		if (pendingEdits.isEmpty()) {
+			gapRequestTime = 0;
+		}
+		return result;
+	}
+
+	public synchronized boolean hasGap() {
+		return !pendingEdits.isEmpty();
+	}
+
+	public synchronized long getMissingFrom() {
+		return lastRevision + 1;
+	}
+
+	public synchronized long getMissingTo() {
+		return pendingEdits.isEmpty() ? lastRevision : pendingEdits.firstKey() - 1;
+	}
+
+	/**
+	 * marks the missing edits as requested and starts the timeout for the gap
+	 *
+	 * @return <code>true</code> if the missing edits haven't been requested yet
+	 */
+	public synchronized boolean requestMissingEdits() {
+		if (gapRequestTime != 0) {
+			return false;
+		}
+
+		gapRequestTime = System.currentTimeMillis();
+		final long gap = ++gapCount;
+		timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (closeTimedOutGap(gap)) {
+					gapTimedOut();
+				}
+			}
+		}, GAP_TIMEOUT, TimeUnit.MILLISECONDS);
+		return true;
+	}
+
+	/**
+	 * @return <code>true</code> if the given gap is still open and got closed by resetting the stream
+	 */
+	protected synchronized boolean closeTimedOutGap(long gap) {
+		if (gapRequestTime == 0 || gapCount != gap) {
+			return false;
+		}
+		reset();
+		return true;
+	}
+
+	public synchronized void reset() {
+		lastRevision = -1;
+		pendingEdits.clear();
+		gapRequestTime = 0;
+	}
+
+}
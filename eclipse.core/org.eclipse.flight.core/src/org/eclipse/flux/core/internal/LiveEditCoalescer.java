@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges outgoing live edits of a resource that follow each other directly (typing, backspace, forward delete)
+ * into one edit, so that a burst of keystrokes goes out as one message. The merged edit is passed to
+ * {@link #send(PendingEdit)} after a short delay, or right away as soon as an edit doesn't continue the
+ * pending one (e.g. after a cursor jump).
+ *
+ * Edits are sent in the order they were made, {@link #flush(String)} has to be called before anything else
+ * happens to the resource (incoming edits, resyncs) to keep it that way.
+ *
+ * @author Martin Lippert
+ */
+public abstract class LiveEditCoalescer {
+
+	private static final long COALESCE_DELAY = Long.getLong("flux-liveedit-coalesce-delay", 15);
+	private static final int MAX_EDIT_LENGTH = Integer.getInteger("flux-liveedit-coalesce-length", 4096);
+
+	private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Flux live edit coalescer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final Map<String, PendingEdit> pendingEdits = new HashMap<String, PendingEdit>();
+
+	/**
+	 * sends the (merged) edit, always called in the order the edits were made
+	 */
+	protected abstract void send(PendingEdit edit);
+
+	public void add(String liveEditID, String username, String projectName, String resourcePath, int offset, int removedCharCount, String addedCharacters) {
+		final PendingEdit edit = new PendingEdit(liveEditID, username, projectName, resourcePath, offset, removedCharCount, addedCharacters);
+
+		if (COALESCE_DELAY <= 0) {
+			synchronized (this) {
+				send(edit);
+			}
+			return;
+		}
+
+		synchronized (this) {
+			PendingEdit pending = pendingEdits.get(liveEditID);
+			if (pending != null && pending.merge(edit)) {
+				return;
+			}
+
+			if (pending != null) {
+				pendingEdits.remove(liveEditID);
+				send(pending);
+			}
+			pendingEdits.put(liveEditID, edit);
+		}
+
+		timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				flush(edit);
+			}
+		}, COALESCE_DELAY, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * sends the pending edit of the resource right away
+	 */
+	public synchronized void flush(String liveEditID) {
+		PendingEdit pending = pendingEdits.remove(liveEditID);
+		if (pending != null) {
+			send(pending);
+		}
+	}
+
+	public synchronized void flushAll() {
+		List<PendingEdit> edits = new ArrayList<PendingEdit>(pendingEdits.values());
+		pendingEdits.clear();
+		for (PendingEdit edit : edits) {
+			send(edit);
+		}
+	}
+
+	protected synchronized void flush(PendingEdit edit) {
+		if (pendingEdits.get(edit.liveEditID) == edit) {
+			pendingEdits.remove(edit.liveEditID);
+			send(edit);
+		}
+	}
+
+	public static class PendingEdit {
+
+		private final String liveEditID;
+		private final String username;
+		private final String projectName;
+		private final String resourcePath;
+
+		private int offset;
+		private int removedCharCount;
+		private StringBuilder addedCharacters;
+
+		public PendingEdit(String liveEditID, String username, String projectName, String resourcePath, int offset, int removedCharCount, String addedCharacters) {
+			this.liveEditID = liveEditID;
+			this.username = username;
+			this.projectName = projectName;
+			this.resourcePath = resourcePath;
+			this.offset = offset;
+			this.removedCharCount = removedCharCount;
+			this.addedCharacters = new StringBuilder(addedCharacters != null ? addedCharacters : "");
+		}
+
+		/**
+		 * merges the given edit (made after this one) into this edit, if it directly continues it
+		 *
+		 * @return <code>false</code> if the edits can't be merged
+		 */
+		protected boolean merge(PendingEdit next) {
+			if (!username.equals(next.username) || addedCharacters.length() + next.addedCharacters.length() > MAX_EDIT_LENGTH) {
+				return false;
+			}
+
+			int end = offset + addedCharacters.length();
+
+			if (next.offset == end) {
+				// typing or forward delete right behind this edit
+				removedCharCount += next.removedCharCount;
+				addedCharacters.append(next.addedCharacters);
+				return true;
+			}
+			else if (next.addedCharacters.length() == 0 && next.removedCharCount > 0 && next.offset + next.removedCharCount == end) {
+				// backspace over the end of this edit
+				int removedAdded = Math.min(next.removedCharCount, addedCharacters.length());
+				addedCharacters.setLength(addedCharacters.length() - removedAdded);
+				removedCharCount += next.removedCharCount - removedAdded;
+				offset = next.offset < offset ? next.offset : offset;
+				return true;
+			}
+			return false;
+		}
+
+		public String getLiveEditID() {
+			return liveEditID;
+		}
+
+		public String getUsername() {
+			return username;
+		}
+
+		public String getProjectName() {
+			return projectName;
+		}
+
+		public String getResourcePath() {
+			return resourcePath;
+		}
+
+		public int getOffset() {
+			return offset;
+		}
+
+		public int getRemovedCharCount() {
+			return removedCharCount;
+		}
+
+		public String getAddedCharacters() {
+			return addedCharacters.toString();
+		}
+
+	}
+
+}
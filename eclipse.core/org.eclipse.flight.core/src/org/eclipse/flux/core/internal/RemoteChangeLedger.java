@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core.internal;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers the resources that are currently written to the workspace because of a remote change,
+ * together with the hash of the content that got written. The resource change listener consumes
+ * these entries when the corresponding delta arrives, so that it can recognize its own writes
+ * without reading and hashing the content again and without broadcasting the change back.
+ *
+ * There is one entry per resource, a newer write replaces the entry of the write it supersedes.
+ * Entries whose delta never arrives (e.g. because the write didn't change anything) expire after
+ * a while, they are not taken for a later change anymore and get dropped with the next write.
+ *
+ * @author Martin Lippert
+ */
+public class RemoteChangeLedger {
+
+	public static final String DELETED = "deleted";
+
+	private static final long ENTRY_TIMEOUT = Long.getLong("flux-remote-change-timeout", 10000);
+
+	private final long timeout;
+	private ConcurrentMap<String, RemoteChange> remoteChanges;
+
+	public RemoteChangeLedger() {
+		this(ENTRY_TIMEOUT);
+	}
+
+	public RemoteChangeLedger(long timeout) {
+		this.timeout = timeout;
+		this.remoteChanges = new ConcurrentHashMap<String, RemoteChange>();
+	}
+
+	public void record(String projectName, String resourcePath, String hash) {
+		long now = System.currentTimeMillis();
+		removeExpired(now);
+		this.remoteChanges.put(key(projectName, resourcePath), new RemoteChange(hash, now));
+	}
+
+	public void forget(String projectName, String resourcePath, String hash) {
+		String key = key(projectName, resourcePath);
+		RemoteChange remoteChange = this.remoteChanges.get(key);
+		if (remoteChange != null && remoteChange.hash.equals(hash)) {
+			this.remoteChanges.remove(key, remoteChange);
+		}
+	}
+
+	/**
+	 * @return the hash of the remote change that got written to the resource (or {@link #DELETED}), or <code>null</code>
+	 * if the change of the resource isn't the result of writing a remote change, the entry is removed from the ledger
+	 */
+	public String consume(String projectName, String resourcePath) {
+		RemoteChange remoteChange = this.remoteChanges.remove(key(projectName, resourcePath));
+		return remoteChange != null && !remoteChange.isExpired(System.currentTimeMillis(), timeout) ? remoteChange.hash : null;
+	}
+
+	public int size() {
+		return this.remoteChanges.size();
+	}
+
+	protected void removeExpired(long now) {
+		Iterator<RemoteChange> iterator = this.remoteChanges.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().isExpired(now, timeout)) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private String key(String projectName, String resourcePath) {
+		return projectName + "/" + resourcePath;
+	}
+
+	private static class RemoteChange {
+
+		private final String hash;
+		private final long recorded;
+
+		public RemoteChange(String hash, long recorded) {
+			this.hash = hash;
+			this.recorded = recorded;
+		}
+
+		public boolean isExpired(long now, long timeout) {
+			return now - recorded > timeout;
+		}
+
+	}
+
+}
@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core.internal;
+
+/**
+ * Logs how long the phases of the Flux startup take (bundle activation, connecting to the messaging
+ * server, reconnecting the projects), measured from the start of the bundle activation.
+ * Enabled with the system property <code>flux-startup-timing</code>.
+ *
+ * @author Martin Lippert
+ */
+public class StartupTiming {
+
+	private static final boolean ENABLED = Boolean.getBoolean("flux-startup-timing");
+
+	private static volatile long startTime = System.nanoTime();
+
+	public static void start() {
+		startTime = System.nanoTime();
+	}
+
+	public static void phase(String phase) {
+		if (ENABLED) {
+			long elapsed = (System.nanoTime() - startTime) / 1000000;
+			System.out.println("flux startup: " + phase + " after " + elapsed + "ms (" + Thread.currentThread().getName() + ")");
+		}
+	}
+
+}
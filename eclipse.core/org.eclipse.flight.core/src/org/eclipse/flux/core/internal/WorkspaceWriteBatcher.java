@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Collects writes of incoming remote changes per project and applies them after a short window in
+ * one workspace operation, scoped to the project. All the writes of a batch therefore result in a
+ * single resource delta (and at most one build) instead of one delta per file and timestamp update.
+ *
+ * Writes are applied in the order they got enqueued. A write for a resource that is still pending
+ * replaces the pending one, since every write describes the complete new state of the resource.
+ *
+ * @author Martin Lippert
+ */
+public class WorkspaceWriteBatcher {
+
+	private static final long BATCH_DELAY = Long.getLong("flux-write-batch-delay", 50);
+
+	public static abstract class ResourceWrite {
+
+		/**
+		 * Applies the write to the workspace, called within the workspace operation of the batch
+		 */
+		public abstract void apply(IProgressMonitor monitor) throws CoreException;
+
+		/**
+		 * Called once the workspace operation of the batch that contained this write finished
+		 */
+		public void applied() {
+		}
+
+	}
+
+	private ConcurrentMap<String, ProjectWriteJob> writeJobs;
+
+	public WorkspaceWriteBatcher() {
+		this.writeJobs = new ConcurrentHashMap<String, ProjectWriteJob>();
+	}
+
+	public void enqueue(IProject project, String resourcePath, ResourceWrite write) {
+		ProjectWriteJob writeJob = writeJobs.get(project.getName());
+		if (writeJob == null) {
+			ProjectWriteJob newWriteJob = new ProjectWriteJob(project);
+			writeJob = writeJobs.putIfAbsent(project.getName(), newWriteJob);
+			if (writeJob == null) {
+				writeJob = newWriteJob;
+			}
+		}
+		writeJob.enqueue(resourcePath, write);
+	}
+
+	private static class ProjectWriteJob extends Job {
+
+		private final IProject project;
+		private Map<String, ResourceWrite> pendingWrites;
+
+		public ProjectWriteJob(IProject project) {
+			super("Apply remote changes to " + project.getName());
+			this.project = project;
+			this.pendingWrites = new LinkedHashMap<String, ResourceWrite>();
+			setSystem(true);
+			setRule(project);
+		}
+
+		public synchronized void enqueue(String resourcePath, ResourceWrite write) {
+			boolean startBatch = pendingWrites.isEmpty();
+			pendingWrites.remove(resourcePath);
+			pendingWrites.put(resourcePath, write);
+
+			if (startBatch) {
+				schedule(BATCH_DELAY);
+			}
+		}
+
+		private synchronized Map<String, ResourceWrite> takePendingWrites() {
+			Map<String, ResourceWrite> writes = pendingWrites;
+			pendingWrites = new LinkedHashMap<String, ResourceWrite>();
+			return writes;
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			final Map<String, ResourceWrite> writes = takePendingWrites();
+			if (writes.isEmpty()) {
+				return Status.OK_STATUS;
+			}
+
+			final List<ResourceWrite> appliedWrites = new ArrayList<ResourceWrite>(writes.size());
+			try {
+				IWorkspaceRunnable batch = new IWorkspaceRunnable() {
+					@Override
+					public void run(IProgressMonitor monitor) throws CoreException {
+						for (ResourceWrite write : writes.values()) {
+							try {
+								write.apply(monitor);
+								appliedWrites.add(write);
+							} catch (CoreException e) {
+								e.printStackTrace();
+							}
+						}
+					}
+				};
+				ResourcesPlugin.getWorkspace().run(batch, project, IWorkspace.AVOID_UPDATE, monitor);
+			} catch (CoreException e) {
+				e.printStackTrace();
+			}
+
+			for (ResourceWrite write : appliedWrites) {
+				write.applied();
+			}
+			return Status.OK_STATUS;
+		}
+
+	}
+
+}
@@ -20,6 +20,7 @@ import java.net.MalformedURLException;
 import javax.net.ssl.SSLContext;
 
 import org.eclipse.flux.core.IMessagingConnector;
+import org.eclipse.flux.core.internal.StartupTiming;
 import org.json.JSONObject;
 
 /**
@@ -35,19 +36,39 @@ public class SocketIOMessagingConnector extends AbstractMessagingConnector imple
 		});
 	}
 
-	private SocketIO socket;
-	private String host;
+	private volatile SocketIO socket;
+	private final String host;
+	private final String username;
 
 	private transient boolean connectedToUserspace;
 	private transient boolean connected;
 	
-	public SocketIOMessagingConnector(final String username) {
-		host = System.getProperty("flux-host", "http://localhost:3000");
+	public SocketIOMessagingConnector(String username) {
+		this.username = username;
+		this.host = System.getProperty("flux-host", "http://localhost:3000");
+	}
 
+	/**
+	 * connects to the messaging server in the background, listeners are notified once the connection
+	 * to the user space is established
+	 */
+	public void connect() {
+		Thread connectThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				connectSocket();
+			}
+		}, "Flux messaging connector");
+		connectThread.setDaemon(true);
+		connectThread.start();
+	}
+
+	protected void connectSocket() {
 		try {
 			SocketIO.setDefaultSSLSocketFactory(SSLContext.getInstance("Default"));
-			socket = new SocketIO(host);
-			socket.connect(new IOCallback() {
+			SocketIO newSocket = new SocketIO(host);
+			socket = newSocket;
+			newSocket.connect(new IOCallback() {
 
 				@Override
 				public void onMessage(JSONObject arg0, IOAcknowledge arg1) {
@@ -62,8 +83,9 @@ public class SocketIOMessagingConnector extends AbstractMessagingConnector imple
 					ex.printStackTrace();
 					
 					try {
-						socket = new SocketIO(host);
-						socket.connect(this);
+						SocketIO newSocket = new SocketIO(host);
+						socket = newSocket;
+						newSocket.connect(this);
 					} catch (MalformedURLException e) {
 						e.printStackTrace();
 					}
@@ -83,6 +105,7 @@ public class SocketIOMessagingConnector extends AbstractMessagingConnector imple
 								try {
 									if (answer.length == 1 && answer[0] instanceof JSONObject && ((JSONObject)answer[0]).getBoolean("connectedToChannel")) {
 										connectedToUserspace = true;
+										StartupTiming.phase("connected to " + host);
 										notifyConnected();
 									}
 								}
@@ -118,7 +141,10 @@ public class SocketIOMessagingConnector extends AbstractMessagingConnector imple
 
 	@Override
 	public void send(String messageType, JSONObject message) {
-		socket.emit(messageType, message);
+		SocketIO socket = this.socket;
+		if (socket != null) {
+			socket.emit(messageType, message);
+		}
 	}
 
 	@Override
@@ -10,9 +10,11 @@
 *******************************************************************************/
 package org.eclipse.flux.jdt.services;
 
+import org.eclipse.flux.core.BuildCoordinator;
 import org.eclipse.flux.core.IMessagingConnector;
 import org.eclipse.flux.core.LiveEditCoordinator;
 import org.eclipse.flux.core.Repository;
+import org.eclipse.flux.core.ResourceDeltaDispatcher;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 
@@ -26,14 +28,16 @@ public class Activator implements BundleActivator {
 		IMessagingConnector messagingConnector = org.eclipse.flux.core.Activator.getDefault().getMessagingConnector();
 		Repository repository = org.eclipse.flux.core.Activator.getDefault().getRepository();
 		LiveEditCoordinator liveEditCoordinator = org.eclipse.flux.core.Activator.getDefault().getLiveEditCoordinator(); 
+		ResourceDeltaDispatcher resourceDeltaDispatcher = org.eclipse.flux.core.Activator.getDefault().getResourceDeltaDispatcher();
 		
-		LiveEditUnits liveEditUnits = new LiveEditUnits(messagingConnector, liveEditCoordinator, repository);
+		LiveEditUnits liveEditUnits = new LiveEditUnits(messagingConnector, liveEditCoordinator, repository, resourceDeltaDispatcher);
 		new ContentAssistService(messagingConnector, liveEditUnits);
 		new NavigationService(messagingConnector, liveEditUnits);
 		new RenameService(messagingConnector, liveEditUnits);
 		
 		if (Boolean.getBoolean("flux-initjdt")) {
-			InitializeServiceEnvironment initializer = new InitializeServiceEnvironment(messagingConnector, repository);
+			BuildCoordinator buildCoordinator = org.eclipse.flux.core.Activator.getDefault().getBuildCoordinator();
+			InitializeServiceEnvironment initializer = new InitializeServiceEnvironment(messagingConnector, repository, buildCoordinator);
 			initializer.start();
 		}
 	}
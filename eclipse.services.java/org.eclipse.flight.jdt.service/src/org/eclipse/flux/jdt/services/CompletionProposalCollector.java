@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.jdt.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.eclipse.jdt.core.CompletionProposal;
+import org.eclipse.jdt.core.CompletionRequestor;
+import org.eclipse.jdt.core.IAccessRule;
+
+/**
+ * Collects the visible proposals of a completion request. Only the best <code>pageSize</code> proposals
+ * (by relevance) are kept in a bounded heap, all other proposals are just appended to a list that
+ * is sorted only if further pages are requested.
+ *
+ * @author Martin Lippert
+ */
+public class CompletionProposalCollector extends CompletionRequestor {
+
+	protected static final Comparator<CompletionProposal> BY_RELEVANCE = new Comparator<CompletionProposal>() {
+		@Override
+		public int compare(CompletionProposal o1, CompletionProposal o2) {
+			return o2.getRelevance() - o1.getRelevance();
+		}
+	};
+
+	private static final Comparator<CompletionProposal> BY_RELEVANCE_ASCENDING = new Comparator<CompletionProposal>() {
+		@Override
+		public int compare(CompletionProposal o1, CompletionProposal o2) {
+			return o1.getRelevance() - o2.getRelevance();
+		}
+	};
+
+	private final int pageSize;
+	private final PriorityQueue<CompletionProposal> topProposals;
+	private final List<CompletionProposal> remainingProposals;
+
+	public CompletionProposalCollector(int pageSize) {
+		this.pageSize = Math.max(1, pageSize);
+		this.topProposals = new PriorityQueue<CompletionProposal>(this.pageSize, BY_RELEVANCE_ASCENDING);
+		this.remainingProposals = new ArrayList<CompletionProposal>();
+	}
+
+	@Override
+	public void accept(CompletionProposal proposal) {
+		// filtered before the heap, so that invisible proposals don't take the place of visible ones on a page
+		if (isVisible(proposal)) {
+			add(proposal);
+		}
+	}
+
+	protected boolean isVisible(CompletionProposal proposal) {
+		switch (proposal.getKind()) {
+		case CompletionProposal.METHOD_REF:
+		case CompletionProposal.FIELD_REF:
+			return true;
+		case CompletionProposal.TYPE_REF:
+			return proposal.getAccessibility() != IAccessRule.K_NON_ACCESSIBLE;
+		default:
+			return false;
+		}
+	}
+
+	protected void add(CompletionProposal proposal) {
+		if (this.topProposals.size() < this.pageSize) {
+			this.topProposals.add(proposal);
+		}
+		else if (proposal.getRelevance() > this.topProposals.peek().getRelevance()) {
+			this.remainingProposals.add(this.topProposals.poll());
+			this.topProposals.add(proposal);
+		}
+		else {
+			this.remainingProposals.add(proposal);
+		}
+	}
+
+	public CompletionProposalPages getPages() {
+		List<CompletionProposal> firstPage = new ArrayList<CompletionProposal>(this.topProposals);
+		Collections.sort(firstPage, BY_RELEVANCE);
+		return new CompletionProposalPages(this.pageSize, firstPage, this.remainingProposals);
+	}
+
+}
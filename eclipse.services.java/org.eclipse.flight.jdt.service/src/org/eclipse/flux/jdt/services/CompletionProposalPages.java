@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.jdt.services;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jdt.core.CompletionProposal;
+
+/**
+ * The proposals of a completion request, split into pages. The first page is sorted by relevance
+ * right away, the remaining proposals get sorted the first time a later page is requested.
+ *
+ * @author Martin Lippert
+ */
+public class CompletionProposalPages {
+
+	private final int pageSize;
+	private final List<CompletionProposal> firstPage;
+	private final List<CompletionProposal> remainingProposals;
+	private boolean remainingSorted;
+
+	public CompletionProposalPages(int pageSize, List<CompletionProposal> firstPage, List<CompletionProposal> remainingProposals) {
+		this.pageSize = pageSize;
+		this.firstPage = firstPage;
+		this.remainingProposals = remainingProposals;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public int size() {
+		return this.firstPage.size() + this.remainingProposals.size();
+	}
+
+	public synchronized List<CompletionProposal> getPage(int page) {
+		if (page <= 0) {
+			return this.firstPage;
+		}
+
+		int start = (page - 1) * this.pageSize;
+		if (start >= this.remainingProposals.size()) {
+			return Collections.emptyList();
+		}
+
+		if (!this.remainingSorted) {
+			Collections.sort(this.remainingProposals, CompletionProposalCollector.BY_RELEVANCE);
+			this.remainingSorted = true;
+		}
+		return this.remainingProposals.subList(start, Math.min(start + this.pageSize, this.remainingProposals.size()));
+	}
+
+	public boolean hasMore(int page) {
+		return (page + 1) * this.pageSize < size();
+	}
+
+	/**
+	 * Selects the proposals accepted by the given filter into new pages of the given page size.
+	 */
+	public synchronized CompletionProposalPages select(int pageSize, ProposalFilter filter) {
+		CompletionProposalCollector collector = new CompletionProposalCollector(pageSize);
+		for (CompletionProposal proposal : this.firstPage) {
+			if (filter.accept(proposal)) {
+				collector.add(proposal);
+			}
+		}
+		for (CompletionProposal proposal : this.remainingProposals) {
+			if (filter.accept(proposal)) {
+				collector.add(proposal);
+			}
+		}
+		return collector.getPages();
+	}
+
+	public interface ProposalFilter {
+		boolean accept(CompletionProposal proposal);
+	}
+
+}
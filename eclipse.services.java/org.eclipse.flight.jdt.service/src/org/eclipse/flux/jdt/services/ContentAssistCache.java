@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.jdt.services;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.eclipse.jdt.core.CompletionProposal;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.Signature;
+import org.eclipse.jdt.core.compiler.CharOperation;
+
+/**
+ * Keeps the raw completion proposals of the last content assist invocation per live edit unit,
+ * so that follow-up requests at the same invocation point (the user keeps typing the same token)
+ * can be answered by filtering the cached proposals instead of running the completion engine again.
+ *
+ * A cached entry is dropped as soon as the buffer of the live unit gets modified outside of the
+ * token that is being completed. Entries that haven't been used for a while expire, they are kept
+ * around mainly to serve follow-up requests for more pages of the same completion.
+ *
+ * @author Martin Lippert
+ */
+public class ContentAssistCache implements ILiveUnitChangeListener {
+
+	private static final long EXPIRATION_TIME = 30 * 1000;
+
+	private Map<String, CachedProposals> cachedProposals;
+	private LiveEditUnits liveEditUnits;
+
+	public ContentAssistCache(LiveEditUnits liveEditUnits) {
+		this.cachedProposals = new HashMap<String, CachedProposals>();
+		this.liveEditUnits = liveEditUnits;
+	}
+
+	/**
+	 * @return the cached proposals that match the given prefix, paged by the given page size, or
+	 * <code>null</code> if there is no valid cache entry for this completion context
+	 */
+	public synchronized CompletionProposalPages getProposals(String resourcePath, ICompilationUnit unit, int offset, String prefix, int pageSize) {
+		CachedProposals cached = this.cachedProposals.get(resourcePath);
+		if (cached == null || cached.unit != unit) {
+			return null;
+		}
+
+		if (System.currentTimeMillis() - cached.lastAccess > EXPIRATION_TIME) {
+			this.cachedProposals.remove(resourcePath);
+			return null;
+		}
+
+		int startOffset = offset - prefix.length();
+		if (cached.startOffset != startOffset || offset > cached.tokenEnd || !prefix.startsWith(cached.prefix)) {
+			return null;
+		}
+
+		cached.lastAccess = System.currentTimeMillis();
+
+		if (prefix.length() == cached.prefix.length() && pageSize == cached.proposals.getPageSize()) {
+			return cached.proposals;
+		}
+
+		if (prefix.equals(cached.filteredPrefix) && pageSize == cached.filteredProposals.getPageSize()) {
+			return cached.filteredProposals;
+		}
+
+		final boolean samePrefix = prefix.length() == cached.prefix.length();
+		final char[] prefixChars = prefix.toCharArray();
+		CompletionProposalPages result = cached.proposals.select(pageSize, new CompletionProposalPages.ProposalFilter() {
+			@Override
+			public boolean accept(CompletionProposal proposal) {
+				return samePrefix || matches(prefixChars, proposal);
+			}
+		});
+
+		cached.filteredPrefix = prefix;
+		cached.filteredProposals = result;
+		return result;
+	}
+
+	/**
+	 * caches the proposals unless the live unit got edited since the given content version, in that case the
+	 * token bookkeeping of the entry would miss that edit
+	 */
+	public synchronized void putProposals(String resourcePath, ICompilationUnit unit, int offset, String prefix, CompletionProposalPages proposals, long contentVersion) {
+		removeExpiredProposals();
+		if (liveEditUnits.getContentVersion(resourcePath) != contentVersion) {
+			return;
+		}
+		this.cachedProposals.put(resourcePath, new CachedProposals(unit, offset - prefix.length(), offset, prefix, proposals));
+	}
+
+	public synchronized void clear(String resourcePath) {
+		this.cachedProposals.remove(resourcePath);
+	}
+
+	@Override
+	public synchronized void liveUnitChanged(String resourcePath, int offset, int removedCharCount, String newText) {
+		CachedProposals cached = this.cachedProposals.get(resourcePath);
+		if (cached == null) {
+			return;
+		}
+
+		String addedText = newText != null ? newText : "";
+		if (offset >= cached.startOffset && offset + removedCharCount <= cached.tokenEnd && offset <= cached.tokenEnd && isIdentifierPart(addedText)) {
+			cached.tokenEnd += addedText.length() - removedCharCount;
+		}
+		else {
+			this.cachedProposals.remove(resourcePath);
+		}
+	}
+
+	protected boolean matches(char[] prefix, CompletionProposal proposal) {
+		char[] name = getName(proposal);
+		return name != null && (CharOperation.prefixEquals(prefix, name, false) || CharOperation.camelCaseMatch(prefix, name));
+	}
+
+	protected char[] getName(CompletionProposal proposal) {
+		if (proposal.getKind() == CompletionProposal.TYPE_REF) {
+			return proposal.getSignature() != null ? Signature.getSignatureSimpleName(proposal.getSignature()) : null;
+		}
+		else {
+			return proposal.getName();
+		}
+	}
+
+	private void removeExpiredProposals() {
+		long now = System.currentTimeMillis();
+		Iterator<CachedProposals> iterator = this.cachedProposals.values().iterator();
+		while (iterator.hasNext()) {
+			if (now - iterator.next().lastAccess > EXPIRATION_TIME) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private boolean isIdentifierPart(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			if (!Character.isJavaIdentifierPart(text.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static class CachedProposals {
+
+		private final ICompilationUnit unit;
+		private final int startOffset;
+		private final String prefix;
+		private final CompletionProposalPages proposals;
+		private String filteredPrefix;
+		private CompletionProposalPages filteredProposals;
+		private int tokenEnd;
+		private long lastAccess;
+
+		public CachedProposals(ICompilationUnit unit, int startOffset, int tokenEnd, String prefix, CompletionProposalPages proposals) {
+			this.unit = unit;
+			this.startOffset = startOffset;
+			this.tokenEnd = tokenEnd;
+			this.prefix = prefix;
+			this.proposals = proposals;
+			this.lastAccess = System.currentTimeMillis();
+		}
+
+	}
+
+}
@@ -10,20 +10,23 @@
 *******************************************************************************/
 package org.eclipse.flux.jdt.services;
 
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.flux.core.AbstractMessageHandler;
 import org.eclipse.flux.core.IMessageHandler;
 import org.eclipse.flux.core.IMessagingConnector;
+import org.eclipse.flux.core.JSONStreamWriter;
 import org.eclipse.jdt.core.CompletionProposal;
-import org.eclipse.jdt.core.CompletionRequestor;
-import org.eclipse.jdt.core.IAccessRule;
 import org.eclipse.jdt.core.ICompilationUnit;
 import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.core.Signature;
+import org.eclipse.jdt.core.compiler.CharOperation;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -33,13 +36,28 @@ import org.json.JSONObject;
  */
 public class ContentAssistService {
 
+	private static final int DEFAULT_PAGE_SIZE = Integer.getInteger("flux-contentassist-pagesize", 100);
+
 	private LiveEditUnits liveEditUnits;
 	private IMessagingConnector messagingConnector;
+	private ContentAssistCache contentAssistCache;
+	private ServiceRequestScheduler requestScheduler;
+	private ThreadLocal<JSONStreamWriter> proposalsWriter;
 
 	public ContentAssistService(IMessagingConnector messagingConnector, LiveEditUnits liveEditUnits) {
 		this.messagingConnector = messagingConnector;
 		this.liveEditUnits = liveEditUnits;
 		
+		this.contentAssistCache = new ContentAssistCache(liveEditUnits);
+		this.requestScheduler = new ServiceRequestScheduler();
+		this.proposalsWriter = new ThreadLocal<JSONStreamWriter>() {
+			@Override
+			protected JSONStreamWriter initialValue() {
+				return new JSONStreamWriter(64 * 1024);
+			}
+		};
+		this.liveEditUnits.addLiveUnitChangeListener(this.contentAssistCache);
+		
 		IMessageHandler contentAssistRequestHandler = new AbstractMessageHandler("contentassistrequest") {
 			@Override
 			public void handleMessage(String messageType, JSONObject message) {
@@ -51,261 +69,234 @@ public class ContentAssistService {
 	
 	protected void handleContentAssistRequest(JSONObject message) {
 		try {
-			String username = message.getString("username");
-			String projectName = message.getString("project");
-			String resourcePath = message.getString("resource");
-			int callbackID = message.getInt("callback_id");
+			final String username = message.getString("username");
+			final String projectName = message.getString("project");
+			final String resourcePath = message.getString("resource");
+			final int callbackID = message.getInt("callback_id");
 			
-			String liveEditID = projectName + "/" + resourcePath;
+			final String liveEditID = projectName + "/" + resourcePath;
 			if (liveEditUnits.isLiveEditResource(username, liveEditID)) {
 
-				int offset = message.getInt("offset");
-				String prefix = message.optString("prefix");
-				String sender = message.getString("requestSenderID");
+				final int offset = message.getInt("offset");
+				final String prefix = message.optString("prefix");
+				final String sender = message.getString("requestSenderID");
+				final int pageSize = message.optInt("pageSize", DEFAULT_PAGE_SIZE);
+				final int page = message.optInt("page", 0);
+				final long contentVersion = liveEditUnits.getContentVersion(liveEditID);
 				
-				String proposalsSource = computeContentAssist(username, liveEditID, offset, prefix);
-
-				JSONObject responseMessage = new JSONObject();
-				responseMessage.put("username", username);
-				responseMessage.put("project", projectName);
-				responseMessage.put("resource", resourcePath);
-				responseMessage.put("callback_id", callbackID);
-				responseMessage.put("requestSenderID", sender);
-
-				JSONArray proposals = new JSONArray(proposalsSource);
-				responseMessage.put("proposals", proposals);
-
-				messagingConnector.send("contentassistresponse", responseMessage);
+				Job contentAssistJob = new Job("Content assist for " + liveEditID) {
+					@Override
+					protected IStatus run(IProgressMonitor monitor) {
+						try {
+							CompletionProposalPages proposalPages = computeProposalPages(username, liveEditID, offset, prefix, pageSize, contentVersion, monitor);
+							if (monitor.isCanceled()) {
+								return Status.CANCEL_STATUS;
+							}
+							
+							// the buffer got edited after the request, the offset doesn't fit the proposals anymore
+							boolean outdated = liveEditUnits.getContentVersion(liveEditID) != contentVersion;
+							List<CompletionProposal> pageProposals = outdated ? Collections.<CompletionProposal>emptyList() : proposalPages.getPage(page);
+							JSONStreamWriter proposals = writeProposals(pageProposals, offset, prefix);
+	
+							JSONObject responseMessage = createResponse(username, projectName, resourcePath, callbackID, sender, page);
+							responseMessage.put("hasMore", !outdated && proposalPages.hasMore(page));
+							if (outdated) {
+								responseMessage.put("outdated", true);
+							}
+							responseMessage.put("proposals", proposals);
+	
+							messagingConnector.send("contentassistresponse", responseMessage);
+						} catch (OperationCanceledException e) {
+							return Status.CANCEL_STATUS;
+						} catch (JSONException e) {
+							e.printStackTrace();
+						}
+						return Status.OK_STATUS;
+					}
+				};
+				Runnable canceledResponse = new Runnable() {
+					@Override
+					public void run() {
+						try {
+							JSONObject responseMessage = createResponse(username, projectName, resourcePath, callbackID, sender, page);
+							responseMessage.put("hasMore", false);
+							responseMessage.put("canceled", true);
+							responseMessage.put("proposals", new JSONArray());
+							messagingConnector.send("contentassistresponse", responseMessage);
+						} catch (JSONException e) {
+							e.printStackTrace();
+						}
+					}
+				};
+				requestScheduler.schedule("contentassistrequest", sender, liveEditID, contentAssistJob, canceledResponse);
 			}
 		} catch (JSONException e) {
 			e.printStackTrace();
 		}
 	}
 
-	protected String computeContentAssist(String username, String resourcePath, int offset, String prefix) {
-		final List<CompletionProposal> proposals = new ArrayList<CompletionProposal>();
-		
+	protected JSONObject createResponse(String username, String projectName, String resourcePath, int callbackID, String sender, int page) throws JSONException {
+		JSONObject responseMessage = new JSONObject();
+		responseMessage.put("username", username);
+		responseMessage.put("project", projectName);
+		responseMessage.put("resource", resourcePath);
+		responseMessage.put("callback_id", callbackID);
+		responseMessage.put("requestSenderID", sender);
+		responseMessage.put("page", page);
+		return responseMessage;
+	}
+
+	protected CompletionProposalPages computeProposalPages(String username, String resourcePath, int offset, String prefix, int pageSize, long contentVersion, IProgressMonitor monitor) {
 		try {
 			ICompilationUnit liveEditUnit = liveEditUnits.getLiveEditUnit(username, resourcePath);
 			if (liveEditUnit != null) {
-				liveEditUnit.codeComplete(offset, new CompletionRequestor() {
-					@Override
-					public void accept(CompletionProposal proposal) {
-						proposals.add(proposal);
+				CompletionProposalPages proposals = contentAssistCache.getProposals(resourcePath, liveEditUnit, offset, prefix, pageSize);
+				if (proposals == null) {
+					CompletionProposalCollector collector = new CompletionProposalCollector(pageSize);
+					liveEditUnit.codeComplete(offset, collector, monitor);
+					proposals = collector.getPages();
+					if (!monitor.isCanceled()) {
+						contentAssistCache.putProposals(resourcePath, liveEditUnit, offset, prefix, proposals, contentVersion);
 					}
-				});
+				}
+				return proposals;
 			}
 		} catch (JavaModelException e) {
 			e.printStackTrace();
 		}
-		
-		Collections.sort(proposals, new Comparator<CompletionProposal>() {
-			@Override
-			public int compare(CompletionProposal o1, CompletionProposal o2) {
-				return o2.getRelevance() - o1.getRelevance();
-			}
-		});
-		
-		StringBuilder result = new StringBuilder();
-		boolean flag = false;
-		result.append("[");
+		return new CompletionProposalCollector(pageSize).getPages();
+	}
+
+	/**
+	 * Writes the given proposals into the reusable proposals writer of the current thread. The returned
+	 * writer is valid until the next content assist request gets computed on this thread.
+	 */
+	protected JSONStreamWriter writeProposals(List<CompletionProposal> proposals, int offset, String prefix) {
+		JSONStreamWriter writer = this.proposalsWriter.get().reset();
+		char[] prefixChars = prefix.toCharArray();
+
+		writer.beginArray();
 		for (CompletionProposal proposal : proposals) {
-			String description = getDescription(proposal);
-			String completion = getCompletion(proposal, prefix);
-			String positions = getPositions(proposal, prefix, offset);
-			
-			if (description != null) {
-				if (flag) {
-					result.append(",");
-				}
-				
-				result.append("{");
-				result.append("\"proposal\"");
-				result.append(":");
-				result.append("\"");
-				result.append(completion);
-				result.append("\",");
-				result.append("\"description\"");
-				result.append(":");
-				result.append(description);
-				result.append(",");
-				
-				if (positions != null) {
-					result.append("\"positions\"");
-					result.append(":");
-					result.append(positions);
-					result.append(",");
-				}
-				
-				result.append("\"style\":\"attributedString\",");
-				result.append("\"replace\"");
-				result.append(":");
-				result.append("true");
-				result.append("}");
-	
-				flag = true;
-			}
+			writeProposal(writer, proposal, prefixChars, offset);
 		}
-		result.append("]");
-		return result.toString();
+		writer.endArray();
+		return writer;
 	}
 	
-	private String getPositions(CompletionProposal proposal, String prefix, int globalOffset) {
+	protected void writeProposal(JSONStreamWriter writer, CompletionProposal proposal, char[] prefix, int globalOffset) {
+		char[] completion = proposal.getCompletion();
+		int completionStart = CharOperation.prefixEquals(prefix, completion) ? prefix.length : 0;
+		
+		char[][] parameterNames = null;
+		boolean insertParameterNames = false;
 		if (proposal.getKind() == CompletionProposal.METHOD_REF) {
-			String completion = new String(proposal.getCompletion());
-			if (completion.startsWith(prefix)) {
-				completion = completion.substring(prefix.length());
-			}
-			
-			StringBuilder positions = new StringBuilder();
-			positions.append("[");
-			
-			char[][] parameterNames = proposal.findParameterNames(null);
-			if (parameterNames != null && parameterNames.length > 0 && completion.endsWith(")")) {
-				int offset = globalOffset;
-				offset += completion.length() - 1;
-
-				for (int i = 0; i < parameterNames.length; i++) {
-					if (i > 0) {
-						positions.append(",");
-					}
-					positions.append("{");
-					positions.append("\"offset\"");
-					positions.append(":");
-					positions.append(offset);
-					
-					positions.append(",");
-					positions.append("\"length\"");
-					positions.append(":");
-					positions.append(parameterNames[i].length);
-					
-					positions.append("}");
-					
-					offset += parameterNames[i].length;
-					offset += ", ".length();
+			parameterNames = proposal.findParameterNames(null);
+			insertParameterNames = parameterNames != null && parameterNames.length > 0
+					&& completion.length > completionStart && completion[completion.length - 1] == ')';
+		}
+		
+		writer.beginObject();
+		
+		writer.key("proposal").beginString();
+		if (insertParameterNames) {
+			writer.appendString(completion, completionStart, completion.length - 1);
+			for (int i = 0; i < parameterNames.length; i++) {
+				if (i > 0) {
+					writer.appendString(", ");
 				}
+				writer.appendString(parameterNames[i], 0, parameterNames[i].length);
 			}
-			
-			positions.append("]");
-			return positions.toString();
+			writer.appendString(")");
 		}
 		else {
-			return null;
-		}
-	}
-
-	private String getCompletion(CompletionProposal proposal, String prefix) {
-		String completion = new String(proposal.getCompletion());
-		if (completion.startsWith(prefix)) {
-			completion = completion.substring(prefix.length());
+			writer.appendString(completion, completionStart, completion.length);
 		}
+		writer.endString();
+		
+		writer.key("description");
+		writeDescription(writer, proposal, parameterNames);
 		
 		if (proposal.getKind() == CompletionProposal.METHOD_REF) {
-			char[][] parameterNames = proposal.findParameterNames(null);
-			if (parameterNames != null && parameterNames.length > 0 && completion.endsWith(")")) {
-				completion = completion.substring(0, completion.length() - 1);
+			writer.key("positions").beginArray();
+			if (insertParameterNames) {
+				int offset = globalOffset + (completion.length - completionStart) - 1;
 				for (int i = 0; i < parameterNames.length; i++) {
-					if (i > 0) {
-						completion += ", ";
-					}
-					completion += new String(parameterNames[i]);
+					writer.beginObject();
+					writer.key("offset").value(offset);
+					writer.key("length").value(parameterNames[i].length);
+					writer.endObject();
+					
+					offset += parameterNames[i].length;
+					offset += ", ".length();
 				}
-				completion += ")";
 			}
+			writer.endArray();
 		}
 		
-		return completion;
+		writer.key("style").value("attributedString");
+		writer.key("replace").value(true);
+		writer.endObject();
 	}
 
-	protected String getDescription(CompletionProposal proposal) {
-		StringBuilder description = new StringBuilder();
-		description.append("{");
+	protected void writeDescription(JSONStreamWriter writer, CompletionProposal proposal, char[][] parameterNames) {
+		writer.beginObject();
 		
-		if( proposal.getKind() == CompletionProposal.METHOD_REF ) {
-			description.append("\"icon\":{\"src\":\"../js/editor/textview/methpub_obj.gif\"},");
-			description.append("\"segments\": ");
-			description.append("[");
-
-			char[][] parameterNames = proposal.findParameterNames(null);
-			String[] parameters = new String[parameterNames.length];
-			for (int i = 0; i < parameterNames.length; i++) {
+		if (proposal.getKind() == CompletionProposal.METHOD_REF) {
+			writer.key("icon").beginObject().key("src").value("../js/editor/textview/methpub_obj.gif").endObject();
+			writer.key("segments").beginArray();
+			
+			String[] parameters = new String[parameterNames != null ? parameterNames.length : 0];
+			for (int i = 0; i < parameters.length; i++) {
 				parameters[i] = new String(parameterNames[i]);
 			}
 			
-			String sig = Signature.toString(
-					new String(proposal.getSignature()), 
-					new String(proposal.getName()),
-					parameters,
-					false, false);
+			String signature = new String(proposal.getSignature());
+			String sig = Signature.toString(signature, new String(proposal.getName()), parameters, false, false);
 			
-			description.append("{");
-			String result = sig + " : " + Signature.getSimpleName(Signature.toString(Signature.getReturnType(new String(proposal.getSignature()))));
-			description.append("\"value\":\"" +result +"\"");
-			description.append("}");
+			writer.beginObject().key("value").beginString()
+				.appendString(sig)
+				.appendString(" : ")
+				.appendString(Signature.getSimpleName(Signature.toString(Signature.getReturnType(signature))))
+				.endString().endObject();
+			writeDeclarationSegment(writer, Signature.getSignatureSimpleName(proposal.getDeclarationSignature()));
 			
-			description.append(",");
-			description.append("{");
-			String appendix = " - " + Signature.getSignatureSimpleName(new String(proposal.getDeclarationSignature()));
-			description.append("\"value\":\"" +appendix +"\",");
-			description.append("\"style\":{");
-			description.append("\"color\":\"#AAAAAA\"");
-			description.append("}");
-			description.append("}");
-
-			description.append("]");
-
-		} else if( proposal.getKind() == CompletionProposal.FIELD_REF ) {
-			description.append("\"icon\":{\"src\":\"../js/editor/textview/field_public_obj.gif\"},");
-			description.append("\"segments\": ");
-			description.append("[");
+			writer.endArray();
 			
-			description.append("{");
-			String result = new String(proposal.getCompletion()) + " : " + (proposal.getSignature() != null ? Signature.getSignatureSimpleName(new String(proposal.getSignature())) : "<unknown>");
-			description.append("\"value\":\"" +result +"\"");
-			description.append("}");
-
-			description.append(",");
-			description.append("{");
-			String appendix = " - " +  (proposal.getDeclarationSignature() != null ? Signature.getSignatureSimpleName(new String(proposal.getDeclarationSignature())) : "<unknown>");
-			description.append("\"value\":\"" +appendix +"\",");
-			description.append("\"style\":{");
-			description.append("\"color\":\"#AAAAAA\"");
-			description.append("}");
-			description.append("}");
-
-			description.append("]");
+		} else if (proposal.getKind() == CompletionProposal.FIELD_REF) {
+			writer.key("icon").beginObject().key("src").value("../js/editor/textview/field_public_obj.gif").endObject();
+			writer.key("segments").beginArray();
 			
-		} else if( proposal.getKind() == CompletionProposal.TYPE_REF ) {
-			if( proposal.getAccessibility() == IAccessRule.K_NON_ACCESSIBLE ) {
-				return null;
-			}
-
-			description.append("\"icon\":{\"src\":\"../js/editor/textview/class_obj.gif\"},");
-			description.append("\"segments\": ");
-			description.append("[");
+			writer.beginObject().key("value").beginString()
+				.appendString(proposal.getCompletion(), 0, proposal.getCompletion().length)
+				.appendString(" : ")
+				.appendString(proposal.getSignature() != null ? new String(Signature.getSignatureSimpleName(proposal.getSignature())) : "<unknown>")
+				.endString().endObject();
+			writeDeclarationSegment(writer, proposal.getDeclarationSignature() != null ? Signature.getSignatureSimpleName(proposal.getDeclarationSignature()) : "<unknown>".toCharArray());
 			
-			description.append("{");
-			String result = Signature.getSignatureSimpleName(new String(proposal.getSignature()));
-			description.append("\"value\":\"" +result +"\"");
-			description.append("}");
-
-			description.append(",");
-			description.append("{");
-			String appendix = " - " + new String(proposal.getDeclarationSignature());
-			description.append("\"value\":\"" +appendix +"\",");
-			description.append("\"style\":{");
-			description.append("\"color\":\"#AAAAAA\"");
-			description.append("}");
-			description.append("}");
-
-			description.append("]");
-
-		} else {
-			return null;
+			writer.endArray();
+			
+		} else if (proposal.getKind() == CompletionProposal.TYPE_REF) {
+			writer.key("icon").beginObject().key("src").value("../js/editor/textview/class_obj.gif").endObject();
+			writer.key("segments").beginArray();
+			
+			writer.beginObject().key("value").value(Signature.getSignatureSimpleName(proposal.getSignature())).endObject();
+			writeDeclarationSegment(writer, proposal.getDeclarationSignature());
+			
+			writer.endArray();
 		}
 		
-		description.append("}");
-		return description.toString();
+		writer.endObject();
+	}
+	
+	private void writeDeclarationSegment(JSONStreamWriter writer, char[] declaration) {
+		writer.beginObject();
+		writer.key("value").beginString().appendString(" - ");
+		if (declaration != null) {
+			writer.appendString(declaration, 0, declaration.length);
+		}
+		writer.endString();
+		writer.key("style").beginObject().key("color").value("#AAAAAA").endObject();
+		writer.endObject();
 	}
 
 }
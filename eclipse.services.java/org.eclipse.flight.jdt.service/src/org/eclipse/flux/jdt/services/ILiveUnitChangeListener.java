@@ -0,0 +1,22 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.jdt.services;
+
+/**
+ * Notified whenever the buffer of a live edit unit got modified.
+ *
+ * @author Martin Lippert
+ */
+public interface ILiveUnitChangeListener {
+
+	void liveUnitChanged(String resourcePath, int offset, int removedCharCount, String newText);
+
+}
@@ -10,41 +10,104 @@
 *******************************************************************************/
 package org.eclipse.flux.jdt.services;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceDescription;
 import org.eclipse.core.resources.IWorkspaceRoot;
-import org.eclipse.core.resources.IncrementalProjectBuilder;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.flux.core.AbstractMessageHandler;
+import org.eclipse.flux.core.BuildCoordinator;
 import org.eclipse.flux.core.CallbackIDAwareMessageHandler;
 import org.eclipse.flux.core.DownloadProject;
 import org.eclipse.flux.core.IMessageHandler;
 import org.eclipse.flux.core.IMessagingConnector;
 import org.eclipse.flux.core.Repository;
 import org.eclipse.flux.core.DownloadProject.CompletionCallback;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.search.IJavaSearchConstants;
+import org.eclipse.jdt.core.search.SearchEngine;
+import org.eclipse.jdt.core.search.SearchPattern;
+import org.eclipse.jdt.core.search.TypeNameRequestor;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 /**
+ * Brings the projects of the user into the workspace of a fresh service node. Projects are opened or
+ * downloaded in parallel jobs, projects that currently have live edit units are initialized first, and
+ * the JDT index and caches get warmed up in the background once a project is connected. The state of
+ * each project is tracked, so that it is visible when a project is able to serve requests.
+ *
  * @author Martin Lippert
  */
 public class InitializeServiceEnvironment {
 
+	public static final String STATE_INITIALIZING = "initializing";
+	public static final String STATE_DOWNLOADING = "downloading";
+	public static final String STATE_CONNECTED = "connected";
+	public static final String STATE_READY = "ready";
+	public static final String STATE_FAILED = "failed";
+
+	private static final boolean LOG_STATES = Boolean.getBoolean("flux-startup-timing");
+
 	private static int GET_PROJECTS_CALLBACK = "InitializeServiceEnvironment - getProjectsCallback".hashCode();
+	private static int GET_LIVE_RESOURCES_CALLBACK = "InitializeServiceEnvironment - getLiveResourcesCallback".hashCode();
 	
 	private IMessagingConnector messagingConnector;
 	private Repository repository;
+	private BuildCoordinator buildCoordinator;
 
 	private IMessageHandler getProjectsResponseHandler;
+	private IMessageHandler getLiveResourcesResponseHandler;
 	private IMessageHandler projectConnectedHandler;
 
-	public InitializeServiceEnvironment(IMessagingConnector messagingConnector, Repository repository) {
+	private final long startTime;
+	private final Map<String, String> projectStates;
+	private final ConcurrentMap<String, Job> initializeJobs;
+	private final ConcurrentMap<String, Set<String>> liveResources;
+	private final AtomicBoolean javaCoreInitialized;
+
+	public InitializeServiceEnvironment(IMessagingConnector messagingConnector, Repository repository, BuildCoordinator buildCoordinator) {
 		this.messagingConnector = messagingConnector;
 		this.repository = repository;
+		this.buildCoordinator = buildCoordinator;
+		
+		this.startTime = System.currentTimeMillis();
+		this.projectStates = new ConcurrentHashMap<String, String>();
+		this.initializeJobs = new ConcurrentHashMap<String, Job>();
+		this.liveResources = new ConcurrentHashMap<String, Set<String>>();
+		this.javaCoreInitialized = new AtomicBoolean(false);
 	}
 
 	public void start() {
+		disableAutoBuild();
+		
+		getLiveResourcesResponseHandler = new CallbackIDAwareMessageHandler("getLiveResourcesResponse", GET_LIVE_RESOURCES_CALLBACK) {
+			@Override
+			public void handleMessage(String messageType, JSONObject message) {
+				handleGetLiveResourcesResponse(message);
+			}
+		};
+		messagingConnector.addMessageHandler(getLiveResourcesResponseHandler);
+		
 		getProjectsResponseHandler = new CallbackIDAwareMessageHandler("getProjectsResponse", GET_PROJECTS_CALLBACK) {
 			@Override
 			public void handleMessage(String messageType, JSONObject message) {
@@ -61,6 +124,15 @@ public class InitializeServiceEnvironment {
 		};
 		messagingConnector.addMessageHandler(projectConnectedHandler);
 		
+		try {
+			JSONObject message = new JSONObject();
+			message.put("username", repository.getUsername());
+			message.put("callback_id", GET_LIVE_RESOURCES_CALLBACK);
+			this.messagingConnector.send("getLiveResourcesRequest", message);
+		} catch (JSONException e) {
+			e.printStackTrace();
+		}
+		
 		try {
 			JSONObject message = new JSONObject();
 			message.put("username", repository.getUsername());
@@ -69,6 +141,73 @@ public class InitializeServiceEnvironment {
 		} catch (JSONException e) {
 			e.printStackTrace();
 		}
+		
+		Job initializeJavaCoreJob = new Job("Initialize Java tooling") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				initializeJavaCore(monitor);
+				return Status.OK_STATUS;
+			}
+		};
+		initializeJavaCoreJob.setSystem(true);
+		initializeJavaCoreJob.setPriority(Job.DECORATE);
+		initializeJavaCoreJob.schedule();
+	}
+
+	/**
+	 * Remote changes arrive file by file, builds of the service workspace are therefore left to the
+	 * build coordinator, which debounces them per project instead of building after every single change.
+	 */
+	protected void disableAutoBuild() {
+		try {
+			IWorkspace workspace = ResourcesPlugin.getWorkspace();
+			IWorkspaceDescription description = workspace.getDescription();
+			if (description.isAutoBuilding()) {
+				description.setAutoBuilding(false);
+				workspace.setDescription(description);
+			}
+		} catch (CoreException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return the initialization state of the given project, <code>null</code> if the project is unknown to this service node
+	 */
+	public String getProjectState(String projectName) {
+		return projectStates.get(projectName);
+	}
+
+	public boolean isProjectReady(String projectName) {
+		return STATE_READY.equals(projectStates.get(projectName));
+	}
+
+	protected void handleGetLiveResourcesResponse(JSONObject message) {
+		try {
+			JSONArray liveUnits = message.getJSONArray("liveEditUnits");
+			for (int i = 0; i < liveUnits.length(); i++) {
+				JSONObject liveUnit = liveUnits.getJSONObject(i);
+				
+				String username = liveUnit.getString("username");
+				String projectName = liveUnit.getString("project");
+				String resource = liveUnit.getString("resource");
+				
+				if (repository.getUsername().equals(username)) {
+					Set<String> resources = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+					Set<String> existingResources = liveResources.putIfAbsent(projectName, resources);
+					(existingResources != null ? existingResources : resources).add(resource);
+					
+					// live projects go first, even if their initialization is already waiting
+					Job initializeJob = initializeJobs.get(projectName);
+					if (initializeJob != null) {
+						initializeJob.setPriority(Job.SHORT);
+					}
+				}
+			}
+		}
+		catch (JSONException e) {
+			e.printStackTrace();
+		}
 	}
 
 	protected void handleGetProjectsResponse(JSONObject message) {
@@ -102,42 +241,153 @@ public class InitializeServiceEnvironment {
 		}
 	}
 
-	private void initializeProject(String projectName) {
-		try {
-			// already connected project
-			if (repository.isConnected(projectName))
-				return;
-	
-			// project exists in workspace, but is not yet connected
-			IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
-			IProject project = root.getProject(projectName);
-			if (project.exists()) {
-				if (!project.isOpen()) {
-					project.open(null);
+	private void initializeProject(final String projectName) {
+		// already connected project
+		if (repository.isConnected(projectName))
+			return;
+		
+		Job initializeJob = new Job("Initialize project " + projectName) {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				try {
+					openOrDownloadProject(projectName);
+				}
+				catch (Exception e) {
+					initializationDone(projectName, STATE_FAILED);
+					e.printStackTrace();
 				}
-				repository.addProject(project);
-				return;
+				return Status.OK_STATUS;
 			}
-			
-			// project doesn't exist in workspace
-			DownloadProject downloadProject = new DownloadProject(messagingConnector, projectName, repository.getUsername());
-			downloadProject.run(new CompletionCallback() {
-				@Override
-				public void downloadFailed() {
+		};
+		initializeJob.setSystem(true);
+		initializeJob.setPriority(liveResources.containsKey(projectName) ? Job.SHORT : Job.LONG);
+		
+		// the entry stays until the project is available or failed, including the asynchronous download
+		if (initializeJobs.putIfAbsent(projectName, initializeJob) != null)
+			return;
+		
+		updateState(projectName, STATE_INITIALIZING);
+		initializeJob.schedule();
+	}
+
+	private void initializationDone(String projectName, String state) {
+		updateState(projectName, state);
+		initializeJobs.remove(projectName);
+	}
+
+	private void openOrDownloadProject(final String projectName) throws CoreException {
+		// project exists in workspace, but is not yet connected
+		IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+		IProject project = root.getProject(projectName);
+		if (project.exists()) {
+			if (!project.isOpen()) {
+				project.open(null);
+			}
+			projectAvailable(project);
+			initializeJobs.remove(projectName);
+			return;
+		}
+		
+		// project doesn't exist in workspace
+		updateState(projectName, STATE_DOWNLOADING);
+		DownloadProject downloadProject = new DownloadProject(messagingConnector, projectName, repository.getUsername());
+		downloadProject.run(new CompletionCallback() {
+			@Override
+			public void downloadFailed() {
+				initializationDone(projectName, STATE_FAILED);
+			}
+			@Override
+			public void downloadComplete(IProject project) {
+				try {
+					projectAvailable(project);
+				}
+				finally {
+					initializeJobs.remove(projectName);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Connects the project right away, so that live edit units can be served, and leaves the build
+	 * to the build coordinator and the warm up of the Java tooling to a background job.
+	 */
+	private void projectAvailable(final IProject project) {
+		repository.addProject(project);
+		updateState(project.getName(), STATE_CONNECTED);
+		buildCoordinator.scheduleBuild(project);
+		
+		Job warmupJob = new Job("Warm up project " + project.getName()) {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				try {
+					warmupProject(project, monitor);
+					updateState(project.getName(), STATE_READY);
+				}
+				catch (OperationCanceledException e) {
+					return Status.CANCEL_STATUS;
+				}
+				catch (Exception e) {
+					e.printStackTrace();
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		warmupJob.setSystem(true);
+		warmupJob.setPriority(Job.BUILD);
+		warmupJob.schedule();
+	}
+
+	protected void initializeJavaCore(IProgressMonitor monitor) {
+		if (javaCoreInitialized.compareAndSet(false, true)) {
+			try {
+				JavaCore.initializeAfterLoad(monitor);
+			}
+			catch (CoreException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Waits for the index of the project to be ready and computes the supertype hierarchies of the types
+	 * of the live edit units in that project, which fills the JDT model caches for these types.
+	 */
+	protected void warmupProject(IProject project, IProgressMonitor monitor) throws CoreException {
+		initializeJavaCore(monitor);
+		
+		IJavaProject javaProject = JavaCore.create(project);
+		if (javaProject == null || !javaProject.exists()) {
+			return;
+		}
+		
+		SearchEngine searchEngine = new SearchEngine();
+		searchEngine.searchAllTypeNames(null, SearchPattern.R_EXACT_MATCH, "!@$#!@".toCharArray(),
+				SearchPattern.R_PATTERN_MATCH | SearchPattern.R_CASE_SENSITIVE, IJavaSearchConstants.TYPE,
+				SearchEngine.createJavaSearchScope(new IJavaElement[] {javaProject}), new TypeNameRequestor() {},
+				IJavaSearchConstants.WAIT_UNTIL_READY_TO_SEARCH, monitor);
+		
+		Set<String> resources = liveResources.get(project.getName());
+		if (resources != null) {
+			for (String resource : resources) {
+				if (monitor.isCanceled()) {
+					return;
 				}
-				@Override
-				public void downloadComplete(IProject project) {
-					try {
-						project.build(IncrementalProjectBuilder.FULL_BUILD, null);
-					} catch (CoreException e) {
-						e.printStackTrace();
+				IFile file = project.getFile(resource);
+				IJavaElement element = JavaCore.create(file);
+				if (element instanceof ICompilationUnit && element.exists()) {
+					for (IType type : ((ICompilationUnit) element).getTypes()) {
+						type.newSupertypeHierarchy(monitor);
 					}
-					repository.addProject(project);
 				}
-			});
+			}
 		}
-		catch (Exception e) {
-			e.printStackTrace();
+	}
+
+	private void updateState(String projectName, String state) {
+		projectStates.put(projectName, state);
+		if (LOG_STATES) {
+			System.out.println("project " + projectName + " " + state + " (" + (System.currentTimeMillis() - startTime) + "ms after service start)");
 		}
 	}
 
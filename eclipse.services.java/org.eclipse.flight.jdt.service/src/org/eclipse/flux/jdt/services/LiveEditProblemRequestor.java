@@ -11,15 +11,23 @@
 package org.eclipse.flux.jdt.services;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.eclipse.flux.core.IMessagingConnector;
 import org.eclipse.jdt.core.IProblemRequestor;
 import org.eclipse.jdt.core.compiler.IProblem;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 /**
+ * Publishes the problems of a live edit unit. After a reconcile only the problems that got added or removed
+ * since the last published set are sent (as <code>liveMetadataChanged</code> with <code>added</code> and
+ * <code>removed</code>), nothing is sent if the problems didn't change. Every published change carries a
+ * sequence number, clients that missed one ask for the complete set via <code>getLiveMetadataRequest</code>.
+ *
  * @author Martin Lippert
  */
 public class LiveEditProblemRequestor implements IProblemRequestor {
@@ -29,6 +37,9 @@ public class LiveEditProblemRequestor implements IProblemRequestor {
 	private List<IProblem> problems;
 	private String username;
 	private String projectName;
+	
+	private Map<String, JSONObject> publishedProblems;
+	private long sequence;
 
 	public LiveEditProblemRequestor(IMessagingConnector messagingConnector, String username, String projectName, String resourcePath) {
 		this.messagingConnector = messagingConnector;
@@ -37,6 +48,7 @@ public class LiveEditProblemRequestor implements IProblemRequestor {
 		this.resourcePath = resourcePath;
 
 		this.problems = new ArrayList<IProblem>();
+		this.publishedProblems = new LinkedHashMap<String, JSONObject>();
 	}
 
 	@Override
@@ -59,15 +71,42 @@ public class LiveEditProblemRequestor implements IProblemRequestor {
 		return true;
 	}
 
-	private void sendMarkers(IProblem[] problems) {
-		String problemsJSON = toJSON(problems);
+	private synchronized void sendMarkers(IProblem[] problems) {
 		try {
-			JSONArray array = new JSONArray(problemsJSON);
+			Map<String, JSONObject> currentProblems = new LinkedHashMap<String, JSONObject>();
+			for (IProblem problem : problems) {
+				JSONObject problemObject = toJSON(problem);
+				currentProblems.put(problemObject.getString("id"), problemObject);
+			}
+			
+			JSONArray removed = new JSONArray();
+			for (String id : publishedProblems.keySet()) {
+				if (!currentProblems.containsKey(id)) {
+					removed.put(id);
+				}
+			}
+			
+			JSONArray added = new JSONArray();
+			for (Map.Entry<String, JSONObject> problem : currentProblems.entrySet()) {
+				if (!publishedProblems.containsKey(problem.getKey())) {
+					added.put(problem.getValue());
+				}
+			}
+			
+			if (added.length() == 0 && removed.length() == 0) {
+				return;
+			}
+			
+			this.publishedProblems = currentProblems;
+			this.sequence++;
+			
 			JSONObject message = new JSONObject();
 			message.put("username", this.username);
 			message.put("project", this.projectName);
 			message.put("resource", this.resourcePath);
-			message.put("problems", array);
+			message.put("sequence", this.sequence);
+			message.put("added", added);
+			message.put("removed", removed);
 			
 			messagingConnector.send("liveMetadataChanged", message);
 			System.out.println("livemetadata transmitted");
@@ -75,31 +114,45 @@ public class LiveEditProblemRequestor implements IProblemRequestor {
 			e.printStackTrace();
 		}
 	}
-
-	private String toJSON(IProblem[] problems) {
-		StringBuilder result = new StringBuilder();
-		boolean flag = false;
-		result.append("[");
-		for (IProblem problem : problems) {
-			if (flag) {
-				result.append(",");
+	
+	/**
+	 * sends the complete set of published problems, together with the sequence number of the last published change
+	 */
+	public synchronized void sendSnapshot(String requestSenderID, int callbackID) {
+		try {
+			JSONArray array = new JSONArray();
+			for (JSONObject problem : publishedProblems.values()) {
+				array.put(problem);
 			}
-
-			result.append("{");
-			result.append("\"description\":" + JSONObject.quote(problem.getMessage()));
-			result.append(",\"line\":" + problem.getSourceLineNumber());
-			result.append(",\"severity\":\"" + (problem.isError() ? "error" : "warning") + "\"");
-			result.append(",\"start\":" + problem.getSourceStart());
 			
-			int end = problem.getSourceEnd() + 1;
+			JSONObject message = new JSONObject();
+			message.put("requestSenderID", requestSenderID);
+			message.put("callback_id", callbackID);
+			message.put("username", this.username);
+			message.put("project", this.projectName);
+			message.put("resource", this.resourcePath);
+			message.put("sequence", this.sequence);
+			message.put("problems", array);
 			
-			result.append(",\"end\":" + end);
-			result.append("}");
-
-			flag = true;
+			messagingConnector.send("getLiveMetadataResponse", message);
+		} catch (Exception e) {
+			e.printStackTrace();
 		}
-		result.append("]");
-		return result.toString();
+	}
+
+	private JSONObject toJSON(IProblem problem) throws JSONException {
+		int start = problem.getSourceStart();
+		int end = problem.getSourceEnd() + 1;
+		String description = problem.getMessage();
+		
+		JSONObject result = new JSONObject();
+		result.put("id", problem.getID() + ":" + start + ":" + end + ":" + Integer.toHexString(description.hashCode()));
+		result.put("description", description);
+		result.put("line", problem.getSourceLineNumber());
+		result.put("severity", problem.isError() ? "error" : "warning");
+		result.put("start", start);
+		result.put("end", end);
+		return result;
 	}
 
 }
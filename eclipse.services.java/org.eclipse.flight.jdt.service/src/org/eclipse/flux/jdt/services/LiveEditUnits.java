@@ -10,28 +10,31 @@
 *******************************************************************************/
 package org.eclipse.flux.jdt.services;
 
+import java.util.Collection;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.eclipse.core.resources.IFile;
-import org.eclipse.core.resources.IMarkerDelta;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceChangeEvent;
-import org.eclipse.core.resources.IResourceChangeListener;
 import org.eclipse.core.resources.IResourceDelta;
-import org.eclipse.core.resources.IResourceDeltaVisitor;
 import org.eclipse.core.resources.ResourcesPlugin;
-import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.flux.core.AbstractMessageHandler;
 import org.eclipse.flux.core.CallbackIDAwareMessageHandler;
 import org.eclipse.flux.core.IConnectionListener;
 import org.eclipse.flux.core.ILiveEditConnector;
 import org.eclipse.flux.core.IMessagingConnector;
 import org.eclipse.flux.core.IRepositoryListener;
+import org.eclipse.flux.core.IResourceDeltaSubscriber;
+import org.eclipse.flux.core.LiveDocument;
 import org.eclipse.flux.core.LiveEditCoordinator;
 import org.eclipse.flux.core.Repository;
+import org.eclipse.flux.core.ResourceDeltaDispatcher;
 import org.eclipse.jdt.core.IBuffer;
 import org.eclipse.jdt.core.ICompilationUnit;
 import org.eclipse.jdt.core.IProblemRequestor;
@@ -51,16 +54,24 @@ public class LiveEditUnits {
 	private static int GET_LIVE_RESOURCES_CALLBACK = "LiveEditUnits - getLiveResourcesCallback".hashCode();
 	
 	private ConcurrentMap<String, ICompilationUnit> liveEditUnits;
+	private ConcurrentMap<String, LiveEditProblemRequestor> problemRequestors;
+	private ConcurrentMap<String, AtomicLong> contentVersions;
+	private ReconcileScheduler reconcileScheduler;
 	private Repository repository;
 	private IMessagingConnector messagingConnector;
 	private LiveEditCoordinator liveEditCoordinator;
+	private Collection<ILiveUnitChangeListener> liveUnitChangeListeners;
 	
-	public LiveEditUnits(IMessagingConnector messagingConnector, LiveEditCoordinator liveEditCoordinator, Repository repository) {
+	public LiveEditUnits(IMessagingConnector messagingConnector, LiveEditCoordinator liveEditCoordinator, Repository repository, ResourceDeltaDispatcher resourceDeltaDispatcher) {
 		this.messagingConnector = messagingConnector;
 		this.liveEditCoordinator = liveEditCoordinator;
 		this.repository = repository;
 
 		this.liveEditUnits = new ConcurrentHashMap<String, ICompilationUnit>();
+		this.problemRequestors = new ConcurrentHashMap<String, LiveEditProblemRequestor>();
+		this.contentVersions = new ConcurrentHashMap<String, AtomicLong>();
+		this.reconcileScheduler = new ReconcileScheduler();
+		this.liveUnitChangeListeners = new ConcurrentLinkedDeque<>();
 		
 		ILiveEditConnector liveEditConnector = new ILiveEditConnector() {
 			@Override
@@ -98,12 +109,16 @@ public class LiveEditUnits {
 		});
 		
 		this.repository.addRepositoryListener(new IRepositoryListener() {
+			@Override
+			public void projectConnecting(IProject project) {
+			}
 			@Override
 			public void projectConnected(IProject project) {
 				startupConnectedProject(project);
 			}
 			@Override
 			public void projectDisconnected(IProject project) {
+				removeLiveUnits(project.getName());
 			}
 		});
 		
@@ -118,23 +133,32 @@ public class LiveEditUnits {
 			}
 		});
 		
-		IResourceChangeListener metadataChangeListener = new IResourceChangeListener() {
+		messagingConnector.addMessageHandler(new AbstractMessageHandler("getLiveMetadataRequest") {
 			@Override
-			public void resourceChanged(IResourceChangeEvent event) {
-				try {
-					event.getDelta().accept(new IResourceDeltaVisitor() {
-						@Override
-						public boolean visit(IResourceDelta delta) throws CoreException {
-							checkForLiveUnitsInvolved(delta);
-							return true;
-						}
-					});
-				} catch (CoreException e) {
-					e.printStackTrace();
-				}
+			public void handleMessage(String messageType, JSONObject message) {
+				getLiveMetadata(message);
 			}
-		};
-		ResourcesPlugin.getWorkspace().addResourceChangeListener(metadataChangeListener, IResourceChangeEvent.POST_BUILD);
+		});
+		
+		resourceDeltaDispatcher.addSubscriber(new IResourceDeltaSubscriber() {
+			@Override
+			public void resourceChanged(IResourceDelta delta) {
+				checkForLiveUnitsInvolved(delta);
+			}
+			@Override
+			public void deltasDispatched() {
+			}
+		}, IResourceChangeEvent.POST_BUILD, ResourceDeltaDispatcher.MARKERS);
+		
+		resourceDeltaDispatcher.addSubscriber(new IResourceDeltaSubscriber() {
+			@Override
+			public void resourceChanged(IResourceDelta delta) {
+				checkForLiveUnitsRemoved(delta);
+			}
+			@Override
+			public void deltasDispatched() {
+			}
+		}, IResourceChangeEvent.POST_CHANGE, ResourceDeltaDispatcher.RESOURCES);
 	}
 	
 	protected void startup() {
@@ -201,6 +225,21 @@ public class LiveEditUnits {
 		}
 	}
 
+	protected void getLiveMetadata(JSONObject message) {
+		try {
+			String username = message.getString("username");
+			String resourcePath = message.getString("project") + "/" + message.getString("resource");
+			
+			LiveEditProblemRequestor problemRequestor = problemRequestors.get(resourcePath);
+			if (repository.getUsername().equals(username) && problemRequestor != null) {
+				problemRequestor.sendSnapshot(message.getString("requestSenderID"), message.getInt("callback_id"));
+			}
+		}
+		catch (JSONException e) {
+			e.printStackTrace();
+		}
+	}
+
 	protected void startLiveUnit(String requestSenderID, int callbackID, String username, String resourcePath, String hash, long timestamp) {
 		if (repository.getUsername().equals(username) && resourcePath.endsWith(".java")) {
 			
@@ -210,10 +249,24 @@ public class LiveEditUnits {
 			ICompilationUnit liveUnit = liveEditUnits.get(resourcePath);
 			if (liveUnit != null) {
 				try {
-					String liveContent = liveUnit.getBuffer().getContents();
-					String liveUnitHash = DigestUtils.shaHex(liveContent);
-					if (!liveUnitHash.equals(hash)) {
-						liveEditCoordinator.sendLiveEditStartedResponse(LIVE_EDIT_CONNECTOR_ID, requestSenderID, callbackID, username, projectName, relativeResourcePath, hash, timestamp, liveContent);
+					LiveDocument document = getLiveDocument(resourcePath, liveUnit);
+					if (document.isKnownToDiffer(hash)) {
+						liveEditCoordinator.sendLiveEditStartedResponse(LIVE_EDIT_CONNECTOR_ID, requestSenderID, callbackID, username, projectName, relativeResourcePath, hash, timestamp, document.getContent());
+					}
+					else {
+						LiveDocument snapshot = document.snapshot();
+						String liveUnitHash = snapshot.getKnownHash();
+						String liveContent = null;
+						if (liveUnitHash == null) {
+							liveContent = snapshot.getContent();
+							liveUnitHash = DigestUtils.shaHex(liveContent);
+							repository.getContentCache().put(liveUnitHash, liveContent);
+							document.rememberHash(snapshot, liveUnitHash);
+						}
+						if (!liveUnitHash.equals(hash)) {
+							liveEditCoordinator.sendLiveEditStartedResponse(LIVE_EDIT_CONNECTOR_ID, requestSenderID, callbackID, username, projectName, relativeResourcePath, hash, timestamp,
+									liveContent != null ? liveContent : snapshot.getContent());
+						}
 					}
 				}
 				catch (JavaModelException e) {
@@ -234,6 +287,8 @@ public class LiveEditUnits {
 								}
 							}, new NullProgressMonitor());
 							liveEditUnits.put(resourcePath, liveUnit);
+							problemRequestors.put(resourcePath, liveEditProblemRequestor);
+							getLiveDocument(resourcePath, liveUnit);
 						} catch (JavaModelException e) {
 							e.printStackTrace();
 						}
@@ -242,11 +297,7 @@ public class LiveEditUnits {
 			}
 			
 			if (liveUnit != null) {
-				try {
-					liveUnit.reconcile(ICompilationUnit.NO_AST, true, null, null);
-				} catch (JavaModelException e) {
-					e.printStackTrace();
-				}
+				reconcileScheduler.reconcileEdited(resourcePath, liveUnit);
 			}
 		}
 	}
@@ -258,13 +309,14 @@ public class LiveEditUnits {
 			ICompilationUnit liveUnit = liveEditUnits.get(resourcePath);
 			if (liveUnit != null) {
 				try {
-					String liveContent = liveUnit.getBuffer().getContents();
-					String liveUnitHash = DigestUtils.shaHex(liveContent);
-
-					String remoteContentHash = DigestUtils.shaHex(remoteContent);
-					if (!liveUnitHash.equals(remoteContentHash)) {
-						liveUnit.getBuffer().setContents(remoteContent);
-						liveUnit.reconcile(ICompilationUnit.NO_AST, true, null, null);
+					LiveDocument document = getLiveDocument(resourcePath, liveUnit);
+					int[] region = document.setContent(remoteContent);
+					if (region != null) {
+						String replacement = remoteContent.substring(region[0], region[0] + region[2]);
+						incrementContentVersion(resourcePath);
+						liveUnit.getBuffer().replace(region[0], region[1], replacement);
+						notifyLiveUnitChanged(resourcePath, region[0], region[1], replacement);
+						reconcileScheduler.reconcileEdited(resourcePath, liveUnit);
 					}
 				}
 				catch (JavaModelException e) {
@@ -276,14 +328,15 @@ public class LiveEditUnits {
 
 	protected void modelChanged(String username, String resourcePath, int offset, int removedCharacterCount, String newText) {
 		if (repository.getUsername().equals(username) && liveEditUnits.containsKey(resourcePath)) {
-			System.out.println("live edit compilation unit found");
 			ICompilationUnit unit = liveEditUnits.get(resourcePath);
 			try {
 				IBuffer buffer = unit.getBuffer();
+				incrementContentVersion(resourcePath);
 				buffer.replace(offset, removedCharacterCount, newText);
+				notifyLiveUnitChanged(resourcePath, offset, removedCharacterCount, newText);
 
 				if (removedCharacterCount > 0 || newText.length() > 0) {
-					unit.reconcile(ICompilationUnit.NO_AST, true, null, null);
+					reconcileScheduler.reconcileEdited(resourcePath, unit);
 				}
 
 			} catch (JavaModelException e) {
@@ -292,22 +345,96 @@ public class LiveEditUnits {
 		}
 	}
 	
+	/**
+	 * @return the version of the content of the live unit, which changes before every edit of its buffer. Requests
+	 * that are computed in the background compare the version from the time they were received with the current one
+	 * to find out whether the buffer got edited in the meantime, in which case their offsets don't fit anymore.
+	 */
+	public long getContentVersion(String resourcePath) {
+		AtomicLong version = contentVersions.get(resourcePath);
+		return version != null ? version.get() : 0;
+	}
+
+	protected void incrementContentVersion(String resourcePath) {
+		AtomicLong version = contentVersions.get(resourcePath);
+		if (version == null) {
+			contentVersions.putIfAbsent(resourcePath, new AtomicLong());
+			version = contentVersions.get(resourcePath);
+		}
+		version.incrementAndGet();
+	}
+
+	/**
+	 * @return the document that tracks the live content of the unit, created from the buffer if there is none yet
+	 */
+	protected LiveDocument getLiveDocument(String resourcePath, ICompilationUnit liveUnit) throws JavaModelException {
+		LiveDocument document = liveEditCoordinator.getLiveDocument(resourcePath);
+		if (document == null) {
+			document = new LiveDocument(liveUnit.getBuffer().getContents());
+			liveEditCoordinator.addLiveDocument(resourcePath, document);
+		}
+		return document;
+	}
+	
 	protected void checkForLiveUnitsInvolved(IResourceDelta delta) {
-		IProject project = delta.getResource().getProject();
-		IMarkerDelta[] markerDeltas = delta.getMarkerDeltas();
-		if (project != null && repository.isConnected(project) && markerDeltas != null && markerDeltas.length > 0) {
-			IResource resource = delta.getResource();
-			String resourcePath = project.getName() + "/" + resource.getProjectRelativePath().toString();
+		IResource resource = delta.getResource();
+		if (resource.getType() == IResource.FILE) {
+			String resourcePath = resource.getProject().getName() + "/" + resource.getProjectRelativePath().toString();
 			
 			ICompilationUnit unit = getLiveEditUnit(repository.getUsername(), resourcePath);
 			if (unit != null) {
-				try {
-					unit.reconcile(ICompilationUnit.NO_AST, true, null, null);
-				} catch (JavaModelException e) {
-					e.printStackTrace();
-				}
+				reconcileScheduler.reconcileAfterBuild(resourcePath, unit);
+			}
+		}
+	}
+	
+	protected void checkForLiveUnitsRemoved(IResourceDelta delta) {
+		IResource resource = delta.getResource();
+		if (delta.getKind() == IResourceDelta.REMOVED && resource.getType() == IResource.FILE) {
+			removeLiveUnit(resource.getProject().getName() + "/" + resource.getProjectRelativePath().toString());
+		}
+	}
+	
+	protected void removeLiveUnits(String projectName) {
+		for (String resourcePath : liveEditUnits.keySet()) {
+			if (resourcePath.startsWith(projectName + "/")) {
+				removeLiveUnit(resourcePath);
 			}
 		}
 	}
+	
+	/**
+	 * forgets the live unit of the resource together with its live document and live edit state, the content version
+	 * is kept so that it keeps increasing if the resource gets live edited again
+	 */
+	protected void removeLiveUnit(String resourcePath) {
+		ICompilationUnit liveUnit = liveEditUnits.remove(resourcePath);
+		problemRequestors.remove(resourcePath);
+		
+		if (liveUnit != null) {
+			String projectName = resourcePath.substring(0, resourcePath.indexOf('/'));
+			liveEditCoordinator.sendLiveEditClosedMessage(repository.getUsername(), projectName, resourcePath.substring(projectName.length() + 1));
+			
+			try {
+				liveUnit.discardWorkingCopy();
+			} catch (JavaModelException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	public void addLiveUnitChangeListener(ILiveUnitChangeListener listener) {
+		this.liveUnitChangeListeners.add(listener);
+	}
+	
+	public void removeLiveUnitChangeListener(ILiveUnitChangeListener listener) {
+		this.liveUnitChangeListeners.remove(listener);
+	}
+	
+	protected void notifyLiveUnitChanged(String resourcePath, int offset, int removedCharCount, String newText) {
+		for (ILiveUnitChangeListener listener : this.liveUnitChangeListeners) {
+			listener.liveUnitChanged(resourcePath, offset, removedCharCount, newText);
+		}
+	}
 
 }
@@ -11,6 +11,11 @@
 package org.eclipse.flux.jdt.services;
 
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.flux.core.AbstractMessageHandler;
 import org.eclipse.flux.core.IMessageHandler;
 import org.eclipse.flux.core.IMessagingConnector;
@@ -30,10 +35,12 @@ public class NavigationService {
 
 	private LiveEditUnits liveEditUnits;
 	private IMessagingConnector messagingConnector;
+	private ServiceRequestScheduler requestScheduler;
 
 	public NavigationService(IMessagingConnector messagingConnector, LiveEditUnits liveEditUnits) {
 		this.messagingConnector = messagingConnector;
 		this.liveEditUnits = liveEditUnits;
+		this.requestScheduler = new ServiceRequestScheduler();
 		
 		IMessageHandler contentAssistRequestHandler = new AbstractMessageHandler("navigationrequest") {
 			@Override
@@ -46,44 +53,83 @@ public class NavigationService {
 	
 	protected void handleNavigationRequest(JSONObject message) {
 		try {
-			String username = message.getString("username");
-			String projectName = message.getString("project");
-			String resourcePath = message.getString("resource");
-			int callbackID = message.getInt("callback_id");
+			final String username = message.getString("username");
+			final String projectName = message.getString("project");
+			final String resourcePath = message.getString("resource");
+			final int callbackID = message.getInt("callback_id");
 			
-			String liveEditID = projectName + "/" + resourcePath;
+			final String liveEditID = projectName + "/" + resourcePath;
 			if (liveEditUnits.isLiveEditResource(username, liveEditID)) {
 
-				int offset = message.getInt("offset");
-				int length = message.getInt("length");
-				String sender = message.getString("requestSenderID");
+				final int offset = message.getInt("offset");
+				final int length = message.getInt("length");
+				final String sender = message.getString("requestSenderID");
+				final long contentVersion = liveEditUnits.getContentVersion(liveEditID);
 
-				JSONObject navigationResult = computeNavigation(username, liveEditID, offset, length);
-				
-				if (navigationResult != null) {
-					JSONObject responseMessage = new JSONObject();
-					responseMessage.put("username", username);
-					responseMessage.put("project", projectName);
-					responseMessage.put("resource", resourcePath);
-					responseMessage.put("callback_id", callbackID);
-					responseMessage.put("requestSenderID", sender);
-					responseMessage.put("navigation", navigationResult);
-	
-					messagingConnector.send("navigationresponse", responseMessage);
-				}
+				Job navigationJob = new Job("Navigation for " + liveEditID) {
+					@Override
+					protected IStatus run(IProgressMonitor monitor) {
+						try {
+							JSONObject navigationResult = computeNavigation(username, liveEditID, offset, length, monitor);
+							if (monitor.isCanceled()) {
+								return Status.CANCEL_STATUS;
+							}
+							
+							// the buffer got edited after the request, the result doesn't fit the offset anymore
+							JSONObject responseMessage = createResponse(username, projectName, resourcePath, callbackID, sender);
+							if (liveEditUnits.getContentVersion(liveEditID) != contentVersion) {
+								responseMessage.put("outdated", true);
+							}
+							else if (navigationResult != null) {
+								responseMessage.put("navigation", navigationResult);
+							}
+							messagingConnector.send("navigationresponse", responseMessage);
+						} catch (JSONException e) {
+							e.printStackTrace();
+						}
+						return Status.OK_STATUS;
+					}
+				};
+				Runnable canceledResponse = new Runnable() {
+					@Override
+					public void run() {
+						try {
+							JSONObject responseMessage = createResponse(username, projectName, resourcePath, callbackID, sender);
+							responseMessage.put("canceled", true);
+							messagingConnector.send("navigationresponse", responseMessage);
+						} catch (JSONException e) {
+							e.printStackTrace();
+						}
+					}
+				};
+				requestScheduler.schedule("navigationrequest", sender, liveEditID, navigationJob, canceledResponse);
 			}
 		} catch (JSONException e) {
 			e.printStackTrace();
 		}
 	}
 
+	protected JSONObject createResponse(String username, String projectName, String resourcePath, int callbackID, String sender) throws JSONException {
+		JSONObject responseMessage = new JSONObject();
+		responseMessage.put("username", username);
+		responseMessage.put("project", projectName);
+		responseMessage.put("resource", resourcePath);
+		responseMessage.put("callback_id", callbackID);
+		responseMessage.put("requestSenderID", sender);
+		return responseMessage;
+	}
+
 	public JSONObject computeNavigation(String username, String requestorResourcePath, int offset, int length) {
+		return computeNavigation(username, requestorResourcePath, offset, length, new NullProgressMonitor());
+	}
+
+	public JSONObject computeNavigation(String username, String requestorResourcePath, int offset, int length, IProgressMonitor monitor) {
 		try {
 			ICompilationUnit liveEditUnit = liveEditUnits.getLiveEditUnit(username, requestorResourcePath);
-			if (liveEditUnit != null) {
+			if (liveEditUnit != null && !monitor.isCanceled()) {
 				IJavaElement[] elements = liveEditUnit.codeSelect(offset, length);
 	
-				if (elements != null && elements.length > 0) {
+				if (elements != null && elements.length > 0 && !monitor.isCanceled()) {
 					JSONObject result = new JSONObject();
 					
 					IJavaElement element = elements[0];
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.jdt.services;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.IJobManager;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.JavaModelException;
+
+/**
+ * Reconciles live units (and so reports their problems) in the background. Reconciles of a unit are
+ * merged while one is waiting, and a unit is not reconciled more often than once per interval
+ * (<code>flux-reconcile-interval</code>).
+ *
+ * Units that got edited recently are reconciled with interactive priority. Reconciles caused by builds
+ * (e.g. changed markers) are delayed (<code>flux-reconcile-build-delay</code>), run with the lowest priority
+ * and wait until no build is running anymore.
+ *
+ * @author Martin Lippert
+ */
+public class ReconcileScheduler {
+
+	private static final long INTERVAL = Long.getLong("flux-reconcile-interval", 200);
+	private static final long BUILD_DELAY = Long.getLong("flux-reconcile-build-delay", 1000);
+	private static final long RECENTLY_EDITED = 5000;
+
+	private ConcurrentMap<String, ReconcileJob> reconcileJobs;
+
+	public ReconcileScheduler() {
+		this.reconcileJobs = new ConcurrentHashMap<String, ReconcileJob>();
+	}
+
+	/**
+	 * reconciles the unit soon, because it got edited
+	 */
+	public void reconcileEdited(String resourcePath, ICompilationUnit unit) {
+		getReconcileJob(resourcePath, unit).request(true);
+	}
+
+	/**
+	 * reconciles the unit once the build is finished
+	 */
+	public void reconcileAfterBuild(String resourcePath, ICompilationUnit unit) {
+		getReconcileJob(resourcePath, unit).request(false);
+	}
+
+	protected ReconcileJob getReconcileJob(String resourcePath, ICompilationUnit unit) {
+		ReconcileJob job = reconcileJobs.get(resourcePath);
+		if (job == null || job.unit != unit) {
+			ReconcileJob newJob = new ReconcileJob(resourcePath, unit);
+			if (job == null) {
+				job = reconcileJobs.putIfAbsent(resourcePath, newJob);
+				if (job == null) {
+					job = newJob;
+				}
+			}
+			else if (reconcileJobs.replace(resourcePath, job, newJob)) {
+				job.cancel();
+				job = newJob;
+			}
+			else {
+				job = reconcileJobs.get(resourcePath);
+			}
+		}
+		return job;
+	}
+
+	protected static boolean isBuildRunning() {
+		IJobManager jobManager = Job.getJobManager();
+		return jobManager.find(ResourcesPlugin.FAMILY_AUTO_BUILD).length > 0 || jobManager.find(ResourcesPlugin.FAMILY_MANUAL_BUILD).length > 0;
+	}
+
+	private static class ReconcileJob extends Job {
+
+		private final ICompilationUnit unit;
+
+		private boolean waiting;
+		private boolean running;
+		private boolean requestedWhileRunning;
+		private long lastEdit;
+		private long lastReconcile;
+
+		public ReconcileJob(String resourcePath, ICompilationUnit unit) {
+			super("Reconcile " + resourcePath);
+			this.unit = unit;
+			setSystem(true);
+		}
+
+		public synchronized void request(boolean edited) {
+			long now = System.currentTimeMillis();
+			if (edited) {
+				lastEdit = now;
+			}
+
+			if (running) {
+				requestedWhileRunning = true;
+				return;
+			}
+
+			if (waiting) {
+				// an edit doesn't wait for a reconcile that got delayed for a build
+				if (edited && getPriority() != INTERACTIVE && cancel()) {
+					waiting = false;
+				}
+				else {
+					return;
+				}
+			}
+
+			long delay = Math.max(0, lastReconcile + INTERVAL - now);
+			if (!edited) {
+				delay = Math.max(delay, BUILD_DELAY);
+			}
+			setPriority(now - lastEdit < RECENTLY_EDITED ? INTERACTIVE : DECORATE);
+			waiting = true;
+			schedule(delay);
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			synchronized (this) {
+				waiting = false;
+				if (getPriority() != INTERACTIVE && isBuildRunning()) {
+					waiting = true;
+					schedule(BUILD_DELAY);
+					return Status.OK_STATUS;
+				}
+				running = true;
+				requestedWhileRunning = false;
+				lastReconcile = System.currentTimeMillis();
+			}
+
+			try {
+				unit.reconcile(ICompilationUnit.NO_AST, true, null, monitor);
+			}
+			catch (JavaModelException e) {
+				e.printStackTrace();
+			}
+			catch (OperationCanceledException e) {
+				return Status.CANCEL_STATUS;
+			}
+			finally {
+				synchronized (this) {
+					running = false;
+					if (requestedWhileRunning) {
+						requestedWhileRunning = false;
+						setPriority(System.currentTimeMillis() - lastEdit < RECENTLY_EDITED ? INTERACTIVE : DECORATE);
+						waiting = true;
+						schedule(INTERVAL);
+					}
+				}
+			}
+			return Status.OK_STATUS;
+		}
+
+	}
+
+}
@@ -13,6 +13,12 @@ package org.eclipse.flux.jdt.services;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.flux.core.AbstractMessageHandler;
 import org.eclipse.flux.core.IMessageHandler;
 import org.eclipse.flux.core.IMessagingConnector;
@@ -34,10 +40,12 @@ public class RenameService {
 
 	private LiveEditUnits liveEditUnits;
 	private IMessagingConnector messagingConnector;
+	private ServiceRequestScheduler requestScheduler;
 
 	public RenameService(IMessagingConnector messagingConnector, LiveEditUnits liveEditUnits) {
 		this.messagingConnector = messagingConnector;
 		this.liveEditUnits = liveEditUnits;
+		this.requestScheduler = new ServiceRequestScheduler();
 		
 		IMessageHandler contentAssistRequestHandler = new AbstractMessageHandler("renameinfilerequest") {
 			@Override
@@ -50,38 +58,79 @@ public class RenameService {
 	
 	protected void handleRenameInFileRequest(JSONObject message) {
 		try {
-			String username = message.getString("username");
-			String projectName = message.getString("project");
-			String resourcePath = message.getString("resource");
-			int callbackID = message.getInt("callback_id");
+			final String username = message.getString("username");
+			final String projectName = message.getString("project");
+			final String resourcePath = message.getString("resource");
+			final int callbackID = message.getInt("callback_id");
 			
-			String liveEditID = projectName + "/" + resourcePath;
+			final String liveEditID = projectName + "/" + resourcePath;
 			if (liveEditUnits.isLiveEditResource(username, liveEditID)) {
 
-				int offset = message.getInt("offset");
-				int length = message.getInt("length");
-				String sender = message.getString("requestSenderID");
+				final int offset = message.getInt("offset");
+				final int length = message.getInt("length");
+				final String sender = message.getString("requestSenderID");
+				final long contentVersion = liveEditUnits.getContentVersion(liveEditID);
 
-				JSONArray references = computeReferences(username, liveEditID, offset, length);
-				
-				if (references != null) {
-					JSONObject responseMessage = new JSONObject();
-					responseMessage.put("username", username);
-					responseMessage.put("project", projectName);
-					responseMessage.put("resource", resourcePath);
-					responseMessage.put("callback_id", callbackID);
-					responseMessage.put("requestSenderID", sender);
-					responseMessage.put("references", references);
-	
-					messagingConnector.send("renameinfileresponse", responseMessage);
-				}
+				Job renameJob = new Job("Rename in file for " + liveEditID) {
+					@Override
+					protected IStatus run(IProgressMonitor monitor) {
+						try {
+							JSONArray references = computeReferences(username, liveEditID, offset, length, monitor);
+							if (monitor.isCanceled()) {
+								return Status.CANCEL_STATUS;
+							}
+							
+							// the buffer got edited after the request, the result doesn't fit the offset anymore
+							JSONObject responseMessage = createResponse(username, projectName, resourcePath, callbackID, sender);
+							if (liveEditUnits.getContentVersion(liveEditID) != contentVersion) {
+								responseMessage.put("outdated", true);
+							}
+							else if (references != null) {
+								responseMessage.put("references", references);
+							}
+							messagingConnector.send("renameinfileresponse", responseMessage);
+						} catch (OperationCanceledException e) {
+							return Status.CANCEL_STATUS;
+						} catch (JSONException e) {
+							e.printStackTrace();
+						}
+						return Status.OK_STATUS;
+					}
+				};
+				Runnable canceledResponse = new Runnable() {
+					@Override
+					public void run() {
+						try {
+							JSONObject responseMessage = createResponse(username, projectName, resourcePath, callbackID, sender);
+							responseMessage.put("canceled", true);
+							messagingConnector.send("renameinfileresponse", responseMessage);
+						} catch (JSONException e) {
+							e.printStackTrace();
+						}
+					}
+				};
+				requestScheduler.schedule("renameinfilerequest", sender, liveEditID, renameJob, canceledResponse);
 			}
 		} catch (JSONException e) {
 			e.printStackTrace();
 		}
 	}
 	
+	protected JSONObject createResponse(String username, String projectName, String resourcePath, int callbackID, String sender) throws JSONException {
+		JSONObject responseMessage = new JSONObject();
+		responseMessage.put("username", username);
+		responseMessage.put("project", projectName);
+		responseMessage.put("resource", resourcePath);
+		responseMessage.put("callback_id", callbackID);
+		responseMessage.put("requestSenderID", sender);
+		return responseMessage;
+	}
+
 	public JSONArray computeReferences(String username, String resourcePath, int offset, int length) {
+		return computeReferences(username, resourcePath, offset, length, new NullProgressMonitor());
+	}
+	
+	public JSONArray computeReferences(String username, String resourcePath, int offset, int length, IProgressMonitor monitor) {
 		try {
 			ICompilationUnit unit = liveEditUnits.getLiveEditUnit(username, resourcePath);
 			if (unit != null) {
@@ -93,7 +142,10 @@ public class RenameService {
 			    parser.setResolveBindings(true);
 	
 			    // Return the compiled class as a compilation unit
-			    final ASTNode compilationUnit = parser.createAST(null);
+			    final ASTNode compilationUnit = parser.createAST(monitor);
+				if (monitor.isCanceled()) {
+					return null;
+				}
 				final ASTNode nameNode= NodeFinder.perform(compilationUnit, offset, length);
 				
 				final List<ASTNode> nodes = new ArrayList<ASTNode>();
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.jdt.services;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
+
+/**
+ * Runs service requests as jobs and makes sure that only the latest request of a kind is computed.
+ * Scheduling a request for the same sender, resource and request type cancels the request that is
+ * still waiting or running. Request jobs are expected to check their progress monitor and to return
+ * a cancel status without sending a response once they got canceled, the scheduler then sends the
+ * canceled response of the request instead, so that the requestor isn't left waiting.
+ *
+ * The jobs run concurrently to the edits of the live unit. They have to compare the content version of the
+ * live unit from the time the request was received (see {@link LiveEditUnits#getContentVersion(String)})
+ * with the current one before answering, since the offsets of the request don't fit an edited buffer.
+ * An outdated request is answered with an outdated response.
+ *
+ * @author Martin Lippert
+ */
+public class ServiceRequestScheduler {
+
+	private ConcurrentMap<String, Job> currentRequests;
+
+	public ServiceRequestScheduler() {
+		this.currentRequests = new ConcurrentHashMap<String, Job>();
+	}
+
+	/**
+	 * @param canceledResponse sends the response for the case that the request gets canceled, before or while it runs
+	 */
+	public void schedule(String requestType, String sender, String resourcePath, final Job requestJob, final Runnable canceledResponse) {
+		final String key = requestType + ":" + sender + ":" + resourcePath;
+
+		requestJob.setSystem(true);
+		requestJob.setPriority(Job.INTERACTIVE);
+		requestJob.addJobChangeListener(new JobChangeAdapter() {
+			@Override
+			public void done(IJobChangeEvent event) {
+				currentRequests.remove(key, requestJob);
+				if (event.getResult() != null && event.getResult().getSeverity() == IStatus.CANCEL) {
+					canceledResponse.run();
+				}
+			}
+		});
+
+		Job previousRequest = this.currentRequests.put(key, requestJob);
+		if (previousRequest != null) {
+			previousRequest.cancel();
+		}
+
+		requestJob.schedule();
+	}
+
+}
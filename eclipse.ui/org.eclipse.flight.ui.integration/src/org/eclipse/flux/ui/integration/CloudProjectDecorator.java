@@ -11,6 +11,7 @@
 package org.eclipse.flux.ui.integration;
 
 import org.eclipse.core.resources.IProject;
+import org.eclipse.flux.core.Repository;
 import org.eclipse.jface.viewers.IDecoration;
 import org.eclipse.jface.viewers.ILightweightLabelDecorator;
 import org.eclipse.jface.viewers.LabelProvider;
@@ -35,8 +36,14 @@ public class CloudProjectDecorator extends LabelProvider implements ILightweight
 
 	@Override
 	public void decorate(Object element, IDecoration decoration) {
-		if (element instanceof IProject && org.eclipse.flux.core.Activator.getDefault().getRepository().isConnected((IProject) element)) {
-			decoration.addSuffix(" [connected to flux]");
+		if (element instanceof IProject) {
+			Repository repository = org.eclipse.flux.core.Activator.getDefault().getRepository();
+			if (repository.isConnected((IProject) element)) {
+				decoration.addSuffix(" [connected to flux]");
+			}
+			else if (repository.isConnecting((IProject) element)) {
+				decoration.addSuffix(" [connecting to flux...]");
+			}
 		}
 	}
 
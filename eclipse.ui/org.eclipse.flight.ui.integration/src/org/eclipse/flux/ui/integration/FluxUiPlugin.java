@@ -14,6 +14,7 @@ import org.eclipse.core.resources.IProject;
 import org.eclipse.flux.core.IRepositoryListener;
 import org.eclipse.flux.core.LiveEditCoordinator;
 import org.eclipse.flux.core.Repository;
+import org.eclipse.flux.core.ResourceDeltaDispatcher;
 import org.eclipse.flux.ui.integration.handlers.LiveEditConnector;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.jface.viewers.LabelProviderChangedEvent;
@@ -39,6 +40,11 @@ public class FluxUiPlugin extends AbstractUIPlugin implements IStartup {
 		plugin = this;
 		org.eclipse.flux.core.Activator.getDefault().getRepository()
 				.addRepositoryListener(new IRepositoryListener() {
+					@Override
+					public void projectConnecting(IProject project) {
+						updateProjectLabel(project);
+					}
+
 					@Override
 					public void projectDisconnected(IProject project) {
 						updateProjectLabel(project);
@@ -53,7 +59,8 @@ public class FluxUiPlugin extends AbstractUIPlugin implements IStartup {
 		if (Boolean.getBoolean("flux-eclipse-editor-connect")) {
 			Repository repository = org.eclipse.flux.core.Activator.getDefault().getRepository();
 			LiveEditCoordinator liveEditCoordinator = org.eclipse.flux.core.Activator.getDefault().getLiveEditCoordinator();
-			new LiveEditConnector(liveEditCoordinator, repository);
+			ResourceDeltaDispatcher resourceDeltaDispatcher = org.eclipse.flux.core.Activator.getDefault().getResourceDeltaDispatcher();
+			new LiveEditConnector(liveEditCoordinator, repository, resourceDeltaDispatcher);
 		}
 	}
 
@@ -10,6 +10,10 @@
 *******************************************************************************/
 package org.eclipse.flux.ui.integration.handlers;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -20,19 +24,21 @@ import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceChangeEvent;
-import org.eclipse.core.resources.IResourceChangeListener;
 import org.eclipse.core.resources.IResourceDelta;
-import org.eclipse.core.resources.IResourceDeltaVisitor;
 import org.eclipse.core.resources.IWorkspace;
 import org.eclipse.core.resources.IWorkspaceRoot;
 import org.eclipse.core.resources.ResourcesPlugin;
-import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.flux.core.ConnectedProject;
 import org.eclipse.flux.core.ILiveEditConnector;
 import org.eclipse.flux.core.IRepositoryListener;
+import org.eclipse.flux.core.IResourceDeltaSubscriber;
+import org.eclipse.flux.core.LiveDocument;
 import org.eclipse.flux.core.LiveEditCoordinator;
+import org.eclipse.flux.core.LiveEditOperation;
+import org.eclipse.flux.core.LiveEditTransformer;
 import org.eclipse.flux.core.Repository;
+import org.eclipse.flux.core.ResourceDeltaDispatcher;
 import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IDocumentListener;
@@ -61,8 +67,9 @@ public class LiveEditConnector {
 	private LiveEditCoordinator liveEditCoordinator;
 
 	private ConcurrentHashMap<String, PendingLiveEditStartedResponse> pendingLiveEditStartedResponses;
+	private Map<IDocument, List<LiveEditOperation>> pendingRemoteEdits;
 
-	public LiveEditConnector(LiveEditCoordinator liveEditCoordinator, Repository repository) {
+	public LiveEditConnector(LiveEditCoordinator liveEditCoordinator, Repository repository, ResourceDeltaDispatcher resourceDeltaDispatcher) {
 		this.liveEditCoordinator = liveEditCoordinator;
 		this.repository = repository;
 		
@@ -70,6 +77,7 @@ public class LiveEditConnector {
 		this.documentMappings = new ConcurrentHashMap<String, IDocument>();
 		
 		this.pendingLiveEditStartedResponses = new ConcurrentHashMap<String, PendingLiveEditStartedResponse>();
+		this.pendingRemoteEdits = new HashMap<IDocument, List<LiveEditOperation>>();
 		
 		this.documentListener = new IDocumentListener() {
 			@Override
@@ -156,6 +164,9 @@ public class LiveEditConnector {
 		});
 		
 		this.repository.addRepositoryListener(new IRepositoryListener() {
+			@Override
+			public void projectConnecting(IProject project) {
+			}
 			@Override
 			public void projectConnected(IProject project) {
 				connectOpenEditors(project);
@@ -190,13 +201,15 @@ public class LiveEditConnector {
 		};
 		this.liveEditCoordinator.addLiveEditConnector(liveEditConnector);
 		
-		IWorkspace workspace = ResourcesPlugin.getWorkspace();
-		workspace.addResourceChangeListener(new IResourceChangeListener() {
+		resourceDeltaDispatcher.addSubscriber(new IResourceDeltaSubscriber() {
 			@Override
-			public void resourceChanged(IResourceChangeEvent event) {
-				reactToResourceChanged(event);
+			public void resourceChanged(IResourceDelta delta) {
+				reactToResourceChange(delta);
 			}
-		});
+			@Override
+			public void deltasDispatched() {
+			}
+		}, IResourceChangeEvent.POST_CHANGE, ResourceDeltaDispatcher.RESOURCES);
 		
 		Display.getDefault().asyncExec(new Runnable() {
 			public void run() {
@@ -257,68 +270,117 @@ public class LiveEditConnector {
 			final String savePointHash, final long savePointTimestamp, final String content) {
 		// we started the editing and are getting remote live content back
 		
-		PendingLiveEditStartedResponse newResponse = new PendingLiveEditStartedResponse(username, projectName, resource, savePointHash, savePointTimestamp, content);
+		String resourcePath = projectName + "/" + resource;
+		if (!this.repository.getUsername().equals(username) || !documentMappings.containsKey(resourcePath)) {
+			return;
+		}
+
+		PendingLiveEditStartedResponse newResponse = new PendingLiveEditStartedResponse(username, projectName, resource, savePointHash, savePointTimestamp, content,
+				org.eclipse.flux.core.Activator.getDefault().getOffHeapStore());
 		handleRemoteLiveContent(newResponse);
 	}
 	
 	protected void handleRemoteLiveContent(final PendingLiveEditStartedResponse pendingResponse) {
 		
 		final String resourcePath = pendingResponse.getProjectName() + "/" + pendingResponse.getResource();
+		final IDocument document = documentMappings.get(resourcePath);
 		
-		if (this.repository.getUsername().equals(pendingResponse.getUsername()) && documentMappings.containsKey(resourcePath)) {
-			final IDocument document = documentMappings.get(resourcePath);
+		if (!this.repository.getUsername().equals(pendingResponse.getUsername()) || document == null) {
+			discardPendingResponse(resourcePath, pendingResponse);
+			return;
+		}
 
-			try {
-				Display.getDefault().asyncExec(new Runnable() {
-					public void run() {
-						try {
-							ConnectedProject connectedProject = repository.getProject(pendingResponse.getProjectName());
-							final String hash = connectedProject.getHash(pendingResponse.getResource());
-							final long timestamp = connectedProject.getTimestamp(pendingResponse.getResource());
-							
-							if (hash != null && hash.equals(pendingResponse.getSavePointHash()) && timestamp == pendingResponse.getSavePointTimestamp()) {
-								String openedContent = document.get();
-								if (!openedContent.equals(pendingResponse.getContent())) {
+		try {
+			Display.getDefault().asyncExec(new Runnable() {
+				public void run() {
+					try {
+						if (pendingResponse.isDisposed()) {
+							return;
+						}
+						
+						ConnectedProject connectedProject = repository.getProject(pendingResponse.getProjectName());
+						if (connectedProject == null || documentMappings.get(resourcePath) != document) {
+							// the editor got closed or the project disconnected in the meantime
+							discardPendingResponse(resourcePath, pendingResponse);
+							return;
+						}
+
+						final String hash = connectedProject.getHash(pendingResponse.getResource());
+						final long timestamp = connectedProject.getTimestamp(pendingResponse.getResource());
+						
+						if (hash != null && hash.equals(pendingResponse.getSavePointHash()) && timestamp == pendingResponse.getSavePointTimestamp()) {
+							String openedContent = document.get();
+							String content = pendingResponse.getContent();
+							if (!openedContent.equals(content)) {
+								synchronized (liveEditCoordinator.getLiveEditLock()) {
+									synchronized (pendingRemoteEdits) {
+										pendingRemoteEdits.remove(document);
+									}
 									document.removeDocumentListener(documentListener);
-									document.set(pendingResponse.getContent());
+									document.set(content);
 									document.addDocumentListener(documentListener);
+									
+									LiveDocument liveDocument = liveEditCoordinator.getLiveDocument(resourcePath);
+									if (liveDocument != null) {
+										liveDocument.setContent(content);
+									}
 								}
 							}
-							else if (pendingResponse.getSavePointTimestamp() > timestamp) {
-								PendingLiveEditStartedResponse existingPendingRespose = pendingLiveEditStartedResponses.putIfAbsent(resourcePath, pendingResponse);
-								if (pendingResponse.getSavePointTimestamp() > existingPendingRespose.getSavePointTimestamp()) {
-									pendingLiveEditStartedResponses.put(resourcePath, pendingResponse);
+							discardPendingResponse(resourcePath, pendingResponse);
+						}
+						else if (pendingResponse.getSavePointTimestamp() > timestamp) {
+							PendingLiveEditStartedResponse existingPendingRespose = pendingLiveEditStartedResponses.putIfAbsent(resourcePath, pendingResponse);
+							if (existingPendingRespose != null && existingPendingRespose != pendingResponse) {
+								if (pendingResponse.getSavePointTimestamp() > existingPendingRespose.getSavePointTimestamp()
+										&& pendingLiveEditStartedResponses.replace(resourcePath, existingPendingRespose, pendingResponse)) {
+									existingPendingRespose.dispose();
+								}
+								else {
+									pendingResponse.dispose();
 								}
 							}
 						}
-						catch (Exception e) {
-							e.printStackTrace();
+						else {
+							discardPendingResponse(resourcePath, pendingResponse);
 						}
 					}
-				});
-			}
-			catch (Exception e) {
-				e.printStackTrace();
-			}
+					catch (Exception e) {
+						e.printStackTrace();
+						discardPendingResponse(resourcePath, pendingResponse);
+					}
+				}
+			});
 		}
+		catch (Exception e) {
+			e.printStackTrace();
+			discardPendingResponse(resourcePath, pendingResponse);
+		}
+	}
 
+	protected void discardPendingResponse(String resourcePath, PendingLiveEditStartedResponse pendingResponse) {
+		pendingLiveEditStartedResponses.remove(resourcePath, pendingResponse);
+		pendingResponse.dispose();
 	}
 
 	protected void handleModelChanged(final String username, final String resourcePath, final int offset, final int removedCharCount, final String newText) {
 		if (repository.getUsername().equals(username) && resourcePath != null && documentMappings.containsKey(resourcePath)) {
 			final IDocument document = documentMappings.get(resourcePath);
 			
+			// called under the live edit lock of the coordinator, the edit is applied later on the UI thread,
+			// local edits made until then get transformed against it (see sendModelChangedMessage)
+			synchronized (pendingRemoteEdits) {
+				List<LiveEditOperation> pendingEdits = pendingRemoteEdits.get(document);
+				if (pendingEdits == null) {
+					pendingEdits = new ArrayList<LiveEditOperation>();
+					pendingRemoteEdits.put(document, pendingEdits);
+				}
+				pendingEdits.addAll(LiveEditOperation.replace(offset, removedCharCount, newText));
+			}
+			
 			try {
 				Display.getDefault().asyncExec(new Runnable() {
 					public void run() {
-						try {
-							document.removeDocumentListener(documentListener);
-							document.replace(offset, removedCharCount, newText);
-							document.addDocumentListener(documentListener);
-						}
-						catch (Exception e) {
-							e.printStackTrace();
-						}
+						applyPendingRemoteEdits(document);
 					}
 				});
 			}
@@ -327,14 +389,60 @@ public class LiveEditConnector {
 			}
 		}
 	}
+	
+	protected void applyPendingRemoteEdits(IDocument document) {
+		List<LiveEditOperation> pendingEdits;
+		synchronized (pendingRemoteEdits) {
+			pendingEdits = pendingRemoteEdits.remove(document);
+		}
+		if (pendingEdits == null) {
+			return;
+		}
+		
+		try {
+			document.removeDocumentListener(documentListener);
+			for (LiveEditOperation edit : pendingEdits) {
+				document.replace(edit.getOffset(), edit.getRemovedCharCount(), edit.getAddedCharacters());
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+		finally {
+			document.addDocumentListener(documentListener);
+		}
+	}
 
 	protected void sendModelChangedMessage(DocumentEvent event) {
-		String resourcePath = resourceMappings.get(event.getDocument());
+		IDocument document = event.getDocument();
+		String resourcePath = resourceMappings.get(document);
 		if (resourcePath != null) {
 			String projectName = resourcePath.substring(0, resourcePath.indexOf('/'));
 			String relativeResourcePath = resourcePath.substring(projectName.length() + 1);
 
-			this.liveEditCoordinator.sendModelChangedMessage(LIVE_EDIT_CONNECTOR_ID, repository.getUsername(), projectName, relativeResourcePath, event.getOffset(), event.getLength(), event.getText());
+			synchronized (this.liveEditCoordinator.getLiveEditLock()) {
+				List<LiveEditOperation> transformedEdits = null;
+				synchronized (pendingRemoteEdits) {
+					List<LiveEditOperation> pendingEdits = pendingRemoteEdits.get(document);
+					if (pendingEdits != null && !pendingEdits.isEmpty()) {
+						// the coordinator passed on edits that aren't applied to the document yet, this edit was made without them
+						List<List<LiveEditOperation>> transformed = LiveEditTransformer.transform(
+								LiveEditOperation.replace(event.getOffset(), event.getLength(), event.getText()), pendingEdits, false);
+						transformedEdits = transformed.get(0);
+						pendingRemoteEdits.put(document, new ArrayList<LiveEditOperation>(transformed.get(1)));
+					}
+				}
+				
+				if (transformedEdits == null) {
+					this.liveEditCoordinator.sendModelChangedMessage(LIVE_EDIT_CONNECTOR_ID, repository.getUsername(), projectName, relativeResourcePath, event.getOffset(), event.getLength(), event.getText());
+				}
+				else {
+					for (LiveEditOperation edit : transformedEdits) {
+						this.liveEditCoordinator.sendModelChangedMessage(LIVE_EDIT_CONNECTOR_ID, repository.getUsername(), projectName, relativeResourcePath,
+								edit.getOffset(), edit.getRemovedCharCount(), edit.getAddedCharacters());
+					}
+				}
+			}
 		}
 	}
 
@@ -353,7 +461,11 @@ public class LiveEditConnector {
 				documentMappings.put(resourcePath, document);
 				resourceMappings.put(document, resourcePath);
 
-				document.addDocumentListener(documentListener);
+				synchronized (this.liveEditCoordinator.getLiveEditLock()) {
+					// the coordinator keeps track of the content the others know, for participants that join later
+					this.liveEditCoordinator.addLiveDocument(resourcePath, new LiveDocument(document.get()));
+					document.addDocumentListener(documentListener);
+				}
 				
 				ConnectedProject connectedProject = repository.getProject(project);
 				String hash = connectedProject.getHash(resource);
@@ -372,6 +484,18 @@ public class LiveEditConnector {
 			document.removeDocumentListener(documentListener);
 			documentMappings.remove(resourcePath);
 			resourceMappings.remove(document);
+
+			PendingLiveEditStartedResponse pendingResponse = pendingLiveEditStartedResponses.remove(resourcePath);
+			if (pendingResponse != null) {
+				pendingResponse.dispose();
+			}
+			
+			synchronized (pendingRemoteEdits) {
+				pendingRemoteEdits.remove(document);
+			}
+			
+			String projectName = resourcePath.substring(0, resourcePath.indexOf('/'));
+			this.liveEditCoordinator.sendLiveEditClosedMessage(repository.getUsername(), projectName, resourcePath.substring(projectName.length() + 1));
 		}
 	}
 
@@ -405,29 +529,6 @@ public class LiveEditConnector {
 		});
 	}
 
-	public void reactToResourceChanged(IResourceChangeEvent event) {
-		try {
-			event.getDelta().accept(new IResourceDeltaVisitor() {
-				@Override
-				public boolean visit(IResourceDelta delta) throws CoreException {
-					reactToResourceChanged(delta);
-					return true;
-				}
-			});
-		} catch (CoreException e) {
-			e.printStackTrace();
-		}
-	}
-
-	protected void reactToResourceChanged(IResourceDelta delta) {
-		IProject project = delta.getResource().getProject();
-		if (project != null) {
-			if (repository.isConnected(project)) {
-				reactToResourceChange(delta);
-			}
-		}
-	}
-
 	private void reactToResourceChange(IResourceDelta delta) {
 		IResource resource = delta.getResource();
 
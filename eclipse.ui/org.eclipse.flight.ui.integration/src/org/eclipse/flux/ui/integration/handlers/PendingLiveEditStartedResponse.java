@@ -10,7 +10,12 @@
 *******************************************************************************/
 package org.eclipse.flux.ui.integration.handlers;
 
+import org.eclipse.flux.core.OffHeapBlobStore;
+
 /**
+ * Remote live content that is waiting to be applied to a document. The content is kept in the off-heap store
+ * (if there is room), so the response has to be disposed once it is not pending anymore.
+ *
  * @author Martin Lippert
  */
 public class PendingLiveEditStartedResponse {
@@ -21,15 +26,18 @@ public class PendingLiveEditStartedResponse {
 	private String savePointHash;
 	private long savePointTimestamp;
 	private String content;
+	private OffHeapBlobStore.Blob contentBlob;
 
 	public PendingLiveEditStartedResponse(String username, String projectName, String resource, String savePointHash, long savePointTimestamp,
-			String content) {
+			String content, OffHeapBlobStore store) {
 				this.username = username;
 				this.projectName = projectName;
 				this.resource = resource;
 				this.savePointHash = savePointHash;
 				this.savePointTimestamp = savePointTimestamp;
-				this.content = content;
+				
+				this.contentBlob = store != null ? store.store(content) : null;
+				this.content = this.contentBlob == null ? content : null;
 	}
 
 	public String getUsername() {
@@ -52,8 +60,20 @@ public class PendingLiveEditStartedResponse {
 		return savePointTimestamp;
 	}
 
-	public String getContent() {
-		return content;
+	public synchronized String getContent() {
+		return contentBlob != null ? contentBlob.getContent() : content;
+	}
+
+	public synchronized boolean isDisposed() {
+		return contentBlob == null && content == null;
+	}
+
+	public synchronized void dispose() {
+		if (contentBlob != null) {
+			contentBlob.release();
+			contentBlob = null;
+		}
+		content = null;
 	}
 
 }
@@ -41,7 +41,7 @@ public class SyncConnectHandler extends AbstractHandler {
 
 		for (IProject project : selectedProjects) {
 			if (!repository.isConnected(project)) {
-				repository.addProject(project);
+				repository.connectProject(project);
 			}
 		}
 		
@@ -58,7 +58,7 @@ public class SyncConnectHandler extends AbstractHandler {
 				
 				Repository repository = org.eclipse.flux.core.Activator.getDefault().getRepository();
 				for (IProject project : selectedProjects) {
-					if (!repository.isConnected(project)) {
+					if (!repository.isConnected(project) && !repository.isConnecting(project)) {
 						setBaseEnabled(true);
 						return;
 					}
@@ -38,7 +38,7 @@ public class SyncDisconnectHandler extends AbstractHandler {
 		Repository repository = org.eclipse.flux.core.Activator.getDefault().getRepository();
 
 		for (IProject project : selectedProjects) {
-			if (repository.isConnected(project)) {
+			if (repository.isConnected(project) || repository.isConnecting(project)) {
 				repository.removeProject(project);
 			}
 		}
@@ -56,7 +56,7 @@ public class SyncDisconnectHandler extends AbstractHandler {
 				
 				Repository repository = org.eclipse.flux.core.Activator.getDefault().getRepository();
 				for (IProject project : selectedProjects) {
-					if (repository.isConnected(project)) {
+					if (repository.isConnected(project) || repository.isConnecting(project)) {
 						setBaseEnabled(true);
 						return;
 					}
@@ -52,7 +52,7 @@ public class SyncDownloadHandler extends AbstractHandler {
 						}
 						@Override
 						public void downloadComplete(IProject project) {
-							repository.addProject(project);
+							repository.connectProject(project);
 						}
 					});
 				}
@@ -11,7 +11,11 @@
 *******************************************************************************/
 /*global require console exports process __dirname*/
 
-var MessageCore = function() {};
+var crypto = require('crypto');
+
+var MessageCore = function() {
+	this.liveResources = {};
+};
 exports.MessageCore = MessageCore;
 
 MessageCore.prototype.initialize = function(socket, sockets) {
@@ -26,6 +30,7 @@ MessageCore.prototype.initialize = function(socket, sockets) {
 	this.configureBroadcast(socket, 'resourceStored');
 
 	this.configureBroadcast(socket, 'metadataChanged');
+	this.configureBroadcast(socket, 'projectMetadataChanged');
 
 	this.configureRequest(socket, 'getProjectRequest');
 	this.configureRequest(socket, 'getProjectsRequest');
@@ -40,11 +45,16 @@ MessageCore.prototype.initialize = function(socket, sockets) {
 	this.configureRequest(socket, 'getLiveResourcesRequest');
 	this.configureResponse(socket, sockets, 'getLiveResourcesResponse');
 
-	this.configureRequest(socket, 'liveResourceStarted');
-	this.configureResponse(socket, sockets, 'liveResourceStartedResponse');
+	this.configureLiveRequest(socket, 'liveResourceStarted');
+	this.configureLiveResponse(socket, sockets, 'liveResourceStartedResponse');
+	this.configureLiveClosed(socket, 'liveResourceClosed');
 
-	this.configureBroadcast(socket, 'liveResourceChanged');
+	this.configureSequencedBroadcast(socket, 'liveResourceChanged');
+	this.configureRequest(socket, 'liveResourceChangesRequest');
+	this.configureResponse(socket, sockets, 'liveResourceChangesResponse');
 	this.configureBroadcast(socket, 'liveMetadataChanged');
+	this.configureRequest(socket, 'getLiveMetadataRequest');
+	this.configureResponse(socket, sockets, 'getLiveMetadataResponse');
 
 	this.configureRequest(socket, 'contentassistrequest');
 	this.configureResponse(socket, sockets, 'contentassistresponse');
@@ -55,8 +65,16 @@ MessageCore.prototype.initialize = function(socket, sockets) {
 	this.configureRequest(socket, 'renameinfilerequest');
 	this.configureResponse(socket, sockets, 'renameinfileresponse');
 
+	var self = this;
 	socket.on('disconnect', function () {
 		console.log('client disconnected from update notifications');
+
+		var key;
+		for (key in self.liveResources) {
+			if (self.liveResources.hasOwnProperty(key)) {
+				self.leaveLiveResource(socket, key);
+			}
+		}
 	});
 
 	socket.on('connectToChannel', function(data, fn) {
@@ -87,6 +105,90 @@ MessageCore.prototype.configureBroadcast = function(socket, messageName) {
 	});
 };
 
+function liveResourceKey(data) {
+	return data.username + '/' + data.project + '/' + data.resource;
+}
+
+/**
+ * Keeps track of the sockets that take part in live editing a resource, the revisions of the resource are
+ * counted as long as there are any. The count starts in a new epoch, which is sent along with the revisions,
+ * so that participants don't mistake the revisions of an epoch for those of another one (e.g. after a restart).
+ */
+MessageCore.prototype.joinLiveResource = function(socket, data) {
+	var key = liveResourceKey(data);
+	var liveResource = this.liveResources[key];
+	if (liveResource === undefined) {
+		liveResource = this.liveResources[key] = {
+			'epoch' : crypto.randomBytes(8).toString('hex'),
+			'revision' : 0,
+			'participants' : {}
+		};
+	}
+	liveResource.participants[socket.id] = true;
+	return liveResource;
+};
+
+MessageCore.prototype.leaveLiveResource = function(socket, key) {
+	var liveResource = this.liveResources[key];
+	if (liveResource !== undefined) {
+		delete liveResource.participants[socket.id];
+		if (Object.keys(liveResource.participants).length === 0) {
+			delete this.liveResources[key];
+		}
+	}
+};
+
+MessageCore.prototype.configureLiveRequest = function(socket, messageName) {
+	var self = this;
+	socket.on(messageName, function(data) {
+		self.joinLiveResource(socket, data);
+	});
+	this.configureRequest(socket, messageName);
+};
+
+/**
+ * Passes live content on to the participant that asked for it. The revision of the content (and the edits up to it)
+ * are dropped if they were counted in an epoch that is over, the receiver learns the revision from the next edit then.
+ */
+MessageCore.prototype.configureLiveResponse = function(socket, sockets, messageName) {
+	var self = this;
+	socket.on(messageName, function(data) {
+		var liveResource = self.joinLiveResource(socket, data);
+		if (data.epoch !== liveResource.epoch) {
+			delete data.revision;
+			delete data.epoch;
+			delete data.changes;
+		}
+		sockets.socket(data.requestSenderID).emit(messageName, data);
+	});
+};
+
+MessageCore.prototype.configureLiveClosed = function(socket, messageName) {
+	var self = this;
+	socket.on(messageName, function(data) {
+		self.leaveLiveResource(socket, liveResourceKey(data));
+	});
+};
+
+/**
+ * Numbers the live edits of every resource (their revision) and sends them to all participants in that order,
+ * including the sender, so that everybody knows the position of its own edits among the edits of the others.
+ */
+MessageCore.prototype.configureSequencedBroadcast = function(socket, messageName) {
+	var self = this;
+	socket.on(messageName, function(data) {
+		var liveResource = self.joinLiveResource(socket, data);
+		data.epoch = liveResource.epoch;
+		data.revision = ++liveResource.revision;
+
+		socket.emit(messageName, data);
+		if (data.username !== undefined) {
+			socket.broadcast.to(data.username).emit(messageName, data);
+		}
+		socket.broadcast.to('internal').emit(messageName, data);
+	});
+};
+
 MessageCore.prototype.configureRequest = function(socket, messageName) {
 	socket.on(messageName, function(data) {
 		data.requestSenderID = socket.id;
@@ -28,10 +28,11 @@ define([
 	"orion/editor/contentAssist",
 	"editor/javaContentAssist",
 	"orion/editor/linkedMode",
+	"editor/liveEditTransformer",
 	"editor/sha1",
 	"socketio"],
 
-function(require, mTextView, mKeyBinding, mTextStyler, mTextMateStyler, mHtmlGrammar, mEditor, mEditorFeatures, mContentAssist, mJavaContentAssist, mLinkedMode) {
+function(require, mTextView, mKeyBinding, mTextStyler, mTextMateStyler, mHtmlGrammar, mEditor, mEditorFeatures, mContentAssist, mJavaContentAssist, mLinkedMode, mLiveEditTransformer) {
 	var editorDomNode = document.getElementById("editor");
 
 	var textViewFactory = function() {
@@ -188,29 +189,83 @@ function(require, mTextView, mKeyBinding, mTextStyler, mTextMateStyler, mHtmlGra
 		start();
 	};
 
-	socket.on('liveMetadataChanged', function (data) {
-		if (username === data.username && project === data.project && resource === data.resource && data.problems !== undefined) {
-			var markers = [];
-			var i;
-			for(i = 0; i < data.problems.length; i++) {
-				var lineOffset = editor.getModel().getLineStart(data.problems[i].line - 1);
+	var problems = {};
+	var problemsSequence;
 
-				console.log(lineOffset);
+	function requestLiveMetadata() {
+		problems = {};
+		problemsSequence = undefined;
+		socket.emit('getLiveMetadataRequest', {
+			'callback_id' : 0,
+			'username' : username,
+			'project' : project,
+			'resource' : resource
+		});
+	}
 
-				markers[i] = {
-					'description' : data.problems[i].description,
-					'line' : data.problems[i].line,
-					'severity' : data.problems[i].severity,
-					'start' : (data.problems[i].start - lineOffset) + 1,
-					'end' : data.problems[i].end - lineOffset
-				};
+	function showProblems() {
+		var markers = [];
+		var id;
+		for (id in problems) {
+			if (problems.hasOwnProperty(id)) {
+				var problem = problems[id];
+				var lineOffset = editor.getModel().getLineStart(problem.line - 1);
+
+				markers.push({
+					'description' : problem.description,
+					'line' : problem.line,
+					'severity' : problem.severity,
+					'start' : (problem.start - lineOffset) + 1,
+					'end' : problem.end - lineOffset
+				});
+			}
+		}
+
+		editor.showProblems(markers);
+	}
+
+	function setProblems(data) {
+		problems = {};
+		var i;
+		for (i = 0; i < data.problems.length; i++) {
+			var problem = data.problems[i];
+			problems[problem.id !== undefined ? problem.id : i] = problem;
+		}
+		problemsSequence = data.sequence;
+		showProblems();
+	}
+
+	socket.on('liveMetadataChanged', function (data) {
+		if (username === data.username && project === data.project && resource === data.resource) {
+			if (data.problems !== undefined) {
+				setProblems(data);
 			}
+			else if (data.sequence !== undefined) {
+				if (data.sequence !== (problemsSequence !== undefined ? problemsSequence : 0) + 1) {
+					requestLiveMetadata();
+					return;
+				}
 
-			editor.showProblems(markers);
+				var i;
+				for (i = 0; i < data.removed.length; i++) {
+					delete problems[data.removed[i]];
+				}
+				for (i = 0; i < data.added.length; i++) {
+					problems[data.added[i].id] = data.added[i];
+				}
+				problemsSequence = data.sequence;
+				showProblems();
+			}
 		}
 		console.log(data);
 	});
 
+	socket.on('getLiveMetadataResponse', function (data) {
+		if (username === data.username && project === data.project && resource === data.resource && data.problems !== undefined) {
+			setProblems(data);
+		}
+	});
+
 	socket.on('navigationresponse', function (data) {
 		if (username === data.username && project === data.project && resource === data.resource && data.navigation !== undefined) {
 			var navigationTarget = data.navigation;
@@ -269,6 +324,15 @@ function(require, mTextView, mKeyBinding, mTextStyler, mTextMateStyler, mHtmlGra
 	var lastSavePointHash = '';
 	var lastSavePointTimestamp = 0;
 
+	// live edits are transformed against concurrent edits, ordered by the revisions the server assigns to them
+	var senderID = 'web-editor-' + Date.now() + '-' + Math.floor(Math.random() * 1000000);
+	var liveEdits;
+	var heldBackEdits = {};
+	var missingEditsTimeout;
+	var resyncRequested = false;
+	var MISSING_EDITS_TIMEOUT = 2000;
+	var JOIN_HISTORY = 64;
+
 	function connected() {
 		if (username) {
 			socket.emit('connectToChannel', {
@@ -293,6 +357,13 @@ function(require, mTextView, mKeyBinding, mTextStyler, mTextMateStyler, mHtmlGra
 			var newResource = sections.join('/');
 
 			if (newUsername !== username || newProject !== project || newResource !== resource) {
+				if (liveEdits !== undefined) {
+					socket.emit('liveResourceClosed', {
+						'username' : username,
+						'project' : project,
+						'resource' : resource
+					});
+				}
 				if (username !== undefined && newUsername !== username) {
 					socket.emit('disconnectFromChannel', {
 						'channel' : username
@@ -306,6 +377,9 @@ function(require, mTextView, mKeyBinding, mTextStyler, mTextMateStyler, mHtmlGra
 				jumpTo = extractJumpToInformation(window.location.hash);
 
 				editor.getTextView().removeEventListener("ModelChanged", sendModelChanged);
+				liveEdits = undefined;
+				resetIncomingEdits();
+				resyncRequested = false;
 
 				lastSavePointContent = '';
 				lastSavePointHash = '';
@@ -402,6 +476,9 @@ function(require, mTextView, mKeyBinding, mTextStyler, mTextMateStyler, mHtmlGra
 		lastSavePointHash = data.hash;
 		lastSavePointTimestamp = data.timestamp;
 
+		liveEdits = new mLiveEditTransformer.LiveEditTransformer(senderID);
+		resetIncomingEdits();
+
 		jump(jumpTo);
 
 		socket.emit('liveResourceStarted', {
@@ -412,20 +489,26 @@ function(require, mTextView, mKeyBinding, mTextStyler, mTextMateStyler, mHtmlGra
 			'hash' : lastSavePointHash,
 			'timestamp' : lastSavePointTimestamp
 		});
+		requestLiveMetadata();
 
 		editor.getTextView().addEventListener("ModelChanged", sendModelChanged);
 	});
 
 	socket.on('liveResourceStartedResponse', function(data) {
 		if (data.username === username && data.project === project && data.resource === resource && data.callback_id !== undefined) {
-			if (lastSavePointTimestamp === data.savePointTimestamp && lastSavePointHash === data.savePointHash) {
+			if (lastSavePointTimestamp === data.savePointTimestamp && lastSavePointHash === data.savePointHash && liveEdits !== undefined) {
 				var currentEditorContent = editor.getText();
 				var currentEditorContentHash = CryptoJS.SHA1(currentEditorContent).toString(CryptoJS.enc.Hex);
 
-				if (currentEditorContentHash === data.savePointHash) {
+				if (currentEditorContentHash === data.savePointHash || resyncRequested) {
+					resyncRequested = false;
+					liveEdits.restart(data.epoch, data.revision, data.liveContent, data.changes !== undefined ? getHistoryEntries(data.changes) : undefined);
+
 					editor.getTextView().removeEventListener("ModelChanged", sendModelChanged);
 					editor.getModel().setText(data.liveContent);
 					editor.getTextView().addEventListener("ModelChanged", sendModelChanged);
+
+					applyHeldBackEdits();
 				}
 			}
 		}
@@ -437,16 +520,31 @@ function(require, mTextView, mKeyBinding, mTextStyler, mTextMateStyler, mHtmlGra
 			if ((data.hash === undefined || data.hash === lastSavePointHash) &&
 					data.timestamp === undefined || data.timestamp === lastSavePointTimestamp) {
 
-				socket.emit('liveResourceStartedResponse', {
+				var response = {
 					'callback_id'        : data.callback_id,
 					'requestSenderID'    : data.requestSenderID,
 					'username'           : data.username,
 					'project'            : data.project,
 					'resource'           : data.resource,
 					'savePointTimestamp' : lastSavePointTimestamp,
-					'savePointHash'      : lastSavePointHash,
-					'liveContent'        : editor.getText()
-				});
+					'savePointHash'      : lastSavePointHash
+				};
+
+				// the content as of the last revision, local edits in flight or buffered reach the others as edits
+				if (liveEdits !== undefined && liveEdits.getAcknowledgedContent() !== undefined) {
+					response.liveContent = liveEdits.getAcknowledgedContent();
+					response.revision = liveEdits.getRevision();
+					response.epoch = liveEdits.getEpoch();
+					// the last edits, to transform incoming edits against that are based on an earlier revision
+					putChanges(response, liveEdits.getRecentHistory(JOIN_HISTORY));
+				}
+				else if (liveEdits === undefined || !liveEdits.hasPendingEdits()) {
+					response.liveContent = editor.getText();
+				}
+				else {
+					return;
+				}
+				socket.emit('liveResourceStartedResponse', response);
 			}
 		}
 	});
@@ -470,30 +568,248 @@ function(require, mTextView, mKeyBinding, mTextStyler, mTextMateStyler, mHtmlGra
 	});
 
 	function sendModelChanged(evt) {
+		var addedCharacters = "";
+		if (evt.addedCharCount > 0) {
+			addedCharacters = editor.getModel().getText(evt.start, evt.start + evt.addedCharCount);
+		}
+
+		if (liveEdits !== undefined) {
+			sendLiveEdit(liveEdits.localEdit(evt.start, evt.removedCharCount, addedCharacters));
+		}
+	}
+
+	function sendLiveEdit(outgoing) {
+		if (outgoing === undefined) {
+			return;
+		}
+
 		var changeData = {
 			'username' : username,
 			'project' : project,
 			'resource' : resource,
-			'offset' : evt.start,
-			'removedCharCount' : evt.removedCharCount
+			'senderID' : senderID,
+			'sequence' : outgoing.sequence,
+			'savePointHash' : lastSavePointHash,
+			'savePointTimestamp' : lastSavePointTimestamp
 		};
+		if (outgoing.baseRevision >= 0) {
+			changeData.baseRevision = outgoing.baseRevision;
+		}
+		if (outgoing.baseHash !== undefined) {
+			changeData.baseHash = outgoing.baseHash;
+		}
+		putOperations(changeData, outgoing.operations);
 
-		if (evt.addedCharCount > 0) {
-			changeData.addedCharacters = editor.getModel().getText(evt.start, evt.start + evt.addedCharCount);
+		socket.emit('liveResourceChanged', changeData);
+	}
+
+	// the operations of an edit, either a single replace or the list of edits of a batch
+	function getOperations(data) {
+		if (data.edits === undefined) {
+			return mLiveEditTransformer.replace(data.offset, data.removedCharCount, data.addedCharacters);
+		}
+
+		var operations = [];
+		var i;
+		for (i = 0; i < data.edits.length; i++) {
+			operations = operations.concat(mLiveEditTransformer.replace(data.edits[i].offset, data.edits[i].removedCharCount, data.edits[i].addedCharacters));
+		}
+		return operations;
+	}
+
+	function putOperations(data, operations) {
+		if (operations.length === 1) {
+			data.offset = operations[0].offset;
+			data.removedCharCount = operations[0].removedCharCount;
+			data.addedCharacters = operations[0].addedCharacters;
 		}
 		else {
-			changeData.addedCharacters = "";
+			data.edits = operations;
 		}
+	}
 
-		socket.emit('liveResourceChanged', changeData);
+	function putChanges(data, edits) {
+		data.changes = [];
+		var i;
+		for (i = 0; i < edits.length; i++) {
+			var change = {
+				'senderID' : edits[i].origin,
+				'sequence' : edits[i].sequence,
+				'revision' : edits[i].revision
+			};
+			putOperations(change, edits[i].operations);
+			data.changes.push(change);
+		}
+	}
+
+	function getHistoryEntries(changes) {
+		var edits = [];
+		var i;
+		for (i = 0; i < changes.length; i++) {
+			edits.push({
+				'origin' : changes[i].senderID,
+				'sequence' : changes[i].sequence,
+				'revision' : changes[i].revision,
+				'operations' : getOperations(changes[i])
+			});
+		}
+		return edits;
+	}
+
+	function applyOperations(operations) {
+		var i;
+		editor.getTextView().removeEventListener("ModelChanged", sendModelChanged);
+		for (i = 0; i < operations.length; i++) {
+			editor.getModel().setText(operations[i].addedCharacters, operations[i].offset, operations[i].offset + operations[i].removedCharCount);
+		}
+		editor.getTextView().addEventListener("ModelChanged", sendModelChanged);
+	}
+
+	function resetIncomingEdits() {
+		heldBackEdits = {};
+		if (missingEditsTimeout !== undefined) {
+			clearTimeout(missingEditsTimeout);
+			missingEditsTimeout = undefined;
+		}
+	}
+
+	// asks the other participants for their live content, the fallback if missing edits can't be filled in
+	function requestResync() {
+		liveEdits.reset();
+		resetIncomingEdits();
+		resyncRequested = true;
+
+		socket.emit('liveResourceStarted', {
+			'callback_id' : 0,
+			'username' : username,
+			'project' : project,
+			'resource' : resource,
+			'hash' : lastSavePointHash,
+			'timestamp' : lastSavePointTimestamp
+		});
+	}
+
+	function receiveLiveEdit(data) {
+		if (liveEdits.startEpoch(data.epoch)) {
+			// the server counts the revisions anew, the held back edits belong to the old ones
+			resetIncomingEdits();
+		}
+
+		var lastRevision = liveEdits.getRevision();
+		if (lastRevision >= 0 && data.revision > lastRevision + 1) {
+			heldBackEdits[data.revision] = data;
+
+			// the sender of this edit has seen the missing edits, it is asked for them
+			if (missingEditsTimeout === undefined && data.senderID !== undefined) {
+				missingEditsTimeout = setTimeout(function() {
+					missingEditsTimeout = undefined;
+					requestResync();
+				}, MISSING_EDITS_TIMEOUT);
+
+				socket.emit('liveResourceChangesRequest', {
+					'callback_id' : 0,
+					'username' : username,
+					'project' : project,
+					'resource' : resource,
+					'senderID' : data.senderID,
+					'epoch' : data.epoch,
+					'fromRevision' : lastRevision + 1,
+					'toRevision' : data.revision - 1
+				});
+			}
+			return;
+		}
+
+		applyLiveEdit(data);
+		applyHeldBackEdits();
+	}
+
+	function applyHeldBackEdits() {
+		var revision;
+		for (revision in heldBackEdits) {
+			if (heldBackEdits.hasOwnProperty(revision) && liveEdits.getRevision() >= 0 && Number(revision) <= liveEdits.getRevision()) {
+				delete heldBackEdits[revision];
+			}
+		}
+
+		var next = heldBackEdits[liveEdits.getRevision() + 1];
+		while (liveEdits.getRevision() >= 0 && next !== undefined) {
+			delete heldBackEdits[next.revision];
+			applyLiveEdit(next);
+			next = heldBackEdits[liveEdits.getRevision() + 1];
+		}
+
+		if (missingEditsTimeout !== undefined && Object.keys(heldBackEdits).length === 0) {
+			clearTimeout(missingEditsTimeout);
+			missingEditsTimeout = undefined;
+		}
+	}
+
+	function applyLiveEdit(data) {
+		var operations = liveEdits.remoteEdit(data.senderID, data.sequence, data.revision, data.baseRevision, getOperations(data));
+		if (operations === undefined) {
+			requestResync();
+			return;
+		}
+
+		applyOperations(operations);
+		sendLiveEdit(liveEdits.nextOutgoing());
+
+		if (liveEdits.needsAcknowledgedContent()) {
+			liveEdits.acknowledge(editor.getText());
+		}
 	}
 
 	socket.on('liveResourceChanged', function(data) {
-		if (data.username === username && data.project === project && data.resource === resource) {
-			var text = data.addedCharacters !== undefined ? data.addedCharacters : "";
-			editor.getTextView().removeEventListener("ModelChanged", sendModelChanged);
-			editor.getModel().setText(text, data.offset, data.offset + data.removedCharCount);
-			editor.getTextView().addEventListener("ModelChanged", sendModelChanged);
+		if (data.username === username && data.project === project && data.resource === resource && liveEdits !== undefined) {
+			if (data.revision === undefined) {
+				applyOperations(getOperations(data));
+			}
+			else {
+				receiveLiveEdit(data);
+			}
+		}
+	});
+
+	socket.on('liveResourceChangesRequest', function(data) {
+		if (data.username === username && data.project === project && data.resource === resource && data.senderID === senderID && liveEdits !== undefined) {
+			var response = {
+				'callback_id'     : data.callback_id,
+				'requestSenderID' : data.requestSenderID,
+				'username'        : data.username,
+				'project'         : data.project,
+				'resource'        : data.resource,
+				'senderID'        : senderID
+			};
+
+			var edits;
+			if (data.epoch === undefined || data.epoch === liveEdits.getEpoch()) {
+				edits = liveEdits.getHistory(data.fromRevision, data.toRevision);
+			}
+			if (edits !== undefined) {
+				putChanges(response, edits);
+			}
+			else {
+				response.resync = true;
+			}
+
+			socket.emit('liveResourceChangesResponse', response);
+		}
+	});
+
+	socket.on('liveResourceChangesResponse', function(data) {
+		if (data.username === username && data.project === project && data.resource === resource && liveEdits !== undefined) {
+			if (data.changes === undefined) {
+				requestResync();
+				return;
+			}
+
+			var i;
+			for (i = 0; i < data.changes.length; i++) {
+				// the edits of the history are in their canonical form already
+				data.changes[i].baseRevision = data.changes[i].revision - 1;
+				receiveLiveEdit(data.changes[i]);
+			}
 		}
 	});
 
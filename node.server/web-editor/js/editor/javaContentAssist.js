@@ -13,13 +13,35 @@ define("editor/javaContentAssist", ['orion/Deferred'], function(Deferred) {
 	
 	var currentCallbackId = 0;
 	var callbacks = {};
+
+	// the proposals of the last request, content assist at the same position asks for the next page
+	var lastResult;
+
+	var MORE_PROPOSALS = {
+		'proposal' : '',
+		'description' : 'More proposals: invoke content assist again',
+		'style' : 'noemphasis',
+		'unselectable' : true
+	};
 		
 	function JavaContentAssistProvider(socket) {
 		socket.on('contentassistresponse', function (data) {
 			if(callbacks.hasOwnProperty(data.callback_id)) {
-				console.log(callbacks[data.callback_id]);
-				callbacks[data.callback_id].cb.resolve(data.proposals);
+				var callback = callbacks[data.callback_id];
 				delete callbacks[data.callback_id];
+
+				// outdated and canceled requests have no proposals that fit the buffer anymore
+				if (data.outdated || data.canceled) {
+					callback.cb.resolve([]);
+					return;
+				}
+
+				var result = callback.result;
+				result.proposals = result.proposals.concat(data.proposals);
+				result.page = data.page;
+				result.hasMore = data.hasMore;
+
+				callback.cb.resolve(result.hasMore ? result.proposals.concat([MORE_PROPOSALS]) : result.proposals);
 			}
 		});
 	}
@@ -33,16 +55,45 @@ define("editor/javaContentAssist", ['orion/Deferred'], function(Deferred) {
 		return currentCallbackId;
 	}
 
+	function isSamePosition(request, result) {
+		return result !== undefined && result.request.username === request.username && result.request.project === request.project &&
+				result.request.resource === request.resource && result.request.offset === request.offset && result.request.prefix === request.prefix;
+	}
+
     function sendContentAssistRequest(request, socket) {
 		var deferred = new Deferred();
 
+		// the server cancels the pending request of this editor, it doesn't get shown anymore anyway
+		var id;
+		for (id in callbacks) {
+			if (callbacks.hasOwnProperty(id)) {
+				callbacks[id].cb.resolve([]);
+			}
+		}
+		callbacks = {};
+
+		var page = 0;
+		if (isSamePosition(request, lastResult) && lastResult.hasMore) {
+			page = lastResult.page + 1;
+		}
+		else {
+			lastResult = {
+				request : request,
+				proposals : [],
+				page : -1,
+				hasMore : false
+			};
+		}
+
 		var callbackId = getCallbackId();
 		callbacks[callbackId] = {
 			time : new Date(),
-			cb : deferred
+			cb : deferred,
+			result : lastResult
 		};
 
 		request.callback_id = callbackId;
+		request.page = page;
 		socket.emit('contentassistrequest', request);
 
 		return deferred.promise;
@@ -0,0 +1,385 @@
+/*******************************************************************************
+ * @license
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (https://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (https://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+/*global define*/
+
+/**
+ * The operational transformation of concurrent live edits for the web editor, the same scheme as the
+ * LiveEditTransformer of the Eclipse side (see there for the details).
+ *
+ * The server numbers the live edits of a resource (their revision) and sends them to everybody, including the
+ * sender. Incoming edits are transformed against the edits between their base revision and their revision, so
+ * that every participant ends up with the same canonical edits. Only one batch of local edits is in flight at a
+ * time, local edits made meanwhile are buffered, and incoming edits are transformed against both.
+ *
+ * Once the local content is known to be the content of a revision, the canonical edits are also applied to a copy
+ * of it, and outgoing edits carry its fingerprint (the ContentFingerprint of the Eclipse side) as the hash of their
+ * base revision. The Eclipse side checks it and resyncs if the contents diverged. Participants that join get the
+ * content at the last revision, the local edits in flight or buffered reach them as edits.
+ *
+ * Revisions are counted within an epoch of the server, edits of a new epoch reset the revision state.
+ */
+define("editor/liveEditTransformer", [], function() {
+
+	var MAX_HISTORY = 1024;
+
+	// the 64 bit polynomial hash of the Eclipse side (hash * 1000003 + character), computed in 16 bit limbs
+	var BASE_LOW = 1000003 & 0xffff;
+	var BASE_HIGH = 1000003 >>> 16;
+
+	function fingerprint(text) {
+		var h0 = 0, h1 = 0, h2 = 0, h3 = 0;
+		var i, t0, t1, t2, t3, result, limbs, limb;
+		for (i = 0; i < text.length; i++) {
+			t0 = h0 * BASE_LOW + text.charCodeAt(i);
+			t1 = h1 * BASE_LOW + h0 * BASE_HIGH + Math.floor(t0 / 0x10000);
+			t2 = h2 * BASE_LOW + h1 * BASE_HIGH + Math.floor(t1 / 0x10000);
+			t3 = h3 * BASE_LOW + h2 * BASE_HIGH + Math.floor(t2 / 0x10000);
+			h0 = t0 & 0xffff;
+			h1 = t1 & 0xffff;
+			h2 = t2 & 0xffff;
+			h3 = t3 & 0xffff;
+		}
+
+		// unsigned hex without leading zeros, like Long.toHexString
+		result = '';
+		limbs = [h3, h2, h1, h0];
+		for (i = 0; i < limbs.length; i++) {
+			limb = limbs[i].toString(16);
+			result += result.length > 0 ? ('000' + limb).slice(-4) : (limb !== '0' ? limb : '');
+		}
+		return result.length > 0 ? result : '0';
+	}
+
+	function applyOperations(text, operations) {
+		var i;
+		for (i = 0; i < operations.length; i++) {
+			text = text.substring(0, operations[i].offset) + operations[i].addedCharacters + text.substring(operations[i].offset + operations[i].removedCharCount);
+		}
+		return text;
+	}
+
+	function insert(offset, text) {
+		return { 'offset' : offset, 'removedCharCount' : 0, 'addedCharacters' : text };
+	}
+
+	function remove(offset, length) {
+		return { 'offset' : offset, 'removedCharCount' : length, 'addedCharacters' : '' };
+	}
+
+	function replace(offset, removedCharCount, addedCharacters) {
+		var operations = [];
+		if (removedCharCount > 0) {
+			operations.push(remove(offset, removedCharCount));
+		}
+		if (addedCharacters) {
+			operations.push(insert(offset, addedCharacters));
+		}
+		return operations;
+	}
+
+	// transforms an operation against a concurrent operation that got applied before it
+	function transformOperation(operation, applied, winsTie) {
+		var end, appliedEnd, appliedLength, before, overlap;
+		if (operation.removedCharCount === 0) {
+			if (applied.removedCharCount === 0) {
+				if (operation.offset < applied.offset || (operation.offset === applied.offset && winsTie)) {
+					return [operation];
+				}
+				return [insert(operation.offset + applied.addedCharacters.length, operation.addedCharacters)];
+			}
+
+			appliedEnd = applied.offset + applied.removedCharCount;
+			if (operation.offset <= applied.offset) {
+				return [operation];
+			}
+			else if (operation.offset >= appliedEnd) {
+				return [insert(operation.offset - applied.removedCharCount, operation.addedCharacters)];
+			}
+			// the insert survives the concurrent delete of its surrounding
+			return [insert(applied.offset, operation.addedCharacters)];
+		}
+
+		end = operation.offset + operation.removedCharCount;
+		if (applied.removedCharCount === 0) {
+			appliedLength = applied.addedCharacters.length;
+			if (applied.offset >= end) {
+				return [operation];
+			}
+			else if (applied.offset <= operation.offset) {
+				return [remove(operation.offset + appliedLength, operation.removedCharCount)];
+			}
+			// the concurrently inserted text is kept, the delete is split around it
+			before = applied.offset - operation.offset;
+			return [remove(operation.offset, before), remove(operation.offset + appliedLength, operation.removedCharCount - before)];
+		}
+
+		appliedEnd = applied.offset + applied.removedCharCount;
+		if (end <= applied.offset) {
+			return [operation];
+		}
+		else if (operation.offset >= appliedEnd) {
+			return [remove(operation.offset - applied.removedCharCount, operation.removedCharCount)];
+		}
+		overlap = Math.min(end, appliedEnd) - Math.max(operation.offset, applied.offset);
+		if (operation.removedCharCount === overlap) {
+			return [];
+		}
+		return [remove(Math.min(operation.offset, applied.offset), operation.removedCharCount - overlap)];
+	}
+
+	// transforms two concurrent operation sequences against each other, returns the first one transformed to
+	// apply after the second one and the second one transformed to apply after the first one
+	function transform(operations, applied, winsTie) {
+		if (operations.length === 0 || applied.length === 0) {
+			return [operations, applied];
+		}
+		if (operations.length === 1 && applied.length === 1) {
+			return [transformOperation(operations[0], applied[0], winsTie), transformOperation(applied[0], operations[0], !winsTie)];
+		}
+
+		var transformedOperations = [];
+		var transformedApplied = applied;
+		var i, j, pieces, nextApplied, transformed;
+		for (i = 0; i < operations.length; i++) {
+			pieces = [operations[i]];
+			nextApplied = [];
+			for (j = 0; j < transformedApplied.length; j++) {
+				transformed = transform(pieces, [transformedApplied[j]], winsTie);
+				pieces = transformed[0];
+				nextApplied = nextApplied.concat(transformed[1]);
+			}
+			transformedOperations = transformedOperations.concat(pieces);
+			transformedApplied = nextApplied;
+		}
+		return [transformedOperations, transformedApplied];
+	}
+
+	// the transformation state of one live resource
+	function LiveEditTransformer(localID) {
+		this.localID = localID;
+		this.epoch = undefined;
+		this.history = [];
+		this.revision = -1;
+		this.firstRevision = 0;
+		this.sequence = 0;
+		this.inFlight = undefined;
+		this.inFlightSequence = 0;
+		this.buffer = [];
+		this.acknowledged = undefined;
+	}
+
+	LiveEditTransformer.prototype = {
+
+		// records an edit that was made locally, returns the batch to send now (if any)
+		localEdit: function(offset, removedCharCount, addedCharacters) {
+			this.buffer = this.buffer.concat(replace(offset, removedCharCount, addedCharacters));
+			return this.nextOutgoing();
+		},
+
+		// turns an edit that came back from the server into its canonical form and transforms it against the
+		// local edits in flight and buffered, returns the operations to apply locally, or undefined if a resync is needed
+		remoteEdit: function(origin, sequence, revision, baseRevision, operations) {
+			var i, transformed;
+			if (this.revision >= 0 && revision <= this.revision) {
+				if (origin === this.localID && this.inFlight !== undefined && this.inFlightSequence === sequence) {
+					// the batch in flight is part of content taken over from another participant
+					this.inFlight = undefined;
+				}
+				return [];
+			}
+
+			if (this.revision >= 0 && baseRevision !== undefined && baseRevision >= 0 && baseRevision < revision - 1) {
+				if (baseRevision < this.firstRevision - 1) {
+					return undefined;
+				}
+				for (i = 0; i < this.history.length; i++) {
+					if (this.history[i].revision > baseRevision && this.history[i].origin !== origin) {
+						operations = transform(operations, this.history[i].operations, false)[0];
+					}
+				}
+			}
+
+			if (this.revision < 0) {
+				this.firstRevision = revision;
+			}
+			this.revision = revision;
+			if (this.acknowledged !== undefined) {
+				this.acknowledged = applyOperations(this.acknowledged, operations);
+			}
+			this.history.push({ 'origin' : origin, 'sequence' : sequence, 'revision' : revision, 'operations' : operations });
+			if (this.history.length > MAX_HISTORY) {
+				this.history.shift();
+				this.firstRevision = this.history[0].revision;
+			}
+
+			if (origin === this.localID) {
+				if (this.inFlight !== undefined && this.inFlightSequence === sequence) {
+					this.inFlight = undefined;
+				}
+				return [];
+			}
+
+			if (this.inFlight !== undefined) {
+				transformed = transform(this.inFlight, operations, false);
+				this.inFlight = transformed[0];
+				operations = transformed[1];
+			}
+			if (this.buffer.length > 0) {
+				transformed = transform(this.buffer, operations, false);
+				this.buffer = transformed[0];
+				operations = transformed[1];
+			}
+			return operations;
+		},
+
+		// returns the buffered edits to send when nothing is in flight anymore
+		nextOutgoing: function() {
+			if (this.inFlight !== undefined || this.buffer.length === 0) {
+				return undefined;
+			}
+			if (this.revision < 0) {
+				// the revision the content is based on isn't known yet, an empty batch comes back with it
+				this.inFlight = [];
+			}
+			else {
+				this.inFlight = this.buffer;
+				this.buffer = [];
+			}
+			this.inFlightSequence = ++this.sequence;
+			return {
+				'sequence' : this.inFlightSequence,
+				'baseRevision' : this.revision,
+				'baseHash' : this.revision >= 0 && this.acknowledged !== undefined ? fingerprint(this.acknowledged) : undefined,
+				'operations' : this.inFlight
+			};
+		},
+
+		// whether the local content is the content at the current revision and isn't known yet
+		needsAcknowledgedContent: function() {
+			return this.acknowledged === undefined && this.revision >= 0 && this.inFlight === undefined && this.buffer.length === 0;
+		},
+
+		// takes the local content as the content at the current revision, see needsAcknowledgedContent
+		acknowledge: function(content) {
+			if (this.needsAcknowledgedContent()) {
+				this.acknowledged = content;
+			}
+		},
+
+		// returns the canonical edits from the first to the last revision, or undefined if they aren't all kept anymore
+		getHistory: function(fromRevision, toRevision) {
+			if (this.history.length === 0 || this.history[0].revision > fromRevision || this.revision < toRevision) {
+				return undefined;
+			}
+			var result = [];
+			var i;
+			for (i = 0; i < this.history.length; i++) {
+				if (this.history[i].revision >= fromRevision && this.history[i].revision <= toRevision) {
+					result.push(this.history[i]);
+				}
+			}
+			return result;
+		},
+
+		// returns the last canonical edits up to the current revision, at most the given number of them
+		getRecentHistory: function(count) {
+			var result = [];
+			var i;
+			for (i = 0; i < this.history.length; i++) {
+				if (this.history[i].revision > this.revision - count) {
+					result.push(this.history[i]);
+				}
+			}
+			return result;
+		},
+
+		getRevision: function() {
+			return this.revision;
+		},
+
+		getEpoch: function() {
+			return this.epoch;
+		},
+
+		// the content at the current revision, or undefined if it isn't known
+		getAcknowledgedContent: function() {
+			return this.acknowledged;
+		},
+
+		// whether local edits are in flight or buffered, which the local content contains already
+		hasPendingEdits: function() {
+			return this.inFlight !== undefined || this.buffer.length > 0;
+		},
+
+		// takes note of the epoch of an incoming edit, returns true if it changed, in which case the revision state
+		// is reset and the local edits in flight are buffered again
+		startEpoch: function(epoch) {
+			if (epoch === undefined) {
+				return false;
+			}
+			if (this.epoch === undefined || this.epoch === epoch) {
+				this.epoch = epoch;
+				return false;
+			}
+
+			this.epoch = epoch;
+			this.reset();
+			if (this.inFlight !== undefined) {
+				this.buffer = this.inFlight.concat(this.buffer);
+				this.inFlight = undefined;
+			}
+			return true;
+		},
+
+		// takes the content as being at the given revision, if the revision isn't known yet, together with the
+		// canonical edits up to that revision (if any) that concurrent incoming edits are transformed against
+		startAt: function(epoch, revision, content, history) {
+			if (this.revision < 0 && revision !== undefined && revision >= 0) {
+				this.epoch = epoch;
+				this.revision = revision;
+				this.firstRevision = revision + 1;
+				if (content !== undefined && !this.hasPendingEdits()) {
+					this.acknowledged = content;
+				}
+
+				if (history !== undefined && history.length > 0 && history[history.length - 1].revision === revision
+						&& history[history.length - 1].revision - history[0].revision === history.length - 1) {
+					this.history = history.slice(Math.max(0, history.length - MAX_HISTORY));
+					this.firstRevision = this.history[0].revision;
+				}
+			}
+		},
+
+		// forgets the canonical edits, local edits in flight or buffered are kept
+		reset: function() {
+			this.revision = -1;
+			this.history = [];
+			this.acknowledged = undefined;
+		},
+
+		// takes over the content of another participant at the given revision, the buffered local edits are gone
+		// with the replaced content
+		restart: function(epoch, revision, content, history) {
+			this.reset();
+			this.buffer = [];
+			this.startAt(epoch, revision, content, history);
+		}
+
+	};
+
+	return {
+		LiveEditTransformer: LiveEditTransformer,
+		replace: replace,
+		transform: transform,
+		fingerprint: fingerprint
+	};
+});